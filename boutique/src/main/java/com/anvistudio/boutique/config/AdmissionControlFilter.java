@@ -0,0 +1,213 @@
+package com.anvistudio.boutique.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control in front of everything else (including Spring Security), so a sale spike
+ * cannot take every Tomcat thread and Hikari connection away from checkout.
+ * One adaptive concurrency limit covers the whole shop. Each request class may fill only its share
+ * of it (checkout the whole limit, browsing the smallest part), so as load rises browsing is shed
+ * first, then admin and cart, and checkout keeps the remaining headroom.
+ * The limit follows a gradient rule: every window it is scaled by minRTT / recentRTT of the class
+ * that slowed down most, plus a small sqrt(limit) allowance to probe for more capacity. Latency
+ * growing above its observed minimum (queueing in the pool or the database) therefore shrinks the
+ * limit before checkout latency suffers. Shed requests get a tiny static 503 page with Retry-After.
+ * Checkout latency is dominated by the payment provider, so it is not fed into the gradient: a slow
+ * Stripe would otherwise shrink the limit and shed browsing while the shop itself has capacity to spare.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    enum RequestClass { CHECKOUT, CART, ADMIN, BROWSE }
+
+    private static final byte[] BUSY_PAGE = ("<!DOCTYPE html><html lang=\"en\"><head><meta charset=\"UTF-8\">"
+            + "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\"><title>AnviStudio is busy</title></head>"
+            + "<body style=\"font-family:sans-serif;text-align:center;padding:4rem 1rem\">"
+            + "<h1>We are a little busy right now</h1>"
+            + "<p>Lots of shoppers are here at the moment. Please try again in a few seconds &mdash; your cart is safe.</p>"
+            + "<p><a href=\"javascript:location.reload()\">Try again</a></p></body></html>").getBytes(StandardCharsets.UTF_8);
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final int minSamples;
+    private final int minRttResetWindows;
+    private final Map<RequestClass, ClassStats> stats = new EnumMap<>(RequestClass.class);
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicInteger peakInflight = new AtomicInteger(); // Per window
+    private volatile double limit;
+    private int windows; // Only touched by the scheduled updateLimit()
+
+    public AdmissionControlFilter(@Value("${admission.enabled:true}") boolean enabled,
+                                  @Value("${admission.initial-limit:50}") int initialLimit,
+                                  @Value("${admission.min-limit:10}") int minLimit,
+                                  @Value("${admission.max-limit:200}") int maxLimit,
+                                  @Value("${admission.smoothing:0.2}") double smoothing,
+                                  @Value("${admission.min-samples:10}") int minSamples,
+                                  @Value("${admission.min-rtt-reset-windows:300}") int minRttResetWindows,
+                                  @Value("${admission.share.checkout:1.0}") double checkoutShare,
+                                  @Value("${admission.share.cart:0.85}") double cartShare,
+                                  @Value("${admission.share.admin:0.7}") double adminShare,
+                                  @Value("${admission.share.browse:0.6}") double browseShare) {
+        this.enabled = enabled;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.smoothing = smoothing;
+        this.minSamples = minSamples;
+        this.minRttResetWindows = Math.max(1, minRttResetWindows);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        stats.put(RequestClass.CHECKOUT, new ClassStats(checkoutShare));
+        stats.put(RequestClass.CART, new ClassStats(cartShare));
+        stats.put(RequestClass.ADMIN, new ClassStats(adminShare));
+        stats.put(RequestClass.BROWSE, new ClassStats(browseShare));
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || classify(request.getServletPath()) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        ClassStats classStats = stats.get(classify(request.getServletPath()));
+
+        int ceiling = Math.max(1, (int) (limit * classStats.share));
+        int current;
+        do {
+            current = inflight.get();
+            if (current >= ceiling) {
+                classStats.shed.increment();
+                shed(response);
+                return;
+            }
+        } while (!inflight.compareAndSet(current, current + 1));
+        peakInflight.accumulateAndGet(current + 1, Math::max);
+
+        long started = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            inflight.decrementAndGet();
+            classStats.rttNanos.add(System.nanoTime() - started);
+            classStats.samples.increment();
+        }
+    }
+
+    /**
+     * @return The request class, or null for requests that are never shed (static files, error pages).
+     */
+    private static RequestClass classify(String path) {
+        if (path.startsWith("/css/") || path.startsWith("/js/") || path.startsWith("/images/")
+                || path.equals("/favicon.ico") || path.equals("/error")) {
+            return null;
+        }
+        if (path.equals("/checkout") || path.startsWith("/payment/") || path.equals("/stripe/webhook")) {
+            return RequestClass.CHECKOUT;
+        }
+        if (path.equals("/cart") || path.startsWith("/cart/") || path.equals("/login") || path.equals("/logout")) {
+            return RequestClass.CART;
+        }
+        if (path.startsWith("/admin/")) {
+            return RequestClass.ADMIN;
+        }
+        return RequestClass.BROWSE;
+    }
+
+    private static void shed(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "2");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+        response.setContentType("text/html;charset=UTF-8");
+        response.setContentLength(BUSY_PAGE.length);
+        response.getOutputStream().write(BUSY_PAGE);
+    }
+
+    /**
+     * Recomputes the limit from the last window's latencies. A window in which no class has enough
+     * samples leaves it unchanged, and the limit only grows while the shop actually uses over half of it.
+     * MODIFIED: Checkout latencies are left out (see the class comment).
+     */
+    @Scheduled(fixedRateString = "${admission.window-ms:1000}")
+    public void updateLimit() {
+        boolean resetMinRtt = ++windows % minRttResetWindows == 0;
+        double gradient = 1.0;
+        boolean sampled = false;
+
+        for (Map.Entry<RequestClass, ClassStats> entry : stats.entrySet()) {
+            ClassStats classStats = entry.getValue();
+            long samples = classStats.samples.sumThenReset();
+            long rttNanos = classStats.rttNanos.sumThenReset();
+            if (entry.getKey() == RequestClass.CHECKOUT || samples < minSamples) {
+                continue;
+            }
+            long averageRtt = Math.max(1, rttNanos / samples);
+            // Periodically forget the minimum so a permanently slower workload becomes the new baseline
+            if (resetMinRtt || averageRtt < classStats.minRttNanos) {
+                classStats.minRttNanos = averageRtt;
+            }
+            gradient = Math.min(gradient, (double) classStats.minRttNanos / averageRtt);
+            sampled = true;
+        }
+
+        int peak = peakInflight.getAndSet(inflight.get());
+        if (!sampled) {
+            return;
+        }
+
+        double current = limit;
+        double target = current * Math.max(0.5, gradient) + Math.sqrt(current);
+        if (target > current && peak < current / 2) {
+            return; // App-limited: low latency says nothing about capacity beyond what is in use
+        }
+        double next = (1 - smoothing) * current + smoothing * target;
+        limit = Math.min(maxLimit, Math.max(minLimit, next));
+    }
+
+    @Scheduled(fixedDelayString = "${admission.metrics-interval-ms:60000}")
+    public void logMetrics() {
+        long shedTotal = stats.values().stream().mapToLong(classStats -> classStats.shed.sum()).sum();
+        if (shedTotal == 0) {
+            return;
+        }
+        StringBuilder line = new StringBuilder("LOG: Admission control limit=").append((int) limit)
+                .append(", in flight=").append(inflight.get()).append(" | shed");
+        stats.forEach((requestClass, classStats) -> line.append(' ')
+                .append(requestClass.name().toLowerCase(Locale.ROOT)).append('=').append(classStats.shed.sum()));
+        System.out.println(line.append('.'));
+    }
+
+    private static final class ClassStats {
+        private final double share;
+        private final LongAdder rttNanos = new LongAdder();
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder shed = new LongAdder(); // Since start
+        private long minRttNanos = Long.MAX_VALUE; // Only touched by updateLimit()
+
+        private ClassStats(double share) {
+            this.share = share;
+        }
+    }
+}
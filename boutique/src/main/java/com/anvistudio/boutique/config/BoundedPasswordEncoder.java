@@ -0,0 +1,119 @@
+package com.anvistudio.boutique.config;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BCrypt encoder whose hashing runs on a small, CPU-sized pool instead of on the request thread.
+ * At most one hash per core is computed at a time, a bounded queue absorbs short bursts, and when
+ * both are full the call is rejected at once. A login storm therefore queues (or fails fast)
+ * behind the hashing pool while the rest of the shop keeps its CPU.
+ * Rejections and timeouts surface as AuthenticationServiceException, which the login form reports
+ * as "busy" and every other caller already handles as a failed operation.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder {
+
+    private final BCryptPasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final long waitTimeoutMillis;
+
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * @param strength BCrypt cost; stored hashes with a lower cost are upgraded on the next login.
+     * @param threads Hashing threads; 0 or less uses one per available processor.
+     * @param queueCapacity Hashes allowed to wait for a free thread.
+     * @param waitTimeoutMillis How long a caller waits for its hash, queueing included.
+     */
+    public BoundedPasswordEncoder(int strength, int threads, int queueCapacity, long waitTimeoutMillis) {
+        this.delegate = new BCryptPasswordEncoder(strength);
+        this.waitTimeoutMillis = waitTimeoutMillis;
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hashing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return run(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return run(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * Cheap (parses the cost from the hash), so it stays on the caller's thread.
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private <T> T run(Callable<T> hashing) {
+        Future<T> future;
+        try {
+            future = executor.submit(hashing);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            System.err.println("LOG: Password hashing pool full; request rejected (" + describe() + ").");
+            throw new AuthenticationServiceException("We are handling a lot of sign-ins right now, please try again in a moment.", e);
+        }
+
+        try {
+            T result = future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+            hashes.increment();
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true); // Frees the queue slot if it has not started yet
+            timeouts.increment();
+            System.err.println("LOG: Password hashing timed out after " + waitTimeoutMillis + " ms (" + describe() + ").");
+            throw new AuthenticationServiceException("We are handling a lot of sign-ins right now, please try again in a moment.", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AuthenticationServiceException("Interrupted while checking the password.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException; // E.g. IllegalArgumentException for a null password
+            }
+            throw new AuthenticationServiceException("Password hashing failed.", cause);
+        }
+    }
+
+    private String describe() {
+        return "hashes=" + hashes.sum() + ", rejected=" + rejected.sum() + ", timeouts=" + timeouts.sum()
+                + ", active=" + executor.getActiveCount() + ", queued=" + executor.getQueue().size();
+    }
+
+    /**
+     * Called by Spring on context close (inferred destroy method of the bean).
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,129 @@
+package com.anvistudio.boutique.config;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Semaphore bulkhead in front of the connection pool. With virtual threads nothing caps the
+ * number of requests that reach the database at once, and thousands of threads spinning in
+ * Hikari's handoff queue waste CPU and then fail together at its connection timeout.
+ * Here at most "permits" connections are handed out (normally the pool size), at most
+ * "maxWaiting" threads wait in a fair queue for one, and a thread that cannot get one within
+ * maxWaitMillis fails fast with SQLTransientConnectionException, as Hikari itself would.
+ * The permit is returned when the connection is closed (i.e. handed back to the pool).
+ */
+public class BulkheadDataSource extends DelegatingDataSource {
+
+    private final Semaphore permits;
+    private final int permitCount;
+    private final int maxWaiting;
+    private final long maxWaitMillis;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public BulkheadDataSource(DataSource target, int permits, int maxWaiting, long maxWaitMillis) {
+        super(target);
+        this.permitCount = Math.max(1, permits);
+        this.permits = new Semaphore(permitCount, true);
+        this.maxWaiting = maxWaiting;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        return guard(() -> super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        return guard(() -> super.getConnection(username, password));
+    }
+
+    private void acquire() throws SQLException {
+        if (permits.getQueueLength() >= maxWaiting) {
+            rejected.increment();
+            throw new SQLTransientConnectionException("Database bulkhead full (" + describe() + ").");
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("No database connection within " + maxWaitMillis + " ms (" + describe() + ").");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection.", e);
+        }
+    }
+
+    /**
+     * Wraps the pooled connection so close() returns the permit exactly once.
+     * The permit is released here if the pool itself fails to hand out a connection.
+     */
+    private Connection guard(ConnectionSupplier supplier) throws SQLException {
+        Connection connection;
+        try {
+            connection = supplier.get();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "close" -> {
+                        try {
+                            yield invoke(connection, method, args);
+                        } finally {
+                            if (released.compareAndSet(false, true)) {
+                                permits.release();
+                            }
+                        }
+                    }
+                    default -> invoke(connection, method, args);
+                });
+    }
+
+    private static Object invoke(Connection connection, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Closes the pool on shutdown; the bean's inferred destroy method is resolved on this wrapper.
+     */
+    public void close() throws Exception {
+        if (getTargetDataSource() instanceof AutoCloseable pool) {
+            pool.close();
+        }
+    }
+
+    public String describe() {
+        return "in use=" + (permitCount - permits.availablePermits()) + "/" + permitCount
+                + ", waiting=" + permits.getQueueLength() + ", rejected=" + rejected.sum() + ", timeouts=" + timeouts.sum();
+    }
+
+    @FunctionalInterface
+    private interface ConnectionSupplier {
+        Connection get() throws SQLException;
+    }
+}
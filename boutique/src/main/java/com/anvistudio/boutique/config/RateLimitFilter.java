@@ -0,0 +1,231 @@
+package com.anvistudio.boutique.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throttles the public endpoints that cost the most per request (BCrypt on login and password
+ * reset, SMTP on OTP and contact forms, the LIKE product search) with token buckets per client IP
+ * and, where the form names one, per account (username / email).
+ * Each bucket is a single AtomicLong in GCRA form (the time at which the bucket will be full again),
+ * updated with compare-and-set, so concurrent requests never block each other. Buckets live in a
+ * ConcurrentHashMap capped at security.rate-limit.max-keys: idle (full) buckets are swept
+ * periodically, and while the map is at its cap new keys share one overflow bucket per route group
+ * and key kind, so flooding it with fresh usernames cannot switch the limit off.
+ * A rejected request gets 429 with Retry-After. Registered in the security chain (SecurityConfig),
+ * ahead of the login filter, not as a servlet filter of its own.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    enum RouteGroup { LOGIN, OTP, SEARCH, CONTACT }
+
+    // Form field holding the account a POST targets; requests without it are limited per IP only
+    private static final Map<String, String> ACCOUNT_PARAMETERS = Map.of(
+            "/login", "username",
+            "/register", "username",
+            "/forgot-password", "identifier",
+            "/confirm-otp", "email",
+            "/reset-otp", "email",
+            "/reset-password", "email",
+            "/contact", "email",
+            "/newsletter/subscribe", "email");
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final Map<RouteGroup, Limit> ipLimits = new EnumMap<>(RouteGroup.class);
+    private final Map<RouteGroup, Limit> accountLimits = new EnumMap<>(RouteGroup.class);
+    private final boolean enabled;
+    private final int maxKeys;
+
+    // Counters since start, logged by logMetrics()
+    private final Map<RouteGroup, LongAdder> rejectedByIp = new EnumMap<>(RouteGroup.class);
+    private final Map<RouteGroup, LongAdder> rejectedByAccount = new EnumMap<>(RouteGroup.class);
+    private final LongAdder overflowed = new LongAdder();
+
+    /**
+     * Limits are requests per minute (also the burst a full bucket allows); 0 or less disables that limit.
+     */
+    public RateLimitFilter(@Value("${security.rate-limit.enabled:true}") boolean enabled,
+                           @Value("${security.rate-limit.max-keys:100000}") int maxKeys,
+                           @Value("${security.rate-limit.login.per-ip:30}") int loginPerIp,
+                           @Value("${security.rate-limit.login.per-account:10}") int loginPerAccount,
+                           @Value("${security.rate-limit.otp.per-ip:10}") int otpPerIp,
+                           @Value("${security.rate-limit.otp.per-account:5}") int otpPerAccount,
+                           @Value("${security.rate-limit.search.per-ip:60}") int searchPerIp,
+                           @Value("${security.rate-limit.contact.per-ip:10}") int contactPerIp,
+                           @Value("${security.rate-limit.contact.per-account:3}") int contactPerAccount) {
+        this.enabled = enabled;
+        this.maxKeys = maxKeys;
+        ipLimits.put(RouteGroup.LOGIN, Limit.perMinute(loginPerIp));
+        ipLimits.put(RouteGroup.OTP, Limit.perMinute(otpPerIp));
+        ipLimits.put(RouteGroup.SEARCH, Limit.perMinute(searchPerIp));
+        ipLimits.put(RouteGroup.CONTACT, Limit.perMinute(contactPerIp));
+        accountLimits.put(RouteGroup.LOGIN, Limit.perMinute(loginPerAccount));
+        accountLimits.put(RouteGroup.OTP, Limit.perMinute(otpPerAccount));
+        accountLimits.put(RouteGroup.CONTACT, Limit.perMinute(contactPerAccount));
+        for (RouteGroup group : RouteGroup.values()) {
+            rejectedByIp.put(group, new LongAdder());
+            rejectedByAccount.put(group, new LongAdder());
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || classify(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RouteGroup group = classify(request);
+        long now = System.nanoTime();
+
+        long waitNanos = acquire(group, "ip", request.getRemoteAddr(), ipLimits.get(group), now);
+        if (waitNanos > 0) {
+            rejectedByIp.get(group).increment();
+            reject(response, waitNanos);
+            return;
+        }
+
+        String accountParameter = ACCOUNT_PARAMETERS.get(request.getServletPath());
+        String account = accountParameter != null ? request.getParameter(accountParameter) : null;
+        if (account != null && !account.isBlank()) {
+            waitNanos = acquire(group, "account", account.trim().toLowerCase(Locale.ROOT), accountLimits.get(group), now);
+            if (waitNanos > 0) {
+                rejectedByAccount.get(group).increment();
+                reject(response, waitNanos);
+                return;
+            }
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * @return The route group the request is throttled under, or null if it is not throttled.
+     */
+    private static RouteGroup classify(HttpServletRequest request) {
+        String path = request.getServletPath();
+        if ("POST".equals(request.getMethod())) {
+            return switch (path) {
+                case "/login" -> RouteGroup.LOGIN;
+                case "/register", "/confirm-otp", "/forgot-password", "/reset-otp", "/reset-password" -> RouteGroup.OTP;
+                case "/contact", "/newsletter/subscribe" -> RouteGroup.CONTACT;
+                default -> null;
+            };
+        }
+        if ("GET".equals(request.getMethod()) && "/products".equals(path)) {
+            String keyword = request.getParameter("keyword");
+            return keyword != null && !keyword.isBlank() ? RouteGroup.SEARCH : null;
+        }
+        return null;
+    }
+
+    /**
+     * Takes one token from the key's bucket.
+     * @return 0 if the request may proceed, otherwise the nanoseconds until a token is available.
+     */
+    private long acquire(RouteGroup group, String kind, String key, Limit limit, long now) {
+        if (limit == null) {
+            return 0;
+        }
+
+        String bucketKey = group + ":" + kind + ":" + key;
+        AtomicLong bucket = buckets.get(bucketKey);
+        if (bucket == null) {
+            if (buckets.size() >= maxKeys) {
+                overflowed.increment();
+                bucketKey = group + ":" + kind + ":*";
+            }
+            AtomicLong created = new AtomicLong(now);
+            AtomicLong existing = buckets.putIfAbsent(bucketKey, created);
+            bucket = existing != null ? existing : created;
+        }
+
+        while (true) {
+            long fullAt = bucket.get();
+            long start = Math.max(fullAt, now);
+            long waitNanos = start - now - limit.burstNanos;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (bucket.compareAndSet(fullAt, start + limit.intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    private static void reject(HttpServletResponse response, long waitNanos) throws IOException {
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write("Too many requests. Please try again in " + retryAfterSeconds + " second(s).");
+    }
+
+    /**
+     * Drops buckets that have refilled completely; they behave exactly like a missing bucket.
+     * A request racing with the removal may lose its token, which only ever favours the client.
+     */
+    @Scheduled(fixedDelayString = "${security.rate-limit.sweep-interval-ms:60000}")
+    public void sweepIdleBuckets() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    @Scheduled(fixedDelayString = "${security.rate-limit.metrics-interval-ms:60000}")
+    public void logMetrics() {
+        long rejected = rejectedByIp.values().stream().mapToLong(LongAdder::sum).sum()
+                + rejectedByAccount.values().stream().mapToLong(LongAdder::sum).sum();
+        if (rejected == 0) {
+            return;
+        }
+        StringBuilder line = new StringBuilder("LOG: Rate limiter rejected");
+        for (RouteGroup group : RouteGroup.values()) {
+            line.append(' ').append(group.name().toLowerCase(Locale.ROOT))
+                    .append("=").append(rejectedByIp.get(group).sum())
+                    .append("/").append(rejectedByAccount.get(group).sum());
+        }
+        line.append(" (per IP/per account) | buckets=").append(buckets.size())
+                .append(", overflowed keys=").append(overflowed.sum()).append(".");
+        System.out.println(line);
+    }
+
+    /**
+     * Token bucket in GCRA terms: one token every intervalNanos, up to burstNanos / intervalNanos + 1 tokens banked.
+     */
+    private static final class Limit {
+        private final long intervalNanos;
+        private final long burstNanos;
+
+        private Limit(long intervalNanos, long burstNanos) {
+            this.intervalNanos = intervalNanos;
+            this.burstNanos = burstNanos;
+        }
+
+        static Limit perMinute(int requests) {
+            if (requests <= 0) {
+                return null;
+            }
+            long intervalNanos = TimeUnit.MINUTES.toNanos(1) / requests;
+            return new Limit(intervalNanos, intervalNanos * (requests - 1));
+        }
+    }
+}
@@ -1,17 +1,25 @@
 package com.anvistudio.boutique.config;
 
+import com.anvistudio.boutique.dto.BoutiqueUserDetails;
+import com.anvistudio.boutique.service.GuestCartService;
+import com.anvistudio.boutique.service.UserDetailsCache;
 import com.anvistudio.boutique.service.UserService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.AuthenticationFailureHandler; // NEW IMPORT
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 //import org.springframework.security.core.userdetails.DisabledException; // NEW IMPORT
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -22,18 +30,32 @@ import java.io.IOException;
 @EnableWebSecurity
 public class SecurityConfig {
 
+    /**
+     * MODIFIED: BCrypt hashing runs on a bounded, CPU-sized pool (see BoundedPasswordEncoder),
+     * so a burst of logins or registrations cannot occupy every request thread with hashing.
+     */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${security.password.bcrypt-strength:10}") int strength,
+                                           @Value("${security.password.hashing-threads:0}") int hashingThreads,
+                                           @Value("${security.password.queue-capacity:64}") int queueCapacity,
+                                           @Value("${security.password.wait-timeout-ms:5000}") long waitTimeoutMillis) {
+        return new BoundedPasswordEncoder(strength, hashingThreads, queueCapacity, waitTimeoutMillis);
     }
 
     /**
      * Defines the authentication provider.
+     * MODIFIED: Loaded users are cached (bounded, TTL) so repeated authentications skip the database;
+     * UserService evicts them on credential, email and verification changes.
+     * Hashes stored with a lower BCrypt cost than configured are re-encoded on the next successful login.
      */
     @Bean
-    public DaoAuthenticationProvider authenticationProvider(UserDetailsService userDetailsService, PasswordEncoder passwordEncoder) {
+    public DaoAuthenticationProvider authenticationProvider(UserDetailsService userDetailsService, PasswordEncoder passwordEncoder,
+                                                            UserDetailsCache userDetailsCache,
+                                                            UserDetailsPasswordService userDetailsPasswordService) {
         DaoAuthenticationProvider authProvider = new DaoAuthenticationProvider(userDetailsService);
         authProvider.setPasswordEncoder(passwordEncoder);
+        authProvider.setUserCache(userDetailsCache);
+        authProvider.setUserDetailsPasswordService(userDetailsPasswordService);
         return authProvider;
     }
 
@@ -49,6 +71,9 @@ public class SecurityConfig {
             if (exception instanceof DisabledException) {
                 // We redirect them back to the OTP page, passing their username (email)
                 redirectUrl = "/confirm-otp?email=" + request.getParameter("username") + "&error=unverified";
+            } else if (exception instanceof AuthenticationServiceException) {
+                // Password hashing pool saturated: not a wrong password, ask to retry
+                redirectUrl = "/login?error=busy";
             } else if (exception.getMessage().equals("Bad credentials")) {
                 redirectUrl = "/login?error=bad_credentials";
             }
@@ -57,16 +82,32 @@ public class SecurityConfig {
         };
     }
 
+    /**
+     * NEW: The rate limit filter runs inside the security chain only (see securityFilterChain);
+     * this stops Spring Boot from also registering the bean as a servlet filter.
+     */
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public FilterRegistrationBean<RateLimitFilter> rateLimitFilterRegistration(RateLimitFilter rateLimitFilter) {
+        FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(rateLimitFilter);
+        registration.setEnabled(false);
+        return registration;
+    }
+
+    @Bean
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, GuestCartService guestCartService,
+                                                   RateLimitFilter rateLimitFilter) throws Exception {
         http
                 .csrf(csrf -> csrf.disable())
+                // NEW: Throttle login, OTP, search and contact requests before any password is hashed
+                .addFilterBefore(rateLimitFilter, UsernamePasswordAuthenticationFilter.class)
                 .headers(headers -> headers.frameOptions(frameOptions -> frameOptions.sameOrigin()))
 
                 .authorizeHttpRequests(authorize -> authorize
                         .requestMatchers("/admin/**").hasRole("ADMIN")
                         .requestMatchers("/customer/**").hasRole("CUSTOMER")
                         .requestMatchers("/wishlist", "/wishlist/**").authenticated()
+                        // NEW: Anonymous shoppers build a cookie-based guest cart
+                        .requestMatchers(HttpMethod.POST, "/cart/add", "/cart/guest/**").permitAll()
                         .requestMatchers("/cart", "/cart/**").authenticated()
                         .requestMatchers(
                                 "/", "/login", "/register", "/about", "/contact",
@@ -85,6 +126,8 @@ public class SecurityConfig {
                                 "/policy_terms", // <--- ADDED
                                 "/policy_shipping", // <--- ADDED
                                 "/customer/profile/verify-new-email",
+                                // NEW: Stripe webhook (authenticated by its signature, not a session)
+                                "/stripe/webhook",
                                 "/css/**", "/js/**", "/images/**"
                         ).permitAll()
                         .anyRequest().authenticated()
@@ -96,6 +139,16 @@ public class SecurityConfig {
                         // Use the custom failure handler
                         .failureHandler(authenticationFailureHandler()) // NEW LINE
                         .successHandler((request, response, authentication) -> {
+                            // NEW: Move the guest cart cookie into the user's cart (one batched upsert)
+                            try {
+                                if (authentication.getPrincipal() instanceof BoutiqueUserDetails principal) {
+                                    guestCartService.mergeIntoUserCart(request, response, principal.getUserId());
+                                }
+                            } catch (Exception e) {
+                                // Never block a login on the guest cart; the cookie is kept for the next attempt
+                                System.err.println("LOG: Guest cart merge failed: " + e.getMessage());
+                            }
+
                             if (authentication.getAuthorities().stream()
                                     .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN"))) {
                                 response.sendRedirect("/admin/dashboard");
@@ -15,6 +15,13 @@ public class StripeConfig {
     @Value("${stripe.api.secretKey}")
     private String stripeSecretKey;
 
+    // NEW: Socket-level timeouts bound how long a gateway thread can be held by one Stripe request
+    @Value("${payment.gateway.connect-timeout-ms:2000}")
+    private int connectTimeoutMillis;
+
+    @Value("${payment.gateway.read-timeout-ms:4000}")
+    private int readTimeoutMillis;
+
     /**
      * Initializes the Stripe API key. This method runs after bean properties are set.
      */
@@ -22,6 +29,10 @@ public class StripeConfig {
     public void init() {
         // Set the API key globally in the Stripe SDK
         Stripe.apiKey = stripeSecretKey;
+        Stripe.setConnectTimeout(connectTimeoutMillis);
+        Stripe.setReadTimeout(readTimeoutMillis);
+        // Retries (with idempotency keys, jitter and a circuit breaker) are handled by PaymentGatewayExecutor
+        Stripe.setMaxNetworkRetries(0);
         System.out.println("STRIPE INFO: Stripe API key initialized successfully.");
     }
 }
\ No newline at end of file
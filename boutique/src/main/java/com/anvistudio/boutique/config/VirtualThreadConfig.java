@@ -0,0 +1,44 @@
+package com.anvistudio.boutique.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * Virtual-thread execution mode (spring.threads.virtual.enabled=true).
+ * Spring Boot then runs Tomcat requests, @Scheduled jobs and async tasks on virtual threads, and
+ * the app's own worker pools follow (see WorkerThreads). A blocked SMTP or Stripe call no longer
+ * holds a platform thread, so the number of concurrent requests is capped by admission control
+ * (AdmissionControlFilter) and, for the database, by the JDBC bulkhead configured here.
+ * Carrier pinning is reported by VirtualThreadPinningMonitor.
+ */
+@Configuration
+public class VirtualThreadConfig {
+
+    /**
+     * Puts the application DataSource behind a BulkheadDataSource. On by default in virtual-thread mode.
+     * Static, as bean post-processors are created before regular beans.
+     */
+    @Bean
+    public static BeanPostProcessor dataSourceBulkhead(
+            @Value("${datasource.bulkhead.enabled:${spring.threads.virtual.enabled:false}}") boolean enabled,
+            @Value("${datasource.bulkhead.permits:${spring.datasource.hikari.maximum-pool-size:10}}") int permits,
+            @Value("${datasource.bulkhead.max-waiting:1000}") int maxWaiting,
+            @Value("${datasource.bulkhead.max-wait-ms:3000}") long maxWaitMillis) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (enabled && "dataSource".equals(beanName) && bean instanceof DataSource dataSource
+                        && !(bean instanceof BulkheadDataSource)) {
+                    System.out.println("LOG: Database bulkhead enabled: " + permits + " connection(s), up to "
+                            + maxWaiting + " waiting for at most " + maxWaitMillis + " ms.");
+                    return new BulkheadDataSource(dataSource, permits, maxWaiting, maxWaitMillis);
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,105 @@
+package com.anvistudio.boutique.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Reports virtual threads pinned to their carrier (blocking inside a synchronized block or a
+ * native frame) for longer than diagnostics.pinning.threshold-ms, using the JDK's
+ * jdk.VirtualThreadPinned JFR event in-process. Each new pinning site is logged once with its
+ * stack; afterwards only the counts per site are summarised. Pinned sites in our code should use
+ * ReentrantLock instead of synchronized; sites in libraries point at a driver or SDK to upgrade.
+ * Active only in virtual-thread mode.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int MAX_SITES = 200;
+    private static final int FRAMES_PER_SITE = 8;
+
+    private final long thresholdMillis;
+    private final Map<String, LongAdder> pinsBySite = new ConcurrentHashMap<>();
+    private final LongAdder pinnedMillis = new LongAdder();
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(@Value("${diagnostics.pinning.threshold-ms:20}") long thresholdMillis) {
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(thresholdMillis)).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::record);
+        stream.startAsync();
+        System.out.println("LOG: Watching for virtual threads pinned longer than " + thresholdMillis + " ms.");
+    }
+
+    private void record(RecordedEvent event) {
+        String site = describe(event.getStackTrace());
+        pinnedMillis.add(event.getDuration().toMillis());
+
+        LongAdder count = pinsBySite.get(site);
+        if (count == null) {
+            if (pinsBySite.size() >= MAX_SITES) {
+                site = "(other sites)";
+            }
+            LongAdder created = new LongAdder();
+            LongAdder existing = pinsBySite.putIfAbsent(site, created);
+            count = existing != null ? existing : created;
+            if (existing == null) {
+                System.out.println("LOG: Virtual thread pinned for " + event.getDuration().toMillis() + " ms at:" + site);
+            }
+        }
+        count.increment();
+    }
+
+    /**
+     * The innermost frames outside the JDK's own scheduling code, one per line.
+     */
+    private static String describe(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "(no stack trace)";
+        }
+        return stackTrace.getFrames().stream()
+                .filter(RecordedFrame::isJavaFrame)
+                .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                        + ":" + frame.getLineNumber())
+                .filter(frame -> !frame.startsWith("java.lang.VirtualThread") && !frame.startsWith("jdk.internal."))
+                .limit(FRAMES_PER_SITE)
+                .collect(Collectors.joining("\n    ", "\n    ", ""));
+    }
+
+    @Scheduled(fixedDelayString = "${diagnostics.pinning.metrics-interval-ms:300000}")
+    public void logMetrics() {
+        if (pinsBySite.isEmpty()) {
+            return;
+        }
+        long pins = pinsBySite.values().stream().mapToLong(LongAdder::sum).sum();
+        System.out.println("LOG: Virtual thread pinning: " + pins + " event(s) over " + thresholdMillis
+                + " ms at " + pinsBySite.size() + " site(s), " + pinnedMillis.sum() + " ms pinned in total.");
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.anvistudio.boutique.config;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory for the app's own worker pools (outbox, refunds, payment gateway calls).
+ * With spring.threads.virtual.enabled the workers are virtual threads, so a worker blocked on SMTP
+ * or Stripe no longer holds a platform thread; the pools stay bounded, which keeps limiting how
+ * many calls run at once. Otherwise they are named daemon platform threads as before.
+ */
+public final class WorkerThreads {
+
+    private WorkerThreads() {
+    }
+
+    public static ThreadFactory factory(String namePrefix, boolean virtual) {
+        if (virtual) {
+            return Thread.ofVirtual().name(namePrefix, 1).factory();
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
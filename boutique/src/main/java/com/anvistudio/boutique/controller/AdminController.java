@@ -6,6 +6,8 @@ import com.anvistudio.boutique.model.Review; // NEW
 import com.anvistudio.boutique.service.ProductService;
 import com.anvistudio.boutique.service.UserService;
 import com.anvistudio.boutique.service.ContactService;
+import com.anvistudio.boutique.service.HotInventoryService;
+import com.anvistudio.boutique.service.NewsletterCampaignService;
 import com.anvistudio.boutique.service.OrderService; // NEW
 import com.anvistudio.boutique.service.ReviewService; // NEW
 import com.anvistudio.boutique.model.User;
@@ -33,14 +35,19 @@ public class AdminController {
     private final ContactService contactService;
     private final OrderService orderService;
     private final ReviewService reviewService;
+    private final HotInventoryService hotInventoryService;
+    private final NewsletterCampaignService newsletterCampaignService;
 
     public AdminController(ProductService productService, UserService userService, ContactService contactService,
-                           OrderService orderService, ReviewService reviewService) {
+                           OrderService orderService, ReviewService reviewService,
+                           HotInventoryService hotInventoryService, NewsletterCampaignService newsletterCampaignService) {
         this.productService = productService;
         this.userService = userService;
         this.contactService = contactService;
         this.orderService = orderService;
         this.reviewService = reviewService;
+        this.hotInventoryService = hotInventoryService;
+        this.newsletterCampaignService = newsletterCampaignService;
     }
 
 
@@ -110,21 +117,10 @@ public class AdminController {
     @PostMapping("/order/finalizeReturn/{orderId}")
     public String finalizeReturn(@PathVariable Long orderId, RedirectAttributes redirectAttributes) {
         try {
-            Order order = orderService.getOrderById(orderId)
-                    .orElseThrow(() -> new IllegalArgumentException("Order not found."));
-
-            if (order.getStatus() != Order.OrderStatus.RETURN_REQUESTED) {
-                throw new IllegalStateException("Order must be RETURN_REQUESTED to finalize return.");
-            }
-
-            // Set status to indicate refund completion
-            order.setStatus(Order.OrderStatus.RETURNED);
-            // FIX: Use the new public service method to save the order
-            orderService.saveOrder(order);
-
-            System.out.println("LOG: Refund approved and finalized for Order: " + orderId);
+            // Status change and refund job are written in one transaction; the refund itself runs asynchronously
+            orderService.finalizeReturn(orderId);
 
-            redirectAttributes.addFlashAttribute("successMessage", "Return for Order #" + orderId + " approved and refund processed.");
+            redirectAttributes.addFlashAttribute("successMessage", "Return for Order #" + orderId + " approved. The refund is being processed.");
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("errorMessage", "Error finalizing return: " + e.getMessage());
         }
@@ -195,6 +191,7 @@ public class AdminController {
         model.addAttribute("newProduct", new Product());
         model.addAttribute("currentCategory", category);
         model.addAttribute("allCategories", getAllCategories());
+        model.addAttribute("campaigns", newsletterCampaignService.getRecentCampaigns());
 
         return "admin_dashboard";
     }
@@ -221,6 +218,40 @@ public class AdminController {
         return "redirect:/admin/dashboard";
     }
 
+    /**
+     * NEW: Toggles hot-item (flash sale) inventory mode for a product.
+     */
+    @PostMapping("/product/hot/{id}")
+    public String toggleHotInventory(@PathVariable Long id, @RequestParam boolean enabled,
+                                     RedirectAttributes redirectAttributes) {
+        try {
+            hotInventoryService.setHotMode(id, enabled);
+            redirectAttributes.addFlashAttribute("successMessage", "Hot-item mode " + (enabled ? "enabled" : "disabled") + " for Product ID " + id + ".");
+        } catch (Exception e) {
+            redirectAttributes.addFlashAttribute("errorMessage", "Error updating hot-item mode: " + e.getMessage());
+        }
+        return "redirect:/admin/dashboard";
+    }
+
+    /**
+     * NEW: Pause, resume or cancel a newsletter campaign from the dashboard.
+     */
+    @PostMapping("/campaign/{id}/{action}")
+    public String updateCampaign(@PathVariable Long id, @PathVariable String action, RedirectAttributes redirectAttributes) {
+        try {
+            switch (action) {
+                case "pause" -> newsletterCampaignService.pauseCampaign(id);
+                case "resume" -> newsletterCampaignService.resumeCampaign(id);
+                case "cancel" -> newsletterCampaignService.cancelCampaign(id);
+                default -> throw new IllegalArgumentException("Unknown campaign action: " + action);
+            }
+            redirectAttributes.addFlashAttribute("successMessage", "Campaign " + id + ": " + action + " done.");
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            redirectAttributes.addFlashAttribute("errorMessage", e.getMessage());
+        }
+        return "redirect:/admin/dashboard";
+    }
+
     @GetMapping("/product/edit/{id}")
     public String showEditProductForm(@PathVariable Long id, Model model) {
         Optional<Product> productOptional = productService.getProductById(id);
@@ -13,6 +13,7 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UsernameNotFoundException; // NEW IMPORT
 
@@ -237,6 +238,10 @@ public class AuthController {
         } catch (UsernameNotFoundException e) {
             redirectAttributes.addFlashAttribute("errorMessage", "Account error during reset.");
             return "redirect:/login";
+        } catch (AuthenticationServiceException e) {
+            // Password hashing pool saturated; the OTP step is done, so let them retry the form
+            redirectAttributes.addFlashAttribute("errorMessage", e.getMessage());
+            return "redirect:/reset-password?email=" + email;
         }
     }
 }
\ No newline at end of file
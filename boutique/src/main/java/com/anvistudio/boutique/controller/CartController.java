@@ -1,56 +1,61 @@
 package com.anvistudio.boutique.controller;
 
-import com.anvistudio.boutique.model.User;
+import com.anvistudio.boutique.dto.BoutiqueUserDetails;
+import com.anvistudio.boutique.dto.CartLineUpdate;
+import com.anvistudio.boutique.dto.CartSummary;
 import com.anvistudio.boutique.service.CartService;
+import com.anvistudio.boutique.service.GuestCartService;
 import com.anvistudio.boutique.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
-import java.util.List;
-
 @Controller
 public class CartController {
 
     private final CartService cartService;
     private final UserService userService;
+    private final GuestCartService guestCartService;
 
-    public CartController(CartService cartService, UserService userService) {
+    public CartController(CartService cartService, UserService userService, GuestCartService guestCartService) {
         this.cartService = cartService;
         this.userService = userService;
+        this.guestCartService = guestCartService;
     }
 
-    private User getAuthenticatedUser(UserDetails userDetails) {
-        if (userDetails == null) {
+    /**
+     * MODIFIED: The user id comes from the authenticated principal; no users lookup per request.
+     */
+    private Long getAuthenticatedUserId(BoutiqueUserDetails principal) {
+        if (principal == null) {
             throw new IllegalArgumentException("User not authenticated.");
         }
-        return userService.findUserByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("Authenticated user not found in DB."));
+        return principal.getUserId();
     }
 
     /**
      * Displays the user's shopping cart page. Requires authentication.
      */
     @GetMapping("/cart")
-    public String viewCart(@AuthenticationPrincipal UserDetails userDetails, Model model) {
+    public String viewCart(@AuthenticationPrincipal BoutiqueUserDetails principal, Model model) {
 
         // --- NEW LOGIC: Check if user is authenticated ---
-        if (userDetails == null || "anonymousUser".equals(userDetails.getUsername())) {
+        if (principal == null) {
             // Redirect to the new public view if not logged in
             return "redirect:/cart-unauth";
         }
         // Assuming user is authenticated past this point.
 
-        User user = getAuthenticatedUser(userDetails);
-
-        List<com.anvistudio.boutique.model.CartItem> items = cartService.getCartItems(user.getId());
-        double total = cartService.getCartTotal(user.getId());
+        // Served from the cached cart (one fetch-joined read on first access)
+        CartSummary cart = cartService.getCartSummary(principal.getUserId());
 
-        model.addAttribute("cartItems", items);
-        model.addAttribute("cartTotal", total);
+        model.addAttribute("cartItems", cart.items());
+        model.addAttribute("cartTotal", cart.total());
 
         return "cart"; // Maps to src/main/resources/templates/cart.html
     }
@@ -61,18 +66,22 @@ public class CartController {
      */
     @PostMapping("/cart/add")
     public String addProductToCart(
-            @AuthenticationPrincipal UserDetails userDetails,
+            @AuthenticationPrincipal BoutiqueUserDetails principal,
             @RequestParam Long productId,
             @RequestParam(defaultValue = "1") int quantity,
+            HttpServletRequest request,
+            HttpServletResponse response,
             RedirectAttributes redirectAttributes) {
 
         try {
-            // Check authentication status (already handled by SecurityConfig, but good practice)
-            if (userDetails == null) {
-                return "redirect:/login";
+            // MODIFIED: Anonymous shoppers get a signed-cookie guest cart (no database writes until login)
+            if (principal == null) {
+                guestCartService.addProduct(request, response, productId, quantity);
+                redirectAttributes.addFlashAttribute("cartMessage", "Item added to cart successfully!");
+                return "redirect:/cart-unauth";
             }
 
-            cartService.addProductToCart(userDetails.getUsername(), productId, quantity);
+            cartService.addProductToCart(principal.getUserId(), productId, quantity);
             redirectAttributes.addFlashAttribute("cartMessage", "Item added to cart successfully!");
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("cartError", "Error adding item to cart: " + e.getMessage());
@@ -82,12 +91,37 @@ public class CartController {
         return "redirect:/cart";
     }
 
+    /**
+     * NEW: Updates the quantity of a guest cart line (cookie only).
+     */
+    @PostMapping("/cart/guest/update")
+    public String updateGuestCartItem(@RequestParam Long productId, @RequestParam int quantity,
+                                      HttpServletRequest request, HttpServletResponse response) {
+        guestCartService.updateQuantity(request, response, productId, quantity);
+        return "redirect:/cart-unauth";
+    }
+
+    /**
+     * NEW: Removes a line from the guest cart (cookie only).
+     */
+    @PostMapping("/cart/guest/remove/{productId}")
+    public String removeGuestCartItem(@PathVariable Long productId,
+                                      HttpServletRequest request, HttpServletResponse response) {
+        guestCartService.removeProduct(request, response, productId);
+        return "redirect:/cart-unauth";
+    }
+
     /**
      * API Endpoint: Removes an item completely from the cart using the CartItem ID.
      */
     @PostMapping("/cart/remove/{itemId}")
-    public String removeItemFromCart(@PathVariable Long itemId) {
-        cartService.removeItem(itemId);
+    public String removeItemFromCart(@AuthenticationPrincipal BoutiqueUserDetails principal, @PathVariable Long itemId,
+                                     RedirectAttributes redirectAttributes) {
+        try {
+            cartService.removeItem(getAuthenticatedUserId(principal), itemId);
+        } catch (IllegalArgumentException e) {
+            redirectAttributes.addFlashAttribute("cartError", e.getMessage());
+        }
         return "redirect:/cart";
     }
 
@@ -96,10 +130,35 @@ public class CartController {
      */
     @PostMapping("/cart/update")
     public String updateCartItemQuantity(
+            @AuthenticationPrincipal BoutiqueUserDetails principal,
             @RequestParam Long itemId,
-            @RequestParam int quantity) {
+            @RequestParam int quantity,
+            RedirectAttributes redirectAttributes) {
 
-        cartService.updateItemQuantity(itemId, quantity);
+        try {
+            cartService.updateItemQuantity(getAuthenticatedUserId(principal), itemId, quantity);
+        } catch (IllegalArgumentException e) {
+            redirectAttributes.addFlashAttribute("cartError", e.getMessage());
+        }
         return "redirect:/cart";
     }
+
+    /**
+     * NEW: JSON variant of /cart/update for the quantity controls on the cart page (no page reload).
+     * Returns the changed line and the new totals, or 404 if the item is not in the user's cart.
+     */
+    @PostMapping("/cart/api/update")
+    @ResponseBody
+    public ResponseEntity<CartLineUpdate> updateCartItemQuantityJson(
+            @AuthenticationPrincipal BoutiqueUserDetails principal,
+            @RequestParam Long itemId,
+            @RequestParam int quantity) {
+
+        try {
+            CartSummary cart = cartService.updateItemQuantity(getAuthenticatedUserId(principal), itemId, quantity);
+            return ResponseEntity.ok(CartLineUpdate.of(itemId, cart));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import com.anvistudio.boutique.model.Customer;
 import com.anvistudio.boutique.model.Order;
 import com.anvistudio.boutique.model.User;
 import com.anvistudio.boutique.service.*;
+import com.anvistudio.boutique.dto.BoutiqueUserDetails;
 import com.anvistudio.boutique.dto.RegistrationDTO;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -64,10 +65,9 @@ public class CustomerController {
     // =========================================================================
 
     @GetMapping("/orders")
-    public String showMyOrders(@AuthenticationPrincipal UserDetails userDetails, Model model) {
-        String username = userDetails.getUsername();
+    public String showMyOrders(@AuthenticationPrincipal BoutiqueUserDetails principal, Model model) {
         try {
-            List<Order> orders = orderService.getOrdersByUsername(username);
+            List<Order> orders = orderService.getOrdersByUserId(principal.getUserId());
             model.addAttribute("orders", orders);
 
             // Inject ProductService into model for direct use in the template
@@ -87,14 +87,14 @@ public class CustomerController {
      */
     @PostMapping("/order/review")
     public String submitOrderProductReview(
-            @AuthenticationPrincipal UserDetails userDetails,
+            @AuthenticationPrincipal BoutiqueUserDetails principal,
             @RequestParam("orderId") Long orderId,
             @RequestParam("productId") Long productId,
             @RequestParam("rating") int rating,
             @RequestParam("comment") String comment,
             RedirectAttributes redirectAttributes) {
 
-        String username = userDetails.getUsername();
+        String username = principal.getUsername();
 
         try {
             // 1. Verify that the order belongs to the current user
@@ -108,7 +108,7 @@ public class CustomerController {
             Order order = orderOptional.get();
 
             // 2. Security check: Ensure the order belongs to the authenticated user
-            if (!order.getUser().getUsername().equals(username)) {
+            if (!order.getUser().getId().equals(principal.getUserId())) {
                 redirectAttributes.addFlashAttribute("errorMessage", "Unauthorized access to order.");
                 return "redirect:/customer/orders";
             }
@@ -346,10 +346,9 @@ public class CustomerController {
 
 
     @GetMapping("/addresses")
-    public String showSavedAddresses(@AuthenticationPrincipal UserDetails userDetails, Model model) {
-        String username = userDetails.getUsername();
+    public String showSavedAddresses(@AuthenticationPrincipal BoutiqueUserDetails principal, Model model) {
         try {
-            List<Address> addresses = addressService.getAddressesByUsername(username);
+            List<Address> addresses = addressService.getAddressesByUserId(principal.getUserId());
             model.addAttribute("addresses", addresses);
             model.addAttribute("newAddress", new Address());
         } catch (Exception e) {
@@ -360,11 +359,11 @@ public class CustomerController {
 
     @PostMapping("/addresses/add")
     public String addOrUpdateAddress(
-            @AuthenticationPrincipal UserDetails userDetails,
+            @AuthenticationPrincipal BoutiqueUserDetails principal,
             @ModelAttribute("address") Address address,
             RedirectAttributes redirectAttributes) {
         try {
-            addressService.saveAddress(userDetails.getUsername(), address);
+            addressService.saveAddress(principal.getUserId(), address);
             redirectAttributes.addFlashAttribute("successMessage", "Address saved successfully!");
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("errorMessage", "Error saving address: " + e.getMessage());
@@ -395,10 +394,9 @@ public class CustomerController {
     }
 
     @GetMapping("/gift-cards")
-    public String showGiftCards(@AuthenticationPrincipal UserDetails userDetails, Model model) {
-        String username = userDetails.getUsername();
+    public String showGiftCards(@AuthenticationPrincipal BoutiqueUserDetails principal, Model model) {
         try {
-            model.addAttribute("giftCards", giftCardService.getGiftCardsByUsername(username));
+            model.addAttribute("giftCards", giftCardService.getGiftCardsByUserId(principal.getUserId()));
         } catch (Exception e) {
             model.addAttribute("errorMessage", "Could not load gift card information.");
         }
@@ -2,9 +2,12 @@ package com.anvistudio.boutique.controller;
 
 import com.anvistudio.boutique.model.ContactMessage;
 import com.anvistudio.boutique.model.Customer;
+import com.anvistudio.boutique.dto.CartSummary;
 import com.anvistudio.boutique.service.ContactService;
+import com.anvistudio.boutique.service.GuestCartService;
 import com.anvistudio.boutique.service.ProductService;
 import com.anvistudio.boutique.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Controller;
@@ -22,11 +25,14 @@ public class HomeController {
     private final ProductService productService;
     private final ContactService contactService;
     private final UserService userService;
+    private final GuestCartService guestCartService;
 
-    public HomeController(ProductService productService, ContactService contactService, UserService userService) {
+    public HomeController(ProductService productService, ContactService contactService, UserService userService,
+                          GuestCartService guestCartService) {
         this.productService = productService;
         this.contactService = contactService;
         this.userService = userService;
+        this.guestCartService = guestCartService;
     }
 
     /**
@@ -140,9 +146,13 @@ public class HomeController {
 
     /**
      * Displays a special page for unauthenticated users clicking the Cart.
+     * MODIFIED: Renders the cookie-based guest cart (one product query, no writes).
      */
     @GetMapping("/cart-unauth")
-    public String showUnauthCart() {
+    public String showUnauthCart(HttpServletRequest request, Model model) {
+        CartSummary guestCart = guestCartService.getCartSummary(request);
+        model.addAttribute("cartItems", guestCart.items());
+        model.addAttribute("cartTotal", guestCart.total());
         return "unauth_cart"; // NEW TEMPLATE (will be created/renamed)
     }
 }
\ No newline at end of file
@@ -1,28 +1,30 @@
 package com.anvistudio.boutique.controller;
 
+import com.anvistudio.boutique.dto.BoutiqueUserDetails;
+import com.anvistudio.boutique.dto.CartSummary;
 import com.anvistudio.boutique.model.Address; // NEW IMPORT
 import com.anvistudio.boutique.model.CartItem;
-import com.anvistudio.boutique.model.User;
 import com.anvistudio.boutique.service.AddressService; // NEW IMPORT
 import com.anvistudio.boutique.service.CartService;
+import com.anvistudio.boutique.service.InventoryReservationService;
 import com.anvistudio.boutique.service.OrderService;
+import com.anvistudio.boutique.service.PaymentGatewayException;
 import com.anvistudio.boutique.service.StripeService;
 import com.anvistudio.boutique.service.UserService;
 
-import com.stripe.exception.StripeException;
 import com.stripe.model.checkout.Session;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 /**
  * Handles the payment checkout flow integration with Stripe (Custom Payment Element approach).
@@ -35,21 +37,26 @@ public class PaymentController {
     private final OrderService orderService;
     private final UserService userService;
     private final AddressService addressService; // NEW INJECTION
+    private final InventoryReservationService inventoryReservationService;
 
-    public PaymentController(StripeService stripeService, CartService cartService, OrderService orderService, UserService userService, AddressService addressService) {
+    public PaymentController(StripeService stripeService, CartService cartService, OrderService orderService, UserService userService,
+                             AddressService addressService, InventoryReservationService inventoryReservationService) {
         this.stripeService = stripeService;
         this.cartService = cartService;
         this.orderService = orderService;
         this.userService = userService;
         this.addressService = addressService;
+        this.inventoryReservationService = inventoryReservationService;
     }
 
-    private User getAuthenticatedUser(UserDetails userDetails) {
-        if (userDetails == null) {
+    /**
+     * MODIFIED: Returns the principal populated at login (id, email, role); no users lookup per request.
+     */
+    private BoutiqueUserDetails getAuthenticatedUser(BoutiqueUserDetails principal) {
+        if (principal == null) {
             throw new IllegalArgumentException("User not authenticated.");
         }
-        return userService.findUserByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("Authenticated user not found in DB."));
+        return principal;
     }
 
     /**
@@ -57,8 +64,8 @@ public class PaymentController {
      * Maps to /customer/addresses.
      */
     @GetMapping("/checkout")
-    public String initiateCheckout(@AuthenticationPrincipal UserDetails userDetails) {
-        if (userDetails == null || "anonymousUser".equals(userDetails.getUsername())) {
+    public String initiateCheckout(@AuthenticationPrincipal BoutiqueUserDetails principal) {
+        if (principal == null) {
             return "redirect:/login";
         }
         return "redirect:/customer/addresses";
@@ -70,13 +77,13 @@ public class PaymentController {
      */
     @GetMapping("/payment/modes")
     public String showPaymentModes(
-            @AuthenticationPrincipal UserDetails userDetails,
+            @AuthenticationPrincipal BoutiqueUserDetails principal,
             @RequestParam("addressId") Long addressId, // We expect the selected address ID here
             Model model,
             RedirectAttributes redirectAttributes) {
 
-        User user = getAuthenticatedUser(userDetails);
-        Long userId = user.getId();
+        BoutiqueUserDetails user = getAuthenticatedUser(principal);
+        Long userId = user.getUserId();
 
         Optional<Address> addressOptional = addressService.getAddressById(addressId);
         if (addressOptional.isEmpty()) {
@@ -85,30 +92,42 @@ public class PaymentController {
         }
 
         try {
-            // 1. Fetch Cart details
-            List<CartItem> cartItems = cartService.getCartItems(userId);
-            if (cartItems.isEmpty()) {
+            // 1. Fetch Cart details (items and total from one fetch-joined read)
+            CartSummary cart = cartService.getCheckoutSummary(userId);
+            if (cart.isEmpty()) {
                 redirectAttributes.addFlashAttribute("errorMessage", "Your cart is empty. Cannot proceed to payment.");
                 return "redirect:/cart";
             }
-            double cartTotal = cartService.getCartTotal(userId);
+            List<CartItem> cartItems = cart.items();
+            double cartTotal = cart.total();
+
+            // 2. Hold stock for every cart line while the payment is in flight
+            inventoryReservationService.reserveCart(userId, cartItems);
 
-            // 2. Create Stripe Payment Intent Secret
-            String clientSecret = stripeService.createPaymentIntent(user.getUsername());
+            // 3. Create Stripe Payment Intent Secret
+            String clientSecret = stripeService.createPaymentIntent(userId, user.getUsername(), cartItems);
 
-            // 3. Populate Model
+            // 4. Populate Model
             model.addAttribute("cartItems", cartItems);
             model.addAttribute("cartTotal", cartTotal);
             model.addAttribute("shippingAddress", addressOptional.get());
             model.addAttribute("clientSecret", clientSecret);
             model.addAttribute("publishableKey", stripeService.getPublishableKey()); // Pass PK to load Stripe.js
             model.addAttribute("addressId", addressId); // Keep address ID for final fulfillment POST
+            model.addAttribute("checkoutToken", UUID.randomUUID().toString()); // Idempotency key for COD confirmation
 
             return "payment_modes"; // NEW TEMPLATE
 
-        } catch (StripeException e) {
+        } catch (IllegalStateException e) {
+            // Not enough unheld stock for one of the lines
+            redirectAttributes.addFlashAttribute("cartError", e.getMessage());
+            return "redirect:/cart";
+        } catch (PaymentGatewayException e) {
+            // Timed out, bulkhead full or circuit open: fail fast instead of tying up the request thread
             System.err.println("Stripe API Error: " + e.getMessage());
-            redirectAttributes.addFlashAttribute("errorMessage", "Could not initialize secure payment. Stripe Error: " + e.getCode());
+            redirectAttributes.addFlashAttribute("errorMessage", "Could not initialize secure payment. " + (e.isTransientFailure()
+                    ? "The payment service is busy, please try again in a moment."
+                    : "Please try again or choose Cash on Delivery."));
             return "redirect:/customer/addresses";
         } catch (Exception e) {
             System.err.println("Internal Server Error: " + e.getMessage());
@@ -120,36 +139,41 @@ public class PaymentController {
 
     /**
      * STEP 3 (POST): Handles final confirmation for COD or successful card payments confirmed by the client-side Payment Element.
+     * MODIFIED: Idempotent. The PaymentIntent id (CARD) or the page's checkout token (COD) is recorded on the order
+     * under a unique constraint, so double submits and browser retries return the order that already exists.
      */
     @PostMapping("/payment/confirm")
-    @Transactional
     public String finalizeOrder(
-            @AuthenticationPrincipal UserDetails userDetails,
+            @AuthenticationPrincipal BoutiqueUserDetails principal,
             @RequestParam("addressId") Long addressId,
             @RequestParam("paymentMethod") String paymentMethod, // 'CARD' or 'COD'
             @RequestParam(value = "paymentIntentId", required = false) String paymentIntentId, // Only for CARD
+            @RequestParam(value = "checkoutToken", required = false) String checkoutToken,
             RedirectAttributes redirectAttributes) {
 
-        User user = getAuthenticatedUser(userDetails);
-        Long userId = user.getId();
+        Long userId = getAuthenticatedUser(principal).getUserId();
 
         // FUTURE: In a production app, here you would:
         // 1. Verify Payment Intent status (if CARD) using paymentIntentId.
         // 2. Fetch the selected Address object using addressId and include it in the Order creation.
 
-        try {
-            List<CartItem> cartItems = cartService.getCartItems(userId);
+        boolean isCard = "CARD".equalsIgnoreCase(paymentMethod);
+        String idempotencyKey = isCard && paymentIntentId != null && !paymentIntentId.isBlank()
+                ? paymentIntentId
+                : checkoutToken;
 
-            if (cartItems.isEmpty()) {
-                redirectAttributes.addFlashAttribute("successMessage", "Your order was already confirmed! See your order history.");
-                return "redirect:/customer/orders";
-            }
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            redirectAttributes.addFlashAttribute("cartError", "Your checkout session has expired. Please review your cart and try again.");
+            return "redirect:/cart";
+        }
 
-            // Fulfill the Order
-            orderService.createOrderFromCart(userId, cartItems);
+        try {
+            // Write pending cart changes before the checkout transaction takes its connection
+            cartService.flushCart(userId);
 
-            // Clear the user's cart
-            cartService.clearCart(userId);
+            // Single transaction: claim the key, convert stock holds, bulk-clear the cart
+            orderService.finalizeCheckout(userId, idempotencyKey, isCard ? "CARD" : "COD", isCard ? paymentIntentId : null);
+            stripeService.evictPaymentIntent(userId);
 
             String confirmationMessage = paymentMethod.equalsIgnoreCase("COD")
                     ? "Order placed successfully! Your Cash on Delivery order is confirmed."
@@ -158,6 +182,19 @@ public class PaymentController {
             redirectAttributes.addFlashAttribute("successMessage", confirmationMessage);
             return "redirect:/customer/orders";
 
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent submit with the same key won the race; its order is the result of this request too
+            if (orderService.findByIdempotencyKey(idempotencyKey, userId).isPresent()) {
+                redirectAttributes.addFlashAttribute("successMessage", "Your order was already confirmed! See your order history.");
+                return "redirect:/customer/orders";
+            }
+            System.err.println("Order fulfillment critical error: " + e.getMessage());
+            redirectAttributes.addFlashAttribute("errorMessage", "A critical error occurred while finalizing your order. Please contact support.");
+            return "redirect:/cart";
+        } catch (IllegalStateException e) {
+            // Empty cart (nothing left to confirm) or a line sold out after its hold expired
+            redirectAttributes.addFlashAttribute("cartError", e.getMessage());
+            return "redirect:/cart";
         } catch (Exception e) {
             System.err.println("Order fulfillment critical error: " + e.getMessage());
             redirectAttributes.addFlashAttribute("errorMessage", "A critical error occurred while finalizing your order. Please contact support.");
@@ -1,6 +1,7 @@
 package com.anvistudio.boutique.controller;
 
 import com.anvistudio.boutique.model.Product;
+import com.anvistudio.boutique.service.InventoryReservationService;
 import com.anvistudio.boutique.service.ProductService;
 import com.anvistudio.boutique.service.ReviewService; // NEW IMPORT
 import org.springframework.security.core.annotation.AuthenticationPrincipal; // NEW IMPORT
@@ -23,10 +24,13 @@ public class ProductController {
 
     private final ProductService productService;
     private final ReviewService reviewService; // NEW INJECTION
+    private final InventoryReservationService inventoryReservationService;
 
-    public ProductController(ProductService productService, ReviewService reviewService) {
+    public ProductController(ProductService productService, ReviewService reviewService,
+                             InventoryReservationService inventoryReservationService) {
         this.productService = productService;
         this.reviewService = reviewService;
+        this.inventoryReservationService = inventoryReservationService;
     }
 
 
@@ -102,6 +106,9 @@ public class ProductController {
         Product product = productOptional.get();
         model.addAttribute("product", product);
 
+        // Stock minus units currently held by shoppers at the payment step (non-locking read)
+        model.addAttribute("availableToSell", inventoryReservationService.getAvailableToSell(id));
+
         // Fetch Review Data for the product
         model.addAttribute("averageRating", reviewService.getAverageRating(id));
         model.addAttribute("reviewCount", reviewService.getReviewCount(id));
@@ -0,0 +1,40 @@
+package com.anvistudio.boutique.controller;
+
+import com.anvistudio.boutique.service.StripeWebhookService;
+import com.anvistudio.boutique.service.StripeWebhookService.IngestResult;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Receives Stripe webhook deliveries. Verifies, appends to the inbox and acknowledges immediately;
+ * the events are applied asynchronously by StripeWebhookService.
+ */
+@RestController
+public class StripeWebhookController {
+
+    private final StripeWebhookService webhookService;
+
+    public StripeWebhookController(StripeWebhookService webhookService) {
+        this.webhookService = webhookService;
+    }
+
+    @PostMapping("/stripe/webhook")
+    public ResponseEntity<String> receive(@RequestBody String payload,
+                                          @RequestHeader(value = "Stripe-Signature", required = false) String signatureHeader) {
+        if (signatureHeader == null) {
+            return ResponseEntity.badRequest().body("Missing Stripe-Signature header");
+        }
+
+        IngestResult result = webhookService.ingest(payload, signatureHeader);
+        return switch (result) {
+            // Duplicates are acknowledged too, so Stripe stops redelivering them
+            case ACCEPTED, DUPLICATE -> ResponseEntity.ok("ok");
+            case INVALID_SIGNATURE -> ResponseEntity.badRequest().body("Invalid signature");
+            case NOT_CONFIGURED -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Webhook not configured");
+        };
+    }
+}
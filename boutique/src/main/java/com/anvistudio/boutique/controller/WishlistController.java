@@ -1,11 +1,10 @@
 package com.anvistudio.boutique.controller;
 
-import com.anvistudio.boutique.model.User;
+import com.anvistudio.boutique.dto.BoutiqueUserDetails;
 import com.anvistudio.boutique.model.Wishlist;
 import com.anvistudio.boutique.service.UserService;
 import com.anvistudio.boutique.service.WishlistService;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
@@ -28,16 +27,13 @@ public class WishlistController {
      * Displays the user's wishlist page. Requires authentication.
      */
     @GetMapping("/wishlist")
-    public String viewWishlist(@AuthenticationPrincipal UserDetails userDetails, Model model) {
+    public String viewWishlist(@AuthenticationPrincipal BoutiqueUserDetails principal, Model model) {
 
-        if (userDetails == null || "anonymousUser".equals(userDetails.getUsername())) {
+        if (principal == null) {
             return "redirect:/wishlist-unauth";
         }
 
-        User user = userService.findUserByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("Authenticated user not found in DB."));
-
-        List<Wishlist> items = wishlistService.getWishlistItems(user.getId());
+        List<Wishlist> items = wishlistService.getWishlistItems(principal.getUserId());
         model.addAttribute("wishlistItems", items);
 
         return "wishlist";
@@ -49,16 +45,16 @@ public class WishlistController {
      */
     @PostMapping("/wishlist/add/{productId}")
     public String addProductToWishlist(
-            @AuthenticationPrincipal UserDetails userDetails,
+            @AuthenticationPrincipal BoutiqueUserDetails principal,
             @PathVariable Long productId,
             RedirectAttributes redirectAttributes) {
 
-        if (userDetails == null) {
+        if (principal == null) {
             return "redirect:/login";
         }
 
         try {
-            wishlistService.addToWishlist(userDetails.getUsername(), productId);
+            wishlistService.addToWishlist(principal.getUserId(), productId);
             redirectAttributes.addFlashAttribute("wishlistMessage", "Product added to your Wishlist!");
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("wishlistError", "Could not add item to wishlist: " + e.getMessage());
@@ -73,15 +69,12 @@ public class WishlistController {
      */
     @PostMapping("/wishlist/remove/{productId}")
     public String removeProductFromWishlist(
-            @AuthenticationPrincipal UserDetails userDetails,
+            @AuthenticationPrincipal BoutiqueUserDetails principal,
             @PathVariable Long productId,
             RedirectAttributes redirectAttributes) {
 
-        User user = userService.findUserByUsername(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("Authenticated user not found in DB."));
-
         try {
-            wishlistService.removeFromWishlist(user.getId(), productId);
+            wishlistService.removeFromWishlist(principal.getUserId(), productId);
             redirectAttributes.addFlashAttribute("wishlistMessage", "Item removed from Wishlist.");
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("wishlistError", "Could not remove item from wishlist: " + e.getMessage());
@@ -0,0 +1,35 @@
+package com.anvistudio.boutique.dto;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Collection;
+
+/**
+ * Authenticated principal for the boutique. Besides the standard Spring Security fields it carries
+ * the user's database id and role, resolved once by UserService.loadUserByUsername at login,
+ * so controllers and services can work by id instead of looking the user up by username on every request.
+ * Inject with {@code @AuthenticationPrincipal BoutiqueUserDetails principal} (null for anonymous visitors).
+ */
+public class BoutiqueUserDetails extends User {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long userId;
+    private final String role;
+
+    public BoutiqueUserDetails(Long userId, String username, String password, String role, boolean enabled,
+                               Collection<? extends GrantedAuthority> authorities) {
+        super(username, password, enabled, true, true, true, authorities);
+        this.userId = userId;
+        this.role = role;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getRole() {
+        return role;
+    }
+}
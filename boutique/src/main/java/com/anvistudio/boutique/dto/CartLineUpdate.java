@@ -0,0 +1,24 @@
+package com.anvistudio.boutique.dto;
+
+import com.anvistudio.boutique.model.CartItem;
+
+/**
+ * Data Transfer Object (DTO) returned by the AJAX cart quantity endpoint: the changed line
+ * (quantity 0 when it was removed) and the refreshed cart totals.
+ */
+public record CartLineUpdate(
+        Long itemId,
+        int quantity,
+        double lineTotal,
+        double cartTotal,
+        int totalQuantity) {
+
+    public static CartLineUpdate of(Long itemId, CartSummary cart) {
+        for (CartItem item : cart.items()) {
+            if (item.getId().equals(itemId)) {
+                return new CartLineUpdate(itemId, item.getQuantity(), item.getTotalPrice(), cart.total(), cart.totalQuantity());
+            }
+        }
+        return new CartLineUpdate(itemId, 0, 0, cart.total(), cart.totalQuantity());
+    }
+}
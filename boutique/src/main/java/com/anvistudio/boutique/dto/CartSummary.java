@@ -0,0 +1,29 @@
+package com.anvistudio.boutique.dto;
+
+import com.anvistudio.boutique.model.CartItem;
+
+import java.util.List;
+
+/**
+ * Data Transfer Object (DTO) holding a user's cart lines together with their grand total,
+ * built from one fetch-joined read so pricing never triggers extra product queries.
+ */
+public record CartSummary(
+        List<CartItem> items,
+        double total,
+        int totalQuantity) {
+
+    public static CartSummary of(List<CartItem> items) {
+        double total = 0;
+        int totalQuantity = 0;
+        for (CartItem item : items) {
+            total += item.getTotalPrice();
+            totalQuantity += item.getQuantity();
+        }
+        return new CartSummary(items, total, totalQuantity);
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+}
@@ -0,0 +1,14 @@
+package com.anvistudio.boutique.dto;
+
+/**
+ * Data Transfer Object (DTO) describing a PaymentIntent to create through the payment gateway.
+ * The idempotency key is reused on every retry so a retried create never charges twice.
+ */
+public record PaymentIntentRequest(
+        Long userId,
+        String customerId,
+        long amountInCents,
+        String currency,
+        String receiptEmail,
+        String idempotencyKey) {
+}
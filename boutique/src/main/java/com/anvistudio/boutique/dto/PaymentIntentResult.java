@@ -0,0 +1,10 @@
+package com.anvistudio.boutique.dto;
+
+/**
+ * Data Transfer Object (DTO) returned by the payment gateway for a created or updated PaymentIntent.
+ */
+public record PaymentIntentResult(
+        String paymentIntentId,
+        String clientSecret,
+        String status) {
+}
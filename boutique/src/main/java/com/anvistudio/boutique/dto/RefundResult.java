@@ -0,0 +1,9 @@
+package com.anvistudio.boutique.dto;
+
+/**
+ * Data Transfer Object (DTO) returned by the payment gateway for a created refund.
+ */
+public record RefundResult(
+        String refundId,
+        String status) {
+}
@@ -10,7 +10,14 @@ import java.util.Date;
  * Entity representing one item added to a user's shopping cart.
  */
 @Entity
-@Table(name = "cart_items")
+@Table(name = "cart_items", uniqueConstraints = {
+        // One line per product per user; repeated adds increment the quantity (see CartItemRepository.upsertByUserId)
+        @UniqueConstraint(name = "uk_cart_items_user_product", columnNames = {"user_id", "product_id"})
+}, indexes = {
+        // Drive the stale cart purge (see HousekeepingService)
+        @Index(name = "idx_cart_items_last_modified", columnList = "last_modified"),
+        @Index(name = "idx_cart_items_user_last_modified", columnList = "user_id, last_modified")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -37,6 +44,13 @@ public class CartItem {
     @Temporal(TemporalType.TIMESTAMP)
     private Date dateAdded = new Date();
 
+    /**
+     * NEW: Last time the line was added to or its quantity changed; set by the SQL that writes cart lines.
+     * Nullable only for rows created before the column existed (housekeeping backfills them from dateAdded).
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date lastModified = new Date();
+
     /**
      * Helper method to calculate the total price for this item.
      * CRITICAL FIX: Uses the discounted price from the Product entity.
@@ -11,7 +11,10 @@ import java.util.Date;
  * Mapped to the 'contact_messages' table in the database.
  */
 @Entity
-@Table(name = "contact_messages")
+@Table(name = "contact_messages", indexes = {
+        // Drives the retention purge (see HousekeepingService)
+        @Index(name = "idx_contact_messages_date_submitted", columnList = "date_submitted")
+})
 @Data // Lombok annotation for getters, setters, toString, etc.
 @NoArgsConstructor // Lombok for no-argument constructor
 @AllArgsConstructor // Lombok for constructor with all arguments
@@ -7,7 +7,10 @@ import lombok.AllArgsConstructor;
 import java.util.Date;
 
 @Entity
-@Table(name = "customer_details")
+@Table(name = "customer_details", uniqueConstraints = {
+        // Phone numbers are login identifiers (see UserRepository.findByUsernameOrPhoneNumber)
+        @UniqueConstraint(name = "uk_customer_details_phone_number", columnNames = {"phone_number"})
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -0,0 +1,102 @@
+package com.anvistudio.boutique.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.Date;
+
+/**
+ * One outgoing email, written in the same transaction as the change that triggers it
+ * (registration OTP, sale announcement, ...) and sent later by the mail outbox workers,
+ * so no request or database transaction ever waits on the SMTP server.
+ */
+@Entity
+@Table(name = "email_outbox", uniqueConstraints = {
+        // A campaign mails each recipient at most once, even if a page is queued twice
+        @UniqueConstraint(name = "uk_email_outbox_campaign_recipient", columnNames = {"campaign_id", "recipient"})
+}, indexes = {
+        // Drives the claim query (status = PENDING AND next_attempt_at <= now)
+        @Index(name = "idx_email_outbox_claim", columnList = "status, next_attempt_at"),
+        @Index(name = "idx_email_outbox_claim_token", columnList = "claim_token"),
+        // Drives the retention purge (see HousekeepingService)
+        @Index(name = "idx_email_outbox_created_at", columnList = "created_at")
+})
+@Data
+@NoArgsConstructor
+public class EmailOutbox {
+
+    public enum OutboxStatus {
+        PENDING,     // Waiting for a worker (first attempt or retry backoff)
+        IN_PROGRESS, // Claimed by a worker; reclaimed if the lease expires
+        SENT,        // Accepted by the SMTP server
+        DEAD,        // Permanent failure or retries exhausted; kept for inspection
+        CANCELLED    // Campaign cancelled before this email was sent
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Free-form label for logs and metrics, e.g. OTP_REGISTRATION or SALE
+    @Column(nullable = false, length = 32)
+    private String category;
+
+    @Column(nullable = false, length = 255)
+    private String sender;
+
+    @Column(nullable = false, length = 255)
+    private String recipient;
+
+    @Column(nullable = false, length = 255)
+    private String subject;
+
+    @Lob
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String body;
+
+    // Newsletter-style mail: sent in batches over shared SMTP connections under a rate limit,
+    // by its own workers so it never delays OTPs
+    @Column(nullable = false)
+    private boolean bulk;
+
+    // Newsletter campaign this email belongs to (null for transactional mail)
+    @Column(name = "campaign_id")
+    private Long campaignId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private OutboxStatus status = OutboxStatus.PENDING;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date nextAttemptAt = new Date();
+
+    // Set when claimed; identifies the rows a dispatcher run took
+    @Column(name = "claim_token", length = 36)
+    private String claimToken;
+
+    // Lease end of an IN_PROGRESS claim
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date lockedUntil;
+
+    @Column(length = 500)
+    private String lastError;
+
+    @Column(nullable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt = new Date();
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date sentAt;
+
+    public EmailOutbox(String category, String sender, String recipient, String subject, String body) {
+        this.category = category;
+        this.sender = sender;
+        this.recipient = recipient;
+        this.subject = subject;
+        this.body = body;
+    }
+}
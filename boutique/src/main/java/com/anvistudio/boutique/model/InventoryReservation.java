@@ -0,0 +1,61 @@
+package com.anvistudio.boutique.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.Date;
+
+/**
+ * Entity representing a time-boxed stock hold for one cart line while a payment is in flight.
+ * Holds are placed when the payment page opens and converted into a stock deduction on confirm.
+ * Expired holds no longer count against available stock and are purged by the expiry sweeper.
+ * NEW: COMMITTED rows are confirmed sales of hot-mode SKUs whose stock deduction is still waiting
+ * for the write-behind flush; they are the durable record used to recover after a restart.
+ */
+@Entity
+@Table(name = "inventory_reservations", indexes = {
+        // Drives the expiry sweeper (DELETE ... WHERE expires_at <= ? LIMIT ?)
+        @Index(name = "idx_inventory_reservations_expires_at", columnList = "expires_at"),
+        // Drives the available-to-sell sum per product
+        @Index(name = "idx_inventory_reservations_product", columnList = "product_id, expires_at"),
+        @Index(name = "idx_inventory_reservations_user", columnList = "user_id")
+})
+@Data
+@NoArgsConstructor
+public class InventoryReservation {
+
+    public enum ReservationStatus {
+        HELD,      // Stock held while the payment is in flight
+        COMMITTED  // Sold (hot-mode SKU), deduction not yet flushed to products.stock_quantity
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // The shopper holding the stock
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    // The product being held
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "product_id", nullable = false)
+    private Product product;
+
+    @Column(nullable = false)
+    private Integer quantity;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private ReservationStatus status = ReservationStatus.HELD;
+
+    @Column(nullable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt = new Date();
+
+    // After this instant the hold is ignored and eligible for the sweeper
+    @Column(nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date expiresAt;
+}
@@ -0,0 +1,74 @@
+package com.anvistudio.boutique.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.Date;
+
+/**
+ * One bulk mailing (e.g. a sale announcement) to the newsletter audience.
+ * The audience is walked in email order; after each page the last email queued is stored as the
+ * cursor in the same transaction as that page's outbox rows, so after a restart the campaign
+ * continues exactly where it stopped and nobody is mailed twice.
+ */
+@Entity
+@Table(name = "newsletter_campaigns", indexes = {
+        @Index(name = "idx_newsletter_campaigns_status", columnList = "status")
+})
+@Data
+@NoArgsConstructor
+public class NewsletterCampaign {
+
+    public enum CampaignStatus {
+        RUNNING,   // Audience pages are being queued
+        PAUSED,    // No new pages are queued and queued emails are held back
+        COMPLETED, // Whole audience queued
+        CANCELLED  // Stopped by an admin; emails not yet sent were dropped
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Outbox category of the emails, e.g. SALE
+    @Column(nullable = false, length = 32)
+    private String category;
+
+    // Product announced by a sale campaign, if any
+    private Long productId;
+
+    @Column(nullable = false, length = 255)
+    private String sender;
+
+    @Column(nullable = false, length = 255)
+    private String subject;
+
+    @Lob
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String body;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private CampaignStatus status = CampaignStatus.RUNNING;
+
+    // Keyset cursor: last audience email queued ("" before the first page)
+    @Column(nullable = false, length = 255)
+    private String cursorEmail = "";
+
+    // Progress counters shown on the admin dashboard
+    @Column(nullable = false)
+    private Long queuedCount = 0L;
+
+    @Column(nullable = false)
+    private Long sentCount = 0L;
+
+    @Column(nullable = false)
+    private Long failedCount = 0L;
+
+    @Column(nullable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt = new Date();
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date completedAt;
+}
@@ -11,7 +11,13 @@ import java.util.List;
  * Entity representing a customer's confirmed order.
  */
 @Entity
-@Table(name = "orders")
+@Table(name = "orders", uniqueConstraints = {
+        // Retries of the same checkout (double submit, browser resubmission) resolve to one order
+        @UniqueConstraint(name = "uk_orders_idempotency_key", columnNames = "idempotency_key")
+}, indexes = {
+        // Webhook events are matched to orders by PaymentIntent
+        @Index(name = "idx_orders_payment_intent", columnList = "payment_intent_id")
+})
 @Data
 @NoArgsConstructor
 public class Order {
@@ -20,6 +26,15 @@ public class Order {
         PENDING, PROCESSING, SHIPPED, DELIVERED, CANCELLED, RETURN_REQUESTED, RETURNED
     }
 
+    /**
+     * NEW: Payment state reported by Stripe webhooks (null for COD orders).
+     * Declared in lifecycle order; a status is only ever moved forward.
+     * REFUND_* states are set by the refund queue after a cancellation or return.
+     */
+    public enum PaymentStatus {
+        PENDING, PROCESSING, FAILED, CANCELED, SUCCEEDED, REFUND_PENDING, REFUND_FAILED, REFUNDED
+    }
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -46,4 +61,21 @@ public class Order {
     // Details of items included (simplified: would typically be a separate OrderItem entity)
     @Column(columnDefinition = "TEXT")
     private String orderItemsSnapshot;
+
+    // NEW: Checkout idempotency key (the Stripe PaymentIntent id for card payments, a per-page token for COD)
+    @Column(length = 64)
+    private String idempotencyKey;
+
+    // NEW: 'CARD' or 'COD'
+    @Column(length = 16)
+    private String paymentMethod;
+
+    // NEW: Stripe PaymentIntent id (card payments only)
+    @Column(length = 64)
+    private String paymentIntentId;
+
+    // NEW: Updated server-to-server by the Stripe webhook consumer
+    @Enumerated(EnumType.STRING)
+    @Column(length = 32)
+    private PaymentStatus paymentStatus;
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package com.anvistudio.boutique.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.Date;
+
+/**
+ * A product that became newly discounted and has not been announced yet.
+ * Events are buffered for the digest window and then announced together in one sale digest campaign.
+ */
+@Entity
+@Table(name = "pending_sale_events", uniqueConstraints = {
+        // A product is listed once per digest, however often it is re-discounted within the window
+        @UniqueConstraint(name = "uk_pending_sale_events_product", columnNames = "product_id")
+})
+@Data
+@NoArgsConstructor
+public class PendingSaleEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    @Column(nullable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt = new Date();
+}
@@ -113,4 +113,9 @@ public class Product {
     @Column(nullable = false)
     private Boolean isAvailable = true; // Default: visible
 
+    // 10. Hot-item (flash sale) inventory mode: stock is admitted from in-memory counters
+    // and flushed to stock_quantity in write-behind batches. Toggled only from the admin dashboard.
+    @Column(nullable = false)
+    private Boolean hotInventory = false;
+
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.anvistudio.boutique.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.Date;
+
+/**
+ * Durable refund request, written in the same transaction as the order's cancellation or return
+ * and executed later by the refund worker pool (never inside the admin's or customer's request).
+ */
+@Entity
+@Table(name = "refund_jobs", uniqueConstraints = {
+        // One refund per order; also sent to Stripe as the idempotency key
+        @UniqueConstraint(name = "uk_refund_jobs_idempotency_key", columnNames = "idempotency_key")
+}, indexes = {
+        // Drives the claim query (status = PENDING AND next_attempt_at <= now)
+        @Index(name = "idx_refund_jobs_claim", columnList = "status, next_attempt_at"),
+        @Index(name = "idx_refund_jobs_claim_token", columnList = "claim_token")
+})
+@Data
+@NoArgsConstructor
+public class RefundJob {
+
+    public enum RefundStatus {
+        PENDING,     // Waiting for a worker (first attempt or retry backoff)
+        IN_PROGRESS, // Claimed by a worker; reclaimed if the lease expires
+        SUCCEEDED,   // Refund created at the provider
+        FAILED       // Permanent failure or retries exhausted; needs manual follow-up
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "order_id", nullable = false)
+    private Order order;
+
+    @Column(nullable = false, length = 64)
+    private String paymentIntentId;
+
+    // Amount in the smallest currency unit (e.g., paise)
+    @Column(nullable = false)
+    private Long amountInCents;
+
+    @Column(length = 100)
+    private String reason;
+
+    @Column(name = "idempotency_key", nullable = false, length = 64)
+    private String idempotencyKey;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private RefundStatus status = RefundStatus.PENDING;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date nextAttemptAt = new Date();
+
+    // Set when claimed; identifies the rows a dispatcher run took
+    @Column(name = "claim_token", length = 36)
+    private String claimToken;
+
+    // Lease end of an IN_PROGRESS claim
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date lockedUntil;
+
+    // re_... id returned by the provider
+    @Column(length = 64)
+    private String providerRefundId;
+
+    @Column(length = 500)
+    private String lastError;
+
+    @Column(nullable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt = new Date();
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date completedAt;
+}
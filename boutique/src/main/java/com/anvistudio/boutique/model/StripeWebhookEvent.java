@@ -0,0 +1,71 @@
+package com.anvistudio.boutique.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.Date;
+
+/**
+ * Inbox row for one Stripe webhook event. The webhook endpoint only verifies the signature and
+ * appends here (duplicates are dropped by the unique event id); the consumer applies events later.
+ */
+@Entity
+@Table(name = "stripe_webhook_events", uniqueConstraints = {
+        // Stripe retries deliver the same event id again; the second insert is ignored
+        @UniqueConstraint(name = "uk_stripe_webhook_events_event_id", columnNames = "event_id")
+}, indexes = {
+        // Drives the consumer's "next pending batch" scan
+        @Index(name = "idx_stripe_webhook_events_status", columnList = "status, id"),
+        @Index(name = "idx_stripe_webhook_events_payment_intent", columnList = "payment_intent_id")
+})
+@Data
+@NoArgsConstructor
+public class StripeWebhookEvent {
+
+    public enum EventStatus {
+        PENDING,   // Received, not yet applied
+        PROCESSED, // Applied to the order
+        IGNORED,   // Event type we do not act on, or nothing to apply it to
+        FAILED     // Gave up after the maximum number of attempts
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Stripe's evt_... id
+    @Column(name = "event_id", nullable = false, length = 255)
+    private String eventId;
+
+    @Column(nullable = false, length = 100)
+    private String eventType;
+
+    // pi_... of the event's data object, when it is a PaymentIntent
+    @Column(name = "payment_intent_id", length = 64)
+    private String paymentIntentId;
+
+    // Stripe's event creation time (epoch seconds), used to order events of one PaymentIntent
+    @Column(nullable = false)
+    private Long stripeCreated;
+
+    @Lob
+    @Column(nullable = false, columnDefinition = "MEDIUMTEXT")
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private EventStatus status = EventStatus.PENDING;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(length = 500)
+    private String lastError;
+
+    @Column(nullable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date receivedAt = new Date();
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date processedAt;
+}
@@ -6,7 +6,10 @@ import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 
 @Entity
-@Table(name = "users") // Use 'users' to avoid potential conflicts with 'user' reserved word
+@Table(name = "users", uniqueConstraints = { // Use 'users' to avoid potential conflicts with 'user' reserved word
+        // Admin recovery phone is a login identifier (see UserRepository.findByUsernameOrPhoneNumber); NULLs may repeat
+        @UniqueConstraint(name = "uk_users_recovery_phone_number", columnNames = {"recovery_phone_number"})
+})
 @Data // Lombok for getters, setters, toString, equals, hashCode
 @NoArgsConstructor
 @AllArgsConstructor
@@ -44,4 +47,11 @@ public class User {
      */
     @Column(nullable = true)
     private String recoveryPhoneNumber;
+
+    // --- NEW FIELD: Stripe Customer ID ---
+    /**
+     * Stripe customer (cus_...) created lazily on the first checkout and reused afterwards.
+     */
+    @Column(nullable = true, unique = true, length = 64)
+    private String stripeCustomerId;
 }
@@ -11,7 +11,10 @@ import java.util.Random;
  * Entity to store OTP (One-Time Password) for email verification OR password reset.
  */
 @Entity
-@Table(name = "verification_tokens")
+@Table(name = "verification_tokens", indexes = {
+        // Drives the expired token purge (see HousekeepingService)
+        @Index(name = "idx_verification_tokens_expiry_date", columnList = "expiry_date")
+})
 @Data
 @NoArgsConstructor
 public class VerificationToken {
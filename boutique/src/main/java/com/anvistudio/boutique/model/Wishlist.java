@@ -10,7 +10,9 @@ import java.util.Date;
  * Entity to link a registered user to a product in their wishlist.
  */
 @Entity
-@Table(name = "wishlists")
+@Table(name = "wishlists", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_wishlists_user_product", columnNames = {"user_id", "product_id"})
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
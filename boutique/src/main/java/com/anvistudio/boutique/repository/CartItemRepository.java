@@ -3,7 +3,10 @@ package com.anvistudio.boutique.repository;
 import com.anvistudio.boutique.model.CartItem;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying; // NEW
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional; // NEW
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,15 +17,69 @@ public interface CartItemRepository extends JpaRepository<CartItem, Long> {
      */
     List<CartItem> findByUserId(Long userId);
 
+    /**
+     * NEW: Loads a user's cart lines with their products in one query (JOIN FETCH),
+     * so computing line totals does not lazily load each product.
+     */
+    @Query("SELECT c FROM CartItem c JOIN FETCH c.product WHERE c.user.id = :userId ORDER BY c.dateAdded, c.id")
+    List<CartItem> findByUserIdWithProduct(@Param("userId") Long userId);
+
     /**
      * Finds a specific item in the cart by user ID and product ID.
      */
     Optional<CartItem> findByUserIdAndProductId(Long userId, Long productId);
 
+    /**
+     * NEW: Adds a product to a user's cart in one statement: inserts the line, or increments the
+     * quantity of the existing line (unique user_id + product_id). No prior user/line/product reads
+     * are needed and concurrent adds cannot duplicate lines.
+     * MODIFIED: Keyed by user id (from the authenticated principal) instead of resolving the username.
+     * @return 1 if a line was inserted, 2 if an existing line was incremented.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO cart_items (user_id, product_id, quantity, date_added, last_modified) " +
+            "VALUES (:userId, :productId, :quantity, :now, :now) " +
+            "ON DUPLICATE KEY UPDATE quantity = cart_items.quantity + :quantity, last_modified = :now",
+            nativeQuery = true)
+    int upsertByUserId(@Param("userId") Long userId,
+                       @Param("productId") Long productId,
+                       @Param("quantity") int quantity,
+                       @Param("now") Date now);
+
     /**
      * Deletes all items in a user's cart.
+     * MODIFIED: Single bulk DELETE instead of the derived query, which loaded and removed each item one by one.
+     */
+    @Modifying
+    @Query("DELETE FROM CartItem c WHERE c.user.id = :userId")
+    int deleteByUserId(@Param("userId") Long userId);
+
+    /**
+     * NEW: Fills last_modified of lines created before the column existed, one bounded batch at a time.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE cart_items SET last_modified = date_added WHERE last_modified IS NULL LIMIT :limit", nativeQuery = true)
+    int backfillLastModified(@Param("limit") int limit);
+
+    /**
+     * NEW: Users whose whole cart is untouched since :cutoff (no line modified at or after it), up to :limit.
      */
-    void deleteByUserId(Long userId);
+    @Query(value = "SELECT DISTINCT c.user_id FROM cart_items c WHERE c.last_modified < :cutoff " +
+            "AND NOT EXISTS (SELECT 1 FROM cart_items r WHERE r.user_id = c.user_id AND r.last_modified >= :cutoff) " +
+            "LIMIT :limit",
+            nativeQuery = true)
+    List<Long> findStaleCartUserIds(@Param("cutoff") Date cutoff, @Param("limit") int limit);
+
+    /**
+     * NEW: Deletes the stale lines of the given carts. The cutoff is checked again, so a line
+     * modified since the users were selected survives.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM cart_items WHERE user_id IN (:userIds) AND last_modified < :cutoff", nativeQuery = true)
+    int deleteStaleLines(@Param("userIds") List<Long> userIds, @Param("cutoff") Date cutoff);
 
     /**
      * NEW: Cleans up all cart items referencing a specific product ID.
@@ -2,12 +2,24 @@ package com.anvistudio.boutique.repository;
 
 import com.anvistudio.boutique.model.ContactMessage;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
 
 /**
  * Repository for handling persistence operations for contact messages.
  * Extends JpaRepository to inherit methods like save(), findAll(), etc.
  */
 public interface ContactRepository extends JpaRepository<ContactMessage, Long> {
-    // We do not need to define any custom methods here yet,
-    // as the JpaRepository provides save() which is used by ContactService.
+
+    /**
+     * NEW: Deletes one bounded batch of messages submitted before :cutoff, using the date_submitted index.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM contact_messages WHERE date_submitted < :cutoff LIMIT :limit", nativeQuery = true)
+    int deleteSubmittedBefore(@Param("cutoff") Date cutoff, @Param("limit") int limit);
 }
\ No newline at end of file
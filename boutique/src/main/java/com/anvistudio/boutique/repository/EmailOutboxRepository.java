@@ -0,0 +1,81 @@
+package com.anvistudio.boutique.repository;
+
+import com.anvistudio.boutique.model.EmailOutbox;
+import com.anvistudio.boutique.model.EmailOutbox.OutboxStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Repository for the outgoing email queue.
+ */
+public interface EmailOutboxRepository extends JpaRepository<EmailOutbox, Long> {
+
+    /**
+     * Claims up to :limit due emails of one kind (:bulk) with one conditional UPDATE, so concurrent
+     * dispatchers (threads or nodes) never send the same email twice.
+     * Emails of paused campaigns are held back.
+     * @return The number of emails claimed under :claimToken.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE email_outbox SET status = 'IN_PROGRESS', claim_token = :claimToken, locked_until = :lockedUntil " +
+            "WHERE status = 'PENDING' AND bulk = :bulk AND next_attempt_at <= :now " +
+            "AND (campaign_id IS NULL OR campaign_id NOT IN (SELECT id FROM newsletter_campaigns WHERE status = 'PAUSED')) " +
+            "ORDER BY next_attempt_at LIMIT :limit",
+            nativeQuery = true)
+    int claimDue(@Param("claimToken") String claimToken,
+                 @Param("bulk") boolean bulk,
+                 @Param("now") Date now,
+                 @Param("lockedUntil") Date lockedUntil,
+                 @Param("limit") int limit);
+
+    /**
+     * NEW: Marks the emails of a bulk batch that the SMTP server accepted as SENT in one statement.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE email_outbox SET status = 'SENT', sent_at = :now, attempts = attempts + 1, " +
+            "claim_token = NULL, locked_until = NULL, last_error = NULL WHERE id IN (:ids)",
+            nativeQuery = true)
+    int markSent(@Param("ids") Collection<Long> ids, @Param("now") Date now);
+
+    List<EmailOutbox> findByClaimToken(String claimToken);
+
+    /**
+     * Returns emails whose worker died mid-send (lease expired) to the queue.
+     * The email may then go out twice, which is preferred over losing it.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE email_outbox SET status = 'PENDING', claim_token = NULL, locked_until = NULL " +
+            "WHERE status = 'IN_PROGRESS' AND locked_until < :now",
+            nativeQuery = true)
+    int reclaimExpiredLeases(@Param("now") Date now);
+
+    long countByStatus(OutboxStatus status);
+
+    /**
+     * NEW: Drops the not yet claimed emails of a cancelled campaign.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE email_outbox SET status = 'CANCELLED' WHERE campaign_id = :campaignId AND status = 'PENDING'",
+            nativeQuery = true)
+    int cancelPendingForCampaign(@Param("campaignId") Long campaignId);
+
+    /**
+     * Deletes one bounded batch of finished (sent, dead or cancelled) emails created before :cutoff.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM email_outbox WHERE created_at < :cutoff AND status IN ('SENT', 'DEAD', 'CANCELLED') LIMIT :limit",
+            nativeQuery = true)
+    int deleteFinishedBefore(@Param("cutoff") Date cutoff, @Param("limit") int limit);
+}
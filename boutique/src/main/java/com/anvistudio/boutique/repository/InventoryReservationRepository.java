@@ -0,0 +1,112 @@
+package com.anvistudio.boutique.repository;
+
+import com.anvistudio.boutique.model.InventoryReservation;
+import com.anvistudio.boutique.model.InventoryReservation.ReservationStatus;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Repository for time-boxed inventory holds placed during checkout.
+ * Stock is "taken" by active HELD rows and by COMMITTED rows that are not yet flushed.
+ */
+public interface InventoryReservationRepository extends JpaRepository<InventoryReservation, Long> {
+
+    /**
+     * Places a hold only if the product still has enough unheld stock.
+     * The availability check and the insert run as one statement, so two shoppers
+     * racing for the last unit cannot both be admitted.
+     * @return 1 if the hold was placed, 0 if there was not enough available stock.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO inventory_reservations (user_id, product_id, quantity, status, created_at, expires_at) " +
+            "SELECT :userId, p.id, :quantity, 'HELD', :now, :expiresAt FROM products p " +
+            "WHERE p.id = :productId AND p.stock_quantity - " +
+            "(SELECT COALESCE(SUM(r.quantity), 0) FROM inventory_reservations r " +
+            "WHERE r.product_id = :productId AND (r.status = 'COMMITTED' OR r.expires_at > :now)) >= :quantity",
+            nativeQuery = true)
+    int reserveIfAvailable(@Param("userId") Long userId,
+                           @Param("productId") Long productId,
+                           @Param("quantity") int quantity,
+                           @Param("now") Date now,
+                           @Param("expiresAt") Date expiresAt);
+
+    /**
+     * NEW: Records a confirmed hot-mode sale. The stock deduction is applied later by the write-behind flush.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO inventory_reservations (user_id, product_id, quantity, status, created_at, expires_at) " +
+            "VALUES (:userId, :productId, :quantity, 'COMMITTED', :now, :now)",
+            nativeQuery = true)
+    int insertCommitted(@Param("userId") Long userId,
+                        @Param("productId") Long productId,
+                        @Param("quantity") int quantity,
+                        @Param("now") Date now);
+
+    /**
+     * Computes available-to-sell (stock minus active holds and unflushed sales) with a plain
+     * consistent read, so browsing never takes locks on the product row.
+     */
+    @Query(value = "SELECT CAST(p.stock_quantity - " +
+            "(SELECT COALESCE(SUM(r.quantity), 0) FROM inventory_reservations r " +
+            "WHERE r.product_id = p.id AND (r.status = 'COMMITTED' OR r.expires_at > :now)) AS SIGNED) " +
+            "FROM products p WHERE p.id = :productId",
+            nativeQuery = true)
+    Long findAvailableToSell(@Param("productId") Long productId, @Param("now") Date now);
+
+    /**
+     * NEW: stock_quantity minus sales not yet flushed, ignoring holds (seeds a hot-mode counter).
+     */
+    @Query(value = "SELECT CAST(p.stock_quantity - " +
+            "(SELECT COALESCE(SUM(r.quantity), 0) FROM inventory_reservations r " +
+            "WHERE r.product_id = p.id AND r.status = 'COMMITTED') AS SIGNED) " +
+            "FROM products p WHERE p.id = :productId",
+            nativeQuery = true)
+    Long findStockNetOfCommittedSales(@Param("productId") Long productId);
+
+    /**
+     * NEW: Unexpired holds on a product, handed over to the in-memory holds when it enters hot mode.
+     */
+    @Query("SELECT r FROM InventoryReservation r WHERE r.product.id = :productId AND r.status = :status AND r.expiresAt > :now")
+    List<InventoryReservation> findActiveHolds(@Param("productId") Long productId,
+                                               @Param("status") ReservationStatus status,
+                                               @Param("now") Date now);
+
+    /**
+     * Releases every hold owned by a user (used before re-reserving and after conversion).
+     * COMMITTED rows are never touched here.
+     */
+    @Modifying
+    @Query(value = "DELETE FROM inventory_reservations WHERE user_id = :userId AND status = 'HELD'", nativeQuery = true)
+    int deleteByUserId(@Param("userId") Long userId);
+
+    /**
+     * Deletes one bounded batch of expired holds using the expires_at index.
+     * Runs in its own short transaction so the sweeper never holds locks for long.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM inventory_reservations WHERE expires_at <= :now AND status = 'HELD' LIMIT :limit", nativeQuery = true)
+    int deleteExpired(@Param("now") Date now, @Param("limit") int limit);
+
+    /**
+     * NEW: Products that have confirmed hot-mode sales waiting to be flushed.
+     */
+    @Query(value = "SELECT DISTINCT product_id FROM inventory_reservations WHERE status = 'COMMITTED'", nativeQuery = true)
+    List<Long> findProductIdsWithCommittedSales();
+
+    /**
+     * NEW: Locks the pending sales of one product so the flush can apply and delete exactly these rows.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT r FROM InventoryReservation r WHERE r.product.id = :productId AND r.status = :status")
+    List<InventoryReservation> findByProductIdAndStatusForUpdate(@Param("productId") Long productId,
+                                                                  @Param("status") ReservationStatus status);
+}
@@ -0,0 +1,53 @@
+package com.anvistudio.boutique.repository;
+
+import com.anvistudio.boutique.model.NewsletterCampaign;
+import com.anvistudio.boutique.model.NewsletterCampaign.CampaignStatus;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository for newsletter campaigns.
+ */
+public interface NewsletterCampaignRepository extends JpaRepository<NewsletterCampaign, Long> {
+
+    /**
+     * Locks the campaign row for one page of queueing, so two nodes never queue the same page.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM NewsletterCampaign c WHERE c.id = :id")
+    Optional<NewsletterCampaign> findByIdForUpdate(@Param("id") Long id);
+
+    @Query("SELECT c.id FROM NewsletterCampaign c WHERE c.status = :status ORDER BY c.id")
+    List<Long> findIdsByStatus(@Param("status") CampaignStatus status);
+
+    boolean existsByProductIdAndStatusIn(Long productId, Collection<CampaignStatus> statuses);
+
+    List<NewsletterCampaign> findTop10ByOrderByCreatedAtDesc();
+
+    /**
+     * Moves a campaign from one status to another if it is still in the expected one.
+     * @return 1 if the status changed.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE NewsletterCampaign c SET c.status = :newStatus WHERE c.id = :id AND c.status IN :expected")
+    int transition(@Param("id") Long id, @Param("expected") Collection<CampaignStatus> expected,
+                   @Param("newStatus") CampaignStatus newStatus);
+
+    /**
+     * Adds the outcome of sent (or permanently failed) campaign emails to the progress counters.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE NewsletterCampaign c SET c.sentCount = c.sentCount + :sent, c.failedCount = c.failedCount + :failed WHERE c.id = :id")
+    int addProgress(@Param("id") Long id, @Param("sent") long sent, @Param("failed") long failed);
+}
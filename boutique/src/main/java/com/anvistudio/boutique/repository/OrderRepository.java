@@ -3,10 +3,27 @@ package com.anvistudio.boutique.repository;
 import com.anvistudio.boutique.model.Order;
 import org.springframework.data.jpa.repository.JpaRepository;
 import java.util.List;
+import java.util.Optional;
 
 public interface OrderRepository extends JpaRepository<Order, Long> {
     /**
      * Finds all orders placed by a specific user.
      */
     List<Order> findByUserIdOrderByOrderDateDesc(Long userId);
+
+    /**
+     * NEW: Finds the order already created for a checkout attempt (idempotent finalization).
+     * MODIFIED: Scoped to the user, so one shopper's key can never resolve to another shopper's order.
+     */
+    Optional<Order> findByIdempotencyKeyAndUserId(String idempotencyKey, Long userId);
+
+    /**
+     * NEW: Finds the order paid with a given Stripe PaymentIntent (used by the webhook consumer).
+     */
+    Optional<Order> findByPaymentIntentId(String paymentIntentId);
+
+    /**
+     * NEW: Whether an order was already placed with a PaymentIntent, i.e. it must not be offered for payment again.
+     */
+    boolean existsByPaymentIntentId(String paymentIntentId);
 }
\ No newline at end of file
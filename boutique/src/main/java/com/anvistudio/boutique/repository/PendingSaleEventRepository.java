@@ -0,0 +1,39 @@
+package com.anvistudio.boutique.repository;
+
+import com.anvistudio.boutique.model.PendingSaleEvent;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository for the sale event buffer behind the sale digest.
+ */
+public interface PendingSaleEventRepository extends JpaRepository<PendingSaleEvent, Long> {
+
+    /**
+     * Buffers a sale event; a product already waiting for the next digest is left as is.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT IGNORE INTO pending_sale_events (product_id, created_at) VALUES (:productId, :now)",
+            nativeQuery = true)
+    int insertIgnore(@Param("productId") Long productId, @Param("now") Date now);
+
+    @Query("SELECT MIN(e.createdAt) FROM PendingSaleEvent e")
+    Optional<Date> findOldestCreatedAt();
+
+    /**
+     * Locks the whole buffer while a digest is built, so two nodes never announce the same events.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT e FROM PendingSaleEvent e ORDER BY e.createdAt, e.id")
+    List<PendingSaleEvent> findAllForUpdate();
+}
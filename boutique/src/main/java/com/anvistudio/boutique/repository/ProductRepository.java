@@ -2,8 +2,10 @@ package com.anvistudio.boutique.repository;
 
 import com.anvistudio.boutique.model.Product;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query; // NEW
 import org.springframework.data.repository.query.Param; // NEW
+import java.util.Date;
 import java.util.List;
 
 public interface ProductRepository extends JpaRepository<Product, Long> {
@@ -28,4 +30,41 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
             "LOWER(p.sku) LIKE LOWER(CONCAT('%', :keyword, '%')) OR " +
             "LOWER(p.productColor) LIKE LOWER(CONCAT('%', :keyword, '%'))")
     List<Product> searchByKeyword(@Param("keyword") String keyword); //
-}
\ No newline at end of file
+
+    /**
+     * NEW: Converts a checkout's stock hold into a real deduction.
+     * Succeeds only if the remaining stock still covers this quantity after subtracting
+     * active holds owned by *other* shoppers (and unflushed hot-mode sales), so an expired hold cannot oversell.
+     * @return 1 if stock was deducted, 0 otherwise.
+     */
+    @Modifying
+    @Query(value = "UPDATE products p SET p.stock_quantity = p.stock_quantity - :quantity " +
+            "WHERE p.id = :productId AND p.stock_quantity - " +
+            "(SELECT COALESCE(SUM(r.quantity), 0) FROM inventory_reservations r " +
+            "WHERE r.product_id = :productId AND (r.status = 'COMMITTED' " +
+            "OR (r.status = 'HELD' AND r.user_id <> :userId AND r.expires_at > :now))) >= :quantity",
+            nativeQuery = true)
+    int deductReservedStock(@Param("productId") Long productId,
+                            @Param("userId") Long userId,
+                            @Param("quantity") int quantity,
+                            @Param("now") Date now);
+
+    /**
+     * NEW: Applies a batch of already-admitted sales (hot-mode write-behind flush).
+     */
+    @Modifying
+    @Query("UPDATE Product p SET p.stockQuantity = p.stockQuantity - :quantity WHERE p.id = :productId")
+    int decrementStock(@Param("productId") Long productId, @Param("quantity") int quantity);
+
+    /**
+     * NEW: Finds all products running in hot-item (flash sale) inventory mode.
+     */
+    List<Product> findByHotInventoryTrue();
+
+    /**
+     * NEW: Toggles hot-item inventory mode without touching any other product column.
+     */
+    @Modifying
+    @Query("UPDATE Product p SET p.hotInventory = :enabled WHERE p.id = :productId")
+    int updateHotInventory(@Param("productId") Long productId, @Param("enabled") boolean enabled);
+}
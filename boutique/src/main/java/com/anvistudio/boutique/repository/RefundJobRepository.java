@@ -0,0 +1,45 @@
+package com.anvistudio.boutique.repository;
+
+import com.anvistudio.boutique.model.RefundJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Repository for the refund job queue.
+ */
+public interface RefundJobRepository extends JpaRepository<RefundJob, Long> {
+
+    /**
+     * Claims up to :limit due jobs with one conditional UPDATE, so concurrent dispatchers
+     * (threads or nodes) never take the same job.
+     * @return The number of jobs claimed under :claimToken.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE refund_jobs SET status = 'IN_PROGRESS', claim_token = :claimToken, locked_until = :lockedUntil " +
+            "WHERE status = 'PENDING' AND next_attempt_at <= :now ORDER BY next_attempt_at LIMIT :limit",
+            nativeQuery = true)
+    int claimDueJobs(@Param("claimToken") String claimToken,
+                     @Param("now") Date now,
+                     @Param("lockedUntil") Date lockedUntil,
+                     @Param("limit") int limit);
+
+    List<RefundJob> findByClaimToken(String claimToken);
+
+    /**
+     * Returns jobs whose worker died mid-flight (lease expired) to the queue.
+     * Safe because the provider call is idempotent per job.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE refund_jobs SET status = 'PENDING', claim_token = NULL, locked_until = NULL " +
+            "WHERE status = 'IN_PROGRESS' AND locked_until < :now",
+            nativeQuery = true)
+    int reclaimExpiredLeases(@Param("now") Date now);
+}
@@ -0,0 +1,42 @@
+package com.anvistudio.boutique.repository;
+
+import com.anvistudio.boutique.model.StripeWebhookEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Repository for the Stripe webhook inbox.
+ */
+public interface StripeWebhookEventRepository extends JpaRepository<StripeWebhookEvent, Long> {
+
+    /**
+     * Appends an event to the inbox in one statement. A redelivered event id is silently skipped.
+     * @return 1 if the event was new, 0 if it was a duplicate.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT IGNORE INTO stripe_webhook_events " +
+            "(event_id, event_type, payment_intent_id, stripe_created, payload, status, attempts, received_at) " +
+            "VALUES (:eventId, :eventType, :paymentIntentId, :stripeCreated, :payload, 'PENDING', 0, :receivedAt)",
+            nativeQuery = true)
+    int insertIgnore(@Param("eventId") String eventId,
+                     @Param("eventType") String eventType,
+                     @Param("paymentIntentId") String paymentIntentId,
+                     @Param("stripeCreated") long stripeCreated,
+                     @Param("payload") String payload,
+                     @Param("receivedAt") Date receivedAt);
+
+    /**
+     * Loads the next batch of pending events after :afterId in arrival order (uses the status index).
+     * MODIFIED: Keyset cursor, so a run moves past events that failed and stay PENDING.
+     */
+    @Query(value = "SELECT * FROM stripe_webhook_events WHERE status = 'PENDING' AND id > :afterId ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    List<StripeWebhookEvent> findPendingBatch(@Param("afterId") long afterId, @Param("limit") int limit);
+}
@@ -2,6 +2,10 @@ package com.anvistudio.boutique.repository;
 
 import com.anvistudio.boutique.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
@@ -12,4 +16,44 @@ public interface UserRepository extends JpaRepository<User, Long> {
      * @return An Optional containing the User if found.
      */
     Optional<User> findByUsername(String username);
-}
\ No newline at end of file
+
+    /**
+     * NEW: Resolves a login identifier that may be an email or a phone number in one statement.
+     * Each branch is a lookup on a unique index (users.username, customer_details.phone_number,
+     * users.recovery_phone_number); if several match, email wins over customer phone over admin recovery phone.
+     */
+    @Query(value = "SELECT u.* FROM users u JOIN (" +
+            "SELECT id AS user_id, 1 AS priority FROM users WHERE username = :identifier " +
+            "UNION ALL SELECT user_id, 2 FROM customer_details WHERE phone_number = :identifier " +
+            "UNION ALL SELECT id, 3 FROM users WHERE recovery_phone_number = :identifier AND role = 'ADMIN'" +
+            ") matched ON matched.user_id = u.id ORDER BY matched.priority LIMIT 1",
+            nativeQuery = true)
+    Optional<User> findByUsernameOrPhoneNumber(@Param("identifier") String identifier);
+
+    /**
+     * NEW: Stores the Stripe customer id only if none is stored yet, so two concurrent
+     * first checkouts cannot overwrite each other's customer.
+     * @return 1 if the id was stored, 0 if the user already had one.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.stripeCustomerId = :customerId WHERE u.id = :userId AND u.stripeCustomerId IS NULL")
+    int assignStripeCustomerIdIfAbsent(@Param("userId") Long userId, @Param("customerId") String customerId);
+
+    /**
+     * NEW: Reads only the Stripe customer id of a user.
+     */
+    @Query("SELECT u.stripeCustomerId FROM User u WHERE u.id = :userId")
+    Optional<String> findStripeCustomerIdById(@Param("userId") Long userId);
+
+    /**
+     * NEW: Replaces a password hash only if it is still the expected one, so re-encoding an old hash
+     * at login cannot overwrite a password that was changed meanwhile.
+     * @return 1 if the hash was replaced.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.password = :newPassword WHERE u.id = :userId AND u.password = :oldPassword")
+    int replacePasswordIfUnchanged(@Param("userId") Long userId, @Param("oldPassword") String oldPassword,
+                                   @Param("newPassword") String newPassword);
+}
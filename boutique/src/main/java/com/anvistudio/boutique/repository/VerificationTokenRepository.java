@@ -2,7 +2,12 @@ package com.anvistudio.boutique.repository;
 
 import com.anvistudio.boutique.model.VerificationToken;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Date;
 import java.util.Optional;
 
 /**
@@ -24,4 +29,12 @@ public interface VerificationTokenRepository extends JpaRepository<VerificationT
      * Delete a token associated with a specific user.
      */
     void deleteByUserId(Long userId);
+
+    /**
+     * Deletes one bounded batch of expired tokens using the expiry_date index.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM verification_tokens WHERE expiry_date < :now LIMIT :limit", nativeQuery = true)
+    int deleteExpired(@Param("now") Date now, @Param("limit") int limit);
 }
\ No newline at end of file
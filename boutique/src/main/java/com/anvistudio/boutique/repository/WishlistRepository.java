@@ -3,7 +3,10 @@ package com.anvistudio.boutique.repository;
 import com.anvistudio.boutique.model.Wishlist;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying; // NEW
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional; // NEW
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,6 +22,22 @@ public interface WishlistRepository extends JpaRepository<Wishlist, Long> {
      */
     Optional<Wishlist> findByUserIdAndProductId(Long userId, Long productId);
 
+    /**
+     * NEW: Adds a product to a user's wishlist in one statement; an existing entry is left as is
+     * (no-op ON DUPLICATE KEY UPDATE rather than INSERT IGNORE, so a missing product still fails the FK).
+     * MODIFIED: Keyed by user id (from the authenticated principal) instead of resolving the username.
+     * @return 1 if inserted, 0 if it already existed.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO wishlists (user_id, product_id, date_added) " +
+            "VALUES (:userId, :productId, :now) " +
+            "ON DUPLICATE KEY UPDATE user_id = wishlists.user_id",
+            nativeQuery = true)
+    int insertIfAbsent(@Param("userId") Long userId,
+                       @Param("productId") Long productId,
+                       @Param("now") Date now);
+
     /**
      * Deletes a specific wishlist item by user ID and product ID.
      */
@@ -22,10 +22,8 @@ public class AddressService {
     /**
      * Retrieves all saved addresses for the authenticated user.
      */
-    public List<Address> getAddressesByUsername(String username) {
-        User user = userService.findUserByUsername(username)
-                .orElseThrow(() -> new IllegalArgumentException("User not found: " + username));
-        return addressRepository.findByUserId(user.getId());
+    public List<Address> getAddressesByUserId(Long userId) {
+        return addressRepository.findByUserId(userId);
     }
 
 
@@ -40,16 +38,16 @@ public class AddressService {
      * Saves a new address or updates an existing one.
      */
     @Transactional
-    public Address saveAddress(String username, Address address) {
-        User user = userService.findUserByUsername(username)
-                .orElseThrow(() -> new IllegalArgumentException("User not found: " + username));
+    public Address saveAddress(Long userId, Address address) {
+        // MODIFIED: Reference by id from the principal; no user SELECT is needed to set the association
+        User user = userService.getUserReference(userId);
 
         address.setUser(user);
 
         // Simple logic to ensure only one address can be default (if setting a new default)
         if (Boolean.TRUE.equals(address.getIsDefault())) {
             // Find current default and unset it
-            getAddressesByUsername(username).stream()
+            getAddressesByUserId(userId).stream()
                     .filter(Address::getIsDefault)
                     .forEach(addr -> {
                         addr.setIsDefault(false);
@@ -0,0 +1,112 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.EmailOutbox;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends bulk email (sale announcements, newsletters) in batches. One batch goes out over a single
+ * SMTP connection (JavaMailSender.send(SimpleMailMessage...) connects once and sends every message
+ * on it), and all batches share a per-minute rate limit so a large audience does not trip the
+ * provider's sending quota. Parallelism comes from the caller: each bulk worker of the email
+ * outbox holds one connection at a time.
+ */
+@Component
+public class BulkMailer {
+
+    private final JavaMailSender javaMailSender;
+    private final ReentrantLock rateLock = new ReentrantLock();
+    private final long nanosPerMessage;
+
+    // Earliest time the next message may be sent; guarded by rateLock
+    private long nextFreeNanos = System.nanoTime();
+
+    public BulkMailer(JavaMailSender javaMailSender,
+                      @Value("${mail.bulk.rate-per-minute:600}") int ratePerMinute) {
+        this.javaMailSender = javaMailSender;
+        // 0 or less disables the limit
+        this.nanosPerMessage = ratePerMinute > 0 ? TimeUnit.MINUTES.toNanos(1) / ratePerMinute : 0;
+    }
+
+    /**
+     * Sends one batch over one SMTP connection, waiting first for the rate limit to allow it.
+     * @return The ids of the emails that failed, with their error; empty if the whole batch was accepted.
+     */
+    public Map<Long, Exception> send(List<EmailOutbox> batch) throws InterruptedException {
+        Map<Long, Exception> failures = new HashMap<>();
+        if (batch.isEmpty()) {
+            return failures;
+        }
+
+        SimpleMailMessage[] messages = new SimpleMailMessage[batch.size()];
+        Map<Object, Long> idsByMessage = new IdentityHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            EmailOutbox email = batch.get(i);
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setFrom(email.getSender());
+            message.setTo(email.getRecipient());
+            message.setSubject(email.getSubject());
+            message.setText(email.getBody());
+            messages[i] = message;
+            idsByMessage.put(message, email.getId());
+        }
+
+        awaitPermits(batch.size());
+
+        try {
+            javaMailSender.send(messages);
+        } catch (MailSendException e) {
+            // Keys are the messages passed in; messages not listed were accepted by the server
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            if (failedMessages.isEmpty()) {
+                batch.forEach(email -> failures.put(email.getId(), e));
+            } else {
+                failedMessages.forEach((message, error) -> {
+                    Long id = idsByMessage.get(message);
+                    if (id != null) {
+                        failures.put(id, error);
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            // Nothing was sent (e.g. authentication failed on connect)
+            batch.forEach(email -> failures.put(email.getId(), e));
+        }
+        return failures;
+    }
+
+    /**
+     * Reserves send slots for the given number of messages and sleeps until the first one is due.
+     * Reservations are handed out in order, so concurrent batches are spaced out rather than bursting together.
+     */
+    private void awaitPermits(int messages) throws InterruptedException {
+        if (nanosPerMessage == 0) {
+            return;
+        }
+
+        long startNanos;
+        rateLock.lock();
+        try {
+            long now = System.nanoTime();
+            startNanos = Math.max(now, nextFreeNanos);
+            nextFreeNanos = startNanos + nanosPerMessage * messages;
+        } finally {
+            rateLock.unlock();
+        }
+
+        long waitNanos = startNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.CartItem;
+import com.anvistudio.boutique.repository.CartItemRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Per-user cart aggregate kept in memory with coalesced write-behind to cart_items.
+ * Quantity changes only touch the cached cart and mark the line dirty, so a burst of +/- clicks on
+ * one line ends up as a single UPDATE (or DELETE). Dirty lines are flushed on checkout, on an
+ * interval and at shutdown. Writes that bypass the cache (add-to-cart upsert, guest cart merge,
+ * checkout) flush the user's pending changes first and evict the cached cart afterwards.
+ * The cache is per node; with several nodes, sticky sessions keep a shopper on the node holding their cart.
+ */
+@Component
+public class CartCache {
+
+    private final CartItemRepository cartItemRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate flushTransaction;
+
+    private final ConcurrentHashMap<Long, CachedCart> carts = new ConcurrentHashMap<>();
+
+    // Bumped on every eviction; a load that raced with one is served but not cached
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final LongAdder quantityChanges = new LongAdder();
+    private final LongAdder flushedLines = new LongAdder();
+
+    @Value("${cart.cache.max-carts:10000}")
+    private int maxCarts;
+
+    @Value("${cart.cache.idle-minutes:30}")
+    private long idleMinutes;
+
+    public CartCache(CartItemRepository cartItemRepository, JdbcTemplate jdbcTemplate,
+                     PlatformTransactionManager transactionManager) {
+        this.cartItemRepository = cartItemRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        // Flushes commit on their own, also when run from an afterCommit callback (evictProduct).
+        // Checkout flushes before its transaction starts, so this never needs a second connection.
+        this.flushTransaction = new TransactionTemplate(transactionManager);
+        this.flushTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Returns copies of the user's cart lines (products included), loading the cart on first access.
+     */
+    public List<CartItem> getItems(Long userId) {
+        while (true) {
+            CachedCart cart = getOrLoad(userId);
+            cart.lock.lock();
+            try {
+                if (cart.evicted) {
+                    continue; // Replaced meanwhile; read the fresh one
+                }
+                cart.touch();
+                return cart.snapshot();
+            } finally {
+                cart.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sets the quantity of one line in memory; zero or less removes it. The change reaches the
+     * database with the next flush (immediately if the cart could not be cached).
+     * @return Copies of the cart lines after the change.
+     * @throws IllegalArgumentException if the line is not in this user's cart.
+     */
+    public List<CartItem> updateQuantity(Long userId, Long itemId, int quantity) {
+        while (true) {
+            CachedCart cart = getOrLoad(userId);
+            cart.lock.lock();
+            try {
+                if (cart.evicted) {
+                    continue;
+                }
+                CartItem line = cart.lines.get(itemId);
+                if (line == null) {
+                    throw new IllegalArgumentException("Cart item not found.");
+                }
+
+                int newQuantity = Math.max(quantity, 0);
+                if (newQuantity == 0) {
+                    cart.lines.remove(itemId);
+                } else {
+                    line.setQuantity(newQuantity);
+                }
+                cart.dirty.put(itemId, newQuantity); // Coalesces with any earlier pending change
+                quantityChanges.increment();
+                cart.touch();
+
+                if (!cart.registered) {
+                    flushLocked(cart);
+                }
+                return cart.snapshot();
+            } finally {
+                cart.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the user's pending changes, if the cart is cached. Called before checkout reads the cart,
+     * outside the checkout transaction.
+     */
+    public void flush(Long userId) {
+        CachedCart cart = carts.get(userId);
+        if (cart == null) {
+            return;
+        }
+        cart.lock.lock();
+        try {
+            flushLocked(cart);
+        } finally {
+            cart.lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a database write that changes the user's cart outside this cache: pending changes are
+     * flushed first and the cached cart is evicted once the write has returned.
+     * The write must be committed when it returns (not part of a wider transaction).
+     */
+    public <T> T writeThrough(Long userId, Supplier<T> write) {
+        CachedCart cart = carts.get(userId);
+        if (cart == null) {
+            try {
+                return write.get();
+            } finally {
+                // Invalidates a load still reading the old rows, then drops one that got cached meanwhile
+                evictions.incrementAndGet();
+                evictNow(userId);
+            }
+        }
+
+        cart.lock.lock();
+        try {
+            flushLocked(cart);
+            return write.get();
+        } finally {
+            evictLocked(cart);
+            cart.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the user's cached cart (without flushing), now and again after the surrounding
+     * transaction commits, so a reload in between cannot keep rows the transaction deleted.
+     */
+    public void evict(Long userId) {
+        evictNow(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictNow(userId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Flushes and evicts every cached cart containing the product, e.g. after its price changed or it was deleted.
+     */
+    public void evictProduct(Long productId) {
+        for (CachedCart cart : carts.values()) {
+            cart.lock.lock();
+            try {
+                boolean containsProduct = cart.lines.values().stream()
+                        .anyMatch(line -> productId.equals(line.getProduct().getId()));
+                if (containsProduct && !cart.evicted) {
+                    flushLocked(cart);
+                    evictLocked(cart);
+                }
+            } finally {
+                cart.lock.unlock();
+            }
+        }
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * Periodic write-behind: flushes dirty carts, then evicts idle carts and, above the size limit,
+     * the least recently used ones.
+     */
+    @Scheduled(fixedDelayString = "${cart.cache.flush-interval-ms:5000}")
+    public void flushDirtyCarts() {
+        long flushedBefore = flushedLines.sum();
+        long idleCutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(idleMinutes);
+
+        for (CachedCart cart : carts.values()) {
+            cart.lock.lock();
+            try {
+                flushLocked(cart);
+                if (cart.lastAccessMillis < idleCutoff) {
+                    evictLocked(cart);
+                }
+            } catch (RuntimeException e) {
+                // Lines stay dirty and are retried on the next run
+                System.err.println("CART CACHE: Flush failed for user " + cart.userId + ": " + e.getMessage());
+            } finally {
+                cart.lock.unlock();
+            }
+        }
+
+        int overflow = carts.size() - maxCarts;
+        if (overflow > 0) {
+            carts.values().stream()
+                    .sorted(Comparator.comparingLong(cart -> cart.lastAccessMillis))
+                    .limit(overflow)
+                    .forEach(cart -> {
+                        cart.lock.lock();
+                        try {
+                            flushLocked(cart);
+                            evictLocked(cart);
+                        } finally {
+                            cart.lock.unlock();
+                        }
+                    });
+        }
+
+        long flushed = flushedLines.sum() - flushedBefore;
+        if (flushed > 0) {
+            System.out.println("CART CACHE: Flushed " + flushed + " line(s) (" + quantityChanges.sum()
+                    + " quantity changes so far, " + carts.size() + " carts cached).");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (CachedCart cart : carts.values()) {
+            cart.lock.lock();
+            try {
+                flushLocked(cart);
+            } catch (RuntimeException e) {
+                System.err.println("CART CACHE: Unflushed cart changes lost at shutdown for user " + cart.userId + ": " + e.getMessage());
+            } finally {
+                cart.lock.unlock();
+            }
+        }
+    }
+
+    private CachedCart getOrLoad(Long userId) {
+        CachedCart cart = carts.get(userId);
+        if (cart != null) {
+            return cart;
+        }
+
+        long evictionsBefore = evictions.get();
+        List<CartItem> items = cartItemRepository.findByUserIdWithProduct(userId);
+        if (carts.size() >= maxCarts) {
+            return new CachedCart(userId, items, false); // Full: serve it once, uncached
+        }
+
+        CachedCart loaded = new CachedCart(userId, items, true);
+        loaded.lock.lock();
+        try {
+            CachedCart existing = carts.putIfAbsent(userId, loaded);
+            if (existing != null) {
+                return existing;
+            }
+
+            if (evictions.get() != evictionsBefore) {
+                // An eviction ran while the rows were read; they may predate it, so serve them uncached
+                carts.remove(userId, loaded);
+                loaded.evicted = true;
+                return new CachedCart(userId, items, false);
+            }
+            return loaded;
+        } finally {
+            loaded.lock.unlock();
+        }
+    }
+
+    private void flushLocked(CachedCart cart) {
+        if (cart.dirty.isEmpty()) {
+            return;
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        cart.dirty.forEach((itemId, quantity) -> {
+            if (quantity > 0) {
+                updates.add(new Object[]{quantity, now, itemId, cart.userId});
+            } else {
+                deletes.add(new Object[]{itemId, cart.userId});
+            }
+        });
+
+        flushTransaction.executeWithoutResult(status -> {
+            if (!updates.isEmpty()) {
+                jdbcTemplate.batchUpdate("UPDATE cart_items SET quantity = ?, last_modified = ? WHERE id = ? AND user_id = ?", updates);
+            }
+            if (!deletes.isEmpty()) {
+                jdbcTemplate.batchUpdate("DELETE FROM cart_items WHERE id = ? AND user_id = ?", deletes);
+            }
+        });
+
+        flushedLines.add(cart.dirty.size());
+        cart.dirty.clear();
+    }
+
+    private void evictNow(Long userId) {
+        CachedCart cart = carts.get(userId);
+        if (cart == null) {
+            evictions.incrementAndGet();
+            return;
+        }
+        cart.lock.lock();
+        try {
+            evictLocked(cart);
+        } finally {
+            cart.lock.unlock();
+        }
+    }
+
+    private void evictLocked(CachedCart cart) {
+        if (cart.registered) {
+            carts.remove(cart.userId, cart);
+        }
+        cart.evicted = true;
+        evictions.incrementAndGet();
+    }
+
+    private static CartItem copyOf(CartItem line) {
+        return new CartItem(line.getId(), line.getUser(), line.getProduct(), line.getQuantity(), line.getDateAdded(),
+                line.getLastModified());
+    }
+
+    /**
+     * One user's cart. All fields except lastAccessMillis are guarded by the lock.
+     */
+    private static final class CachedCart {
+
+        private final Long userId;
+        private final boolean registered;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Long, CartItem> lines = new LinkedHashMap<>(); // itemId -> line, in display order
+        private final Map<Long, Integer> dirty = new HashMap<>();        // itemId -> quantity to write, 0 = delete
+        private boolean evicted;
+        private volatile long lastAccessMillis = System.currentTimeMillis();
+
+        private CachedCart(Long userId, List<CartItem> items, boolean registered) {
+            this.userId = userId;
+            this.registered = registered;
+            // Own detached copies, so changes here are never picked up by JPA dirty checking
+            for (CartItem item : items) {
+                lines.put(item.getId(), copyOf(item));
+            }
+        }
+
+        private void touch() {
+            lastAccessMillis = System.currentTimeMillis();
+        }
+
+        private List<CartItem> snapshot() {
+            List<CartItem> copies = new ArrayList<>(lines.size());
+            for (CartItem line : lines.values()) {
+                copies.add(copyOf(line));
+            }
+            return copies;
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.anvistudio.boutique.service;
 
+import com.anvistudio.boutique.dto.CartSummary;
 import com.anvistudio.boutique.model.CartItem;
 import com.anvistudio.boutique.model.Product;
 import com.anvistudio.boutique.model.User;
 import com.anvistudio.boutique.repository.CartItemRepository;
 import com.anvistudio.boutique.repository.ProductRepository;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,11 +20,14 @@ public class CartService {
     private final CartItemRepository cartItemRepository;
     private final UserService userService;
     private final ProductRepository productRepository;
+    private final CartCache cartCache;
 
-    public CartService(CartItemRepository cartItemRepository, UserService userService, ProductRepository productRepository) {
+    public CartService(CartItemRepository cartItemRepository, UserService userService, ProductRepository productRepository,
+                       CartCache cartCache) {
         this.cartItemRepository = cartItemRepository;
         this.userService = userService;
         this.productRepository = productRepository;
+        this.cartCache = cartCache;
     }
 
     /**
@@ -30,60 +36,78 @@ public class CartService {
      * @param productId The ID of the product.
      * @param quantity The amount to add (usually 1).
      */
-    @Transactional
-    public void addProductToCart(String username, Long productId, int quantity) {
+    public void addProductToCart(Long userId, Long productId, int quantity) {
         if (quantity <= 0) return;
 
-        User user = userService.findUserByUsername(username)
-                .orElseThrow(() -> new IllegalArgumentException("User not found."));
-
-        Optional<CartItem> existingItem = cartItemRepository.findByUserIdAndProductId(user.getId(), productId);
-
-        if (existingItem.isPresent()) {
-            CartItem item = existingItem.get();
-            item.setQuantity(item.getQuantity() + quantity);
-            cartItemRepository.save(item);
-        } else {
-            Product product = productRepository.findById(productId)
-                    .orElseThrow(() -> new IllegalArgumentException("Product not found."));
-
-            CartItem newItem = new CartItem();
-            newItem.setUser(user);
-            newItem.setProduct(product);
-            newItem.setQuantity(quantity);
-            cartItemRepository.save(newItem);
-        }
+        // MODIFIED: Single-statement upsert instead of user lookup + line lookup + product lookup + save.
+        // Not wrapped in a wider transaction: the upsert commits before the cached cart is evicted.
+        cartCache.writeThrough(userId, () -> {
+            try {
+                return cartItemRepository.upsertByUserId(userId, productId, quantity, new Date());
+            } catch (DataIntegrityViolationException e) {
+                // The user id comes from the session, so the failing foreign key is the product's
+                throw new IllegalArgumentException("Product not found.");
+            }
+        });
     }
 
     /**
-     * Updates the quantity of a specific item in the cart.
+     * Updates the quantity of a specific item in the user's cart (zero removes it).
+     * MODIFIED: Applied to the cached cart only; the write to cart_items is coalesced and deferred (see CartCache).
+     * @return The cart after the change.
+     * @throws IllegalArgumentException if the item is not in this user's cart.
      */
-    @Transactional
-    public void updateItemQuantity(Long itemId, int quantity) {
-        CartItem item = cartItemRepository.findById(itemId)
-                .orElseThrow(() -> new IllegalArgumentException("Cart item not found."));
-
-        if (quantity <= 0) {
-            cartItemRepository.delete(item); // Delete if quantity is zero
-        } else {
-            item.setQuantity(quantity);
-            cartItemRepository.save(item);
-        }
+    public CartSummary updateItemQuantity(Long userId, Long itemId, int quantity) {
+        return CartSummary.of(cartCache.updateQuantity(userId, itemId, quantity));
     }
 
     /**
-     * Removes an item completely from the cart.
+     * Removes an item completely from the user's cart.
      */
-    @Transactional
-    public void removeItem(Long itemId) {
-        cartItemRepository.deleteById(itemId);
+    public CartSummary removeItem(Long userId, Long itemId) {
+        return updateItemQuantity(userId, itemId, 0);
+    }
+
+    /**
+     * NEW: The cart as shown on the cart page, served from the in-memory cart (loaded once per user).
+     */
+    public CartSummary getCartSummary(Long userId) {
+        return CartSummary.of(cartCache.getItems(userId));
     }
 
     /**
-     * Retrieves all cart items for a specific user.
+     * Retrieves all cart items for a specific user, for checkout.
+     * MODIFIED: Pending cached quantity changes are flushed first and the lines are read from the
+     * database with fetch-joined products, so orders are always priced from current data.
+     * Must not be called inside a transaction (the flush commits on its own connection).
      */
     public List<CartItem> getCartItems(Long userId) {
-        return cartItemRepository.findByUserId(userId);
+        flushCart(userId);
+        return cartItemRepository.findByUserIdWithProduct(userId);
+    }
+
+    /**
+     * NEW: Writes the user's pending cached quantity changes to cart_items.
+     * Checkout callers do this before their transaction starts, so the order is built from the
+     * flushed rows without a second connection being opened mid-transaction.
+     */
+    public void flushCart(Long userId) {
+        cartCache.flush(userId);
+    }
+
+    /**
+     * NEW: The cart lines as stored, with fetch-joined products, for use inside the checkout transaction.
+     * The caller must have called {@link #flushCart(Long)} before that transaction started.
+     */
+    public List<CartItem> getStoredCartItems(Long userId) {
+        return cartItemRepository.findByUserIdWithProduct(userId);
+    }
+
+    /**
+     * NEW: Items and grand total for checkout (payment page), from a single fetch-joined read.
+     */
+    public CartSummary getCheckoutSummary(Long userId) {
+        return CartSummary.of(getCartItems(userId));
     }
 
     /**
@@ -91,16 +115,16 @@ public class CartService {
      * This method automatically uses the updated CartItem.getTotalPrice() calculation.
      */
     public double getCartTotal(Long userId) {
-        return getCartItems(userId).stream()
-                .mapToDouble(CartItem::getTotalPrice)
-                .sum();
+        return getCheckoutSummary(userId).total();
     }
 
     /**
      * NEW: Clears all cart items for a specific user ID.
+     * MODIFIED: Also drops the cached cart (again after commit).
      */
     @Transactional
     public void clearCart(Long userId) {
         cartItemRepository.deleteByUserId(userId);
+        cartCache.evict(userId);
     }
 }
\ No newline at end of file
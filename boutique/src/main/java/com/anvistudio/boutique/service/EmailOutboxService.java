@@ -0,0 +1,332 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.config.WorkerThreads;
+import com.anvistudio.boutique.model.EmailOutbox;
+import com.anvistudio.boutique.model.EmailOutbox.OutboxStatus;
+import com.anvistudio.boutique.repository.EmailOutboxRepository;
+import com.anvistudio.boutique.repository.NewsletterCampaignRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transactional outbox for every outgoing email.
+ * Callers enqueue email_outbox rows inside their own transaction, so an email exists if and only if
+ * the change that triggered it commits, and the request never touches SMTP. After commit (and on a
+ * fixed delay) a small worker pool claims due rows and sends them, retrying failures with exponential
+ * backoff; emails that cannot be sent end up DEAD for manual inspection.
+ * Bulk email (one message to many recipients) has its own workers: each claims a batch and sends it
+ * over one SMTP connection through BulkMailer, under a shared per-minute rate limit.
+ */
+@Service
+public class EmailOutboxService {
+
+    private final EmailOutboxRepository outboxRepository;
+    private final NewsletterCampaignRepository campaignRepository;
+    private final JavaMailSender javaMailSender;
+    private final BulkMailer bulkMailer;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor workers;
+    private final ThreadPoolExecutor bulkWorkers; // One SMTP connection each
+
+    // Counters since start, logged by logMetrics()
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder dead = new LongAdder();
+
+    @Value("${mail.outbox.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${mail.outbox.lease-seconds:120}")
+    private long leaseSeconds;
+
+    @Value("${mail.outbox.backoff-base-ms:10000}")
+    private long backoffBaseMillis;
+
+    @Value("${mail.outbox.backoff-max-ms:1800000}")
+    private long backoffMaxMillis;
+
+    @Value("${mail.bulk.batch-size:50}")
+    private int bulkBatchSize;
+
+    @Value("${mail.bulk.lease-seconds:600}")
+    private long bulkLeaseSeconds;
+
+    public EmailOutboxService(EmailOutboxRepository outboxRepository, NewsletterCampaignRepository campaignRepository,
+                              JavaMailSender javaMailSender, BulkMailer bulkMailer, TransactionTemplate transactionTemplate,
+                              @Value("${mail.outbox.workers:4}") int workerCount,
+                              @Value("${mail.bulk.connections:2}") int bulkConnections,
+                              @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.outboxRepository = outboxRepository;
+        this.campaignRepository = campaignRepository;
+        this.javaMailSender = javaMailSender;
+        this.bulkMailer = bulkMailer;
+        this.transactionTemplate = transactionTemplate;
+        this.workers = newPool("mail-outbox-", workerCount, virtualThreads);
+        this.bulkWorkers = newPool("mail-bulk-", bulkConnections, virtualThreads);
+    }
+
+    private static ThreadPoolExecutor newPool(String namePrefix, int size, boolean virtualThreads) {
+        return new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(size),
+                WorkerThreads.factory(namePrefix, virtualThreads),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queues one email. Call it inside the transaction whose commit should send the email.
+     */
+    @Transactional
+    public void enqueue(String category, String from, String to, String subject, String body) {
+        outboxRepository.save(new EmailOutbox(category, from, to, subject, body));
+        enqueued.increment();
+        dispatchAfterCommit();
+    }
+
+    /**
+     * Queues the same email for many recipients (one bulk row each) with a single after-commit wake-up.
+     */
+    @Transactional
+    public void enqueueAll(String category, String from, Collection<String> recipients, String subject, String body) {
+        if (recipients.isEmpty()) {
+            return;
+        }
+        List<EmailOutbox> rows = new ArrayList<>(recipients.size());
+        for (String recipient : recipients) {
+            EmailOutbox row = new EmailOutbox(category, from, recipient, subject, body);
+            row.setBulk(true);
+            rows.add(row);
+        }
+        outboxRepository.saveAll(rows);
+        enqueued.add(rows.size());
+        dispatchAfterCommit();
+    }
+
+    private void dispatchAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    // Off the request thread: the committed transaction is still bound to it here.
+                    // If this fails, the rows are committed and the scheduled poll picks them up.
+                    CompletableFuture.runAsync(() -> {
+                        dispatchDueEmails();
+                        dispatchDueBulkEmails();
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Claims as many due emails as there are idle workers and hands them to the pool.
+     * Also runs on a fixed delay, which picks up retries and emails enqueued on other nodes.
+     */
+    @Scheduled(fixedDelayString = "${mail.outbox.poll-interval-ms:5000}")
+    public void dispatchDueEmails() {
+        Date now = new Date();
+        int reclaimed = outboxRepository.reclaimExpiredLeases(now);
+        if (reclaimed > 0) {
+            System.out.println("MAIL OUTBOX: Reclaimed " + reclaimed + " email(s) with an expired lease.");
+        }
+
+        // Claim only what idle workers can start now; the rest stays PENDING for other nodes
+        int capacity = workers.getMaximumPoolSize() - workers.getActiveCount() - workers.getQueue().size();
+        if (capacity <= 0) {
+            return;
+        }
+
+        String claimToken = UUID.randomUUID().toString();
+        Date lockedUntil = new Date(now.getTime() + TimeUnit.SECONDS.toMillis(leaseSeconds));
+        if (outboxRepository.claimDue(claimToken, false, now, lockedUntil, capacity) == 0) {
+            return;
+        }
+
+        for (EmailOutbox email : outboxRepository.findByClaimToken(claimToken)) {
+            try {
+                workers.execute(() -> send(email));
+            } catch (RejectedExecutionException e) {
+                // Pool filled up meanwhile; the lease expires and the email is reclaimed
+                break;
+            }
+        }
+    }
+
+    /**
+     * Claims one batch per idle bulk connection and hands each to a bulk worker.
+     */
+    @Scheduled(fixedDelayString = "${mail.outbox.poll-interval-ms:5000}")
+    public void dispatchDueBulkEmails() {
+        int idleConnections = bulkWorkers.getMaximumPoolSize() - bulkWorkers.getActiveCount() - bulkWorkers.getQueue().size();
+        for (int i = 0; i < idleConnections; i++) {
+            Date now = new Date();
+            String claimToken = UUID.randomUUID().toString();
+            Date lockedUntil = new Date(now.getTime() + TimeUnit.SECONDS.toMillis(bulkLeaseSeconds));
+            if (outboxRepository.claimDue(claimToken, true, now, lockedUntil, bulkBatchSize) == 0) {
+                return;
+            }
+
+            List<EmailOutbox> batch = outboxRepository.findByClaimToken(claimToken);
+            try {
+                bulkWorkers.execute(() -> sendBatch(batch));
+            } catch (RejectedExecutionException e) {
+                return; // The lease expires and the batch is reclaimed
+            }
+        }
+    }
+
+    /**
+     * Sends a claimed bulk batch over one connection; accepted emails are marked SENT with one
+     * statement, failed ones are retried or marked DEAD individually.
+     */
+    private void sendBatch(List<EmailOutbox> batch) {
+        Map<Long, Exception> failures;
+        try {
+            failures = bulkMailer.send(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return; // Shutting down; the lease expires and the batch is reclaimed
+        }
+
+        List<Long> sentIds = new ArrayList<>();
+        Map<Long, Long> sentPerCampaign = new HashMap<>();
+        for (EmailOutbox email : batch) {
+            Exception error = failures.get(email.getId());
+            if (error == null) {
+                sentIds.add(email.getId());
+                if (email.getCampaignId() != null) {
+                    sentPerCampaign.merge(email.getCampaignId(), 1L, Long::sum);
+                }
+            } else {
+                recordFailure(email, error);
+            }
+        }
+
+        if (!sentIds.isEmpty()) {
+            outboxRepository.markSent(sentIds, new Date());
+            sentPerCampaign.forEach((campaignId, count) -> campaignRepository.addProgress(campaignId, count, 0));
+            sent.add(sentIds.size());
+            System.out.println("SMTP: Sent " + sentIds.size() + " bulk email(s) over one connection ("
+                    + failures.size() + " failed).");
+        }
+    }
+
+    /**
+     * Sends one claimed email (outside any transaction), then records the outcome in a short transaction.
+     */
+    private void send(EmailOutbox email) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom(email.getSender());
+        message.setTo(email.getRecipient());
+        message.setSubject(email.getSubject());
+        message.setText(email.getBody());
+
+        try {
+            javaMailSender.send(message);
+            recordOutcome(email.getId(), OutboxStatus.SENT, null);
+            sent.increment();
+            System.out.println("SMTP: Sent " + email.getCategory() + " email to " + email.getRecipient());
+        } catch (RuntimeException e) {
+            recordFailure(email, e);
+        }
+    }
+
+    private void recordFailure(EmailOutbox email, Exception e) {
+        if (e instanceof MailParseException || e instanceof MailPreparationException) {
+            // Malformed address or message: retrying cannot help
+            recordOutcome(email.getId(), OutboxStatus.DEAD, e.getMessage());
+            dead.increment();
+            System.err.println("SMTP ERROR: " + email.getCategory() + " email " + email.getId() + " to "
+                    + email.getRecipient() + " is DEAD: " + e.getMessage());
+            return;
+        }
+
+        // SMTP down, auth or connection problems, rejected recipient: retry with backoff
+        boolean retryable = email.getAttempts() + 1 < maxAttempts;
+        recordOutcome(email.getId(), retryable ? OutboxStatus.PENDING : OutboxStatus.DEAD, e.getMessage());
+        if (retryable) {
+            retried.increment();
+        } else {
+            dead.increment();
+            System.err.println("SMTP ERROR: Giving up on " + email.getCategory() + " email " + email.getId()
+                    + " to " + email.getRecipient() + " after " + maxAttempts + " attempts: " + e.getMessage());
+        }
+    }
+
+    private void recordOutcome(Long emailId, OutboxStatus status, String error) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            EmailOutbox email = outboxRepository.findById(emailId).orElseThrow();
+            email.setAttempts(email.getAttempts() + 1);
+            email.setStatus(status);
+            email.setClaimToken(null);
+            email.setLockedUntil(null);
+            email.setLastError(error != null && error.length() > 500 ? error.substring(0, 500) : error);
+
+            if (status == OutboxStatus.DEAD && email.getCampaignId() != null) {
+                campaignRepository.addProgress(email.getCampaignId(), 0, 1);
+            }
+
+            switch (status) {
+                case SENT -> email.setSentAt(new Date());
+                case PENDING -> email.setNextAttemptAt(new Date(System.currentTimeMillis() + backoffWithJitter(email.getAttempts())));
+                default -> { }
+            }
+        });
+    }
+
+    /**
+     * Exponential backoff with full jitter, capped at mail.outbox.backoff-max-ms.
+     */
+    private long backoffWithJitter(int attempts) {
+        long ceiling = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(attempts - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Periodic summary: counters since start plus the current backlog, so a stuck SMTP server shows up in the log.
+     */
+    @Scheduled(fixedDelayString = "${mail.outbox.metrics-interval-ms:60000}")
+    public void logMetrics() {
+        long pending = outboxRepository.countByStatus(OutboxStatus.PENDING);
+        long deadTotal = outboxRepository.countByStatus(OutboxStatus.DEAD);
+        if (enqueued.sum() == 0 && pending == 0) {
+            return;
+        }
+        System.out.println("MAIL OUTBOX: enqueued=" + enqueued.sum() + ", sent=" + sent.sum()
+                + ", retried=" + retried.sum() + ", dead=" + dead.sum()
+                + " | backlog pending=" + pending + ", dead=" + deadTotal
+                + ", active workers=" + workers.getActiveCount() + ", active bulk connections=" + bulkWorkers.getActiveCount() + ".");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Emails still in flight are reclaimed from their lease on the next start
+        workers.shutdown();
+        bulkWorkers.shutdownNow(); // Interrupts batches waiting on the rate limit
+    }
+}
@@ -3,31 +3,33 @@ package com.anvistudio.boutique.service;
 import com.anvistudio.boutique.model.User;
 import com.anvistudio.boutique.model.VerificationToken;
 import com.anvistudio.boutique.model.VerificationToken.TokenType;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
 /**
- * Service for sending live emails using the configured SMTP server.
+ * Service for composing account emails.
+ * MODIFIED: Emails are queued in the email outbox (same transaction as the OTP) and sent by its
+ * workers, so registration and password flows never wait on the SMTP server.
  */
 @Service
 public class EmailService {
 
-    private final JavaMailSender javaMailSender;
+    private static final String SUPPORT_SENDER = "Anvi Studio Support <bharath161099@gmail.com>";
 
-    public EmailService(JavaMailSender javaMailSender) {
-        this.javaMailSender = javaMailSender;
+    private final EmailOutboxService emailOutboxService;
+
+    public EmailService(EmailOutboxService emailOutboxService) {
+        this.emailOutboxService = emailOutboxService;
     }
 
     /**
      * Sends the OTP to the user's email address.
      * MODIFIED: Content changes based on TokenType.
+     * MODIFIED: Queued in the email outbox; must run inside the transaction that saves the token.
      * @param user The user object containing the target email in the username field.
      * @param token The token object containing the 6-digit OTP and type.
      */
     public void sendOtpEmail(User user, VerificationToken token) {
 
-        SimpleMailMessage mailMessage = new SimpleMailMessage();
         String subject;
         String action;
 
@@ -43,11 +45,6 @@ public class EmailService {
             action = "activate your account";
         }
 
-        mailMessage.setFrom("Anvi Studio Support <bharath161099@gmail.com>");
-        // CRITICAL: Set the recipient to the User's username (which is the target email)
-        mailMessage.setTo(user.getUsername());
-        mailMessage.setSubject(subject);
-
         String emailContent = String.format(
                 "Dear Customer,\n\n" +
                         "Your One-Time Password (OTP) to %s is:\n\n" +
@@ -56,14 +53,8 @@ public class EmailService {
                         "If you did not request this, please ignore this email.",
                 action, token.getToken(), 5);
 
-        mailMessage.setText(emailContent);
-
-        try {
-            javaMailSender.send(mailMessage);
-            System.out.println("SMTP: Successfully sent OTP email for " + token.getTokenType() + " to " + user.getUsername());
-        } catch (Exception e) {
-            System.err.println("SMTP ERROR: Failed to send OTP email for " + token.getTokenType() + " to " + user.getUsername());
-            e.printStackTrace();
-        }
+        // CRITICAL: The recipient is the User's username (which is the target email)
+        emailOutboxService.enqueue("OTP_" + token.getTokenType(), SUPPORT_SENDER, user.getUsername(), subject, emailContent);
+        System.out.println("SMTP: Queued OTP email for " + token.getTokenType() + " to " + user.getUsername());
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.dto.PaymentIntentRequest;
+import com.anvistudio.boutique.dto.PaymentIntentResult;
+import com.anvistudio.boutique.dto.RefundResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-process stand-in for Stripe (payment.gateway.provider=fake), so checkout load tests and benchmarks run offline.
+ * Calls go through the same {@link PaymentGatewayExecutor} as the real gateway, with configurable latency
+ * and transient failure rate to exercise timeouts, retries and the circuit breaker.
+ * NOTE: The returned client secrets are not valid for Stripe.js; load tests post /payment/confirm directly.
+ */
+@Service
+@ConditionalOnProperty(name = "payment.gateway.provider", havingValue = "fake")
+public class FakePaymentGateway implements PaymentGateway {
+
+    private final PaymentGatewayExecutor gatewayExecutor;
+
+    // Replays results for repeated idempotency keys, like Stripe does
+    private final Map<String, Object> idempotentResults = new ConcurrentHashMap<>();
+
+    @Value("${payment.fake.latency-ms:50}")
+    private long latencyMillis;
+
+    @Value("${payment.fake.failure-rate:0.0}")
+    private double failureRate;
+
+    public FakePaymentGateway(PaymentGatewayExecutor gatewayExecutor) {
+        this.gatewayExecutor = gatewayExecutor;
+        System.out.println("PAYMENT GATEWAY: Using the in-process FAKE payment gateway. No real payments are made.");
+    }
+
+    @Override
+    public CompletableFuture<String> createCustomer(Long userId, String email) {
+        return gatewayExecutor.execute("customer.create", true, () -> {
+            simulateNetwork();
+            return (String) idempotentResults.computeIfAbsent("customer-create-" + userId,
+                    key -> "cus_fake_" + UUID.randomUUID().toString().replace("-", ""));
+        }, FakePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<PaymentIntentResult> createPaymentIntent(PaymentIntentRequest request) {
+        return gatewayExecutor.execute("payment_intent.create", true, () -> {
+            simulateNetwork();
+            return (PaymentIntentResult) idempotentResults.computeIfAbsent(request.idempotencyKey(), key -> {
+                String id = "pi_fake_" + UUID.randomUUID().toString().replace("-", "");
+                return new PaymentIntentResult(id, id + "_secret_fake", "requires_payment_method");
+            });
+        }, FakePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<PaymentIntentResult> updatePaymentIntentAmount(String paymentIntentId, long amountInCents) {
+        return gatewayExecutor.execute("payment_intent.update", true, () -> {
+            simulateNetwork();
+            return new PaymentIntentResult(paymentIntentId, paymentIntentId + "_secret_fake", "requires_payment_method");
+        }, FakePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<PaymentIntentResult> cancelPaymentIntent(String paymentIntentId) {
+        return gatewayExecutor.execute("payment_intent.cancel", true, () -> {
+            simulateNetwork();
+            return new PaymentIntentResult(paymentIntentId, paymentIntentId + "_secret_fake", "canceled");
+        }, FakePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<PaymentIntentResult> retrievePaymentIntent(String paymentIntentId) {
+        return gatewayExecutor.execute("payment_intent.retrieve", true, () -> {
+            simulateNetwork();
+            return new PaymentIntentResult(paymentIntentId, paymentIntentId + "_secret_fake", "requires_payment_method");
+        }, FakePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<RefundResult> createRefund(String paymentIntentId, long amountInCents, String idempotencyKey) {
+        return gatewayExecutor.execute("refund.create", true, () -> {
+            simulateNetwork();
+            return (RefundResult) idempotentResults.computeIfAbsent(idempotencyKey,
+                    key -> new RefundResult("re_fake_" + UUID.randomUUID().toString().replace("-", ""), "succeeded"));
+        }, FakePaymentGateway::isTransient);
+    }
+
+    private void simulateNetwork() throws IOException, InterruptedException {
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new IOException("Simulated payment provider failure");
+        }
+    }
+
+    private static boolean isTransient(Throwable error) {
+        return error instanceof IOException;
+    }
+}
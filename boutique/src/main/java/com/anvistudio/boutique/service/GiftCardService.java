@@ -20,9 +20,7 @@ public class GiftCardService {
     /**
      * Retrieves all gift cards associated with the authenticated user.
      */
-    public List<GiftCard> getGiftCardsByUsername(String username) {
-        User user = userService.findUserByUsername(username)
-                .orElseThrow(() -> new IllegalArgumentException("User not found: " + username));
-        return giftCardRepository.findByUserId(user.getId());
+    public List<GiftCard> getGiftCardsByUserId(Long userId) {
+        return giftCardRepository.findByUserId(userId);
     }
 }
\ No newline at end of file
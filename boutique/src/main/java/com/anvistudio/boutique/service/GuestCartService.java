@@ -0,0 +1,239 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.dto.CartSummary;
+import com.anvistudio.boutique.model.CartItem;
+import com.anvistudio.boutique.model.Product;
+import com.anvistudio.boutique.repository.ProductRepository;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseCookie;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Cart for anonymous shoppers kept entirely in a signed cookie, so browsing and bot traffic
+ * never write to the database. Format: base64url("pid:qty,pid:qty") + "." + base64url(HMAC-SHA256).
+ * On login the cookie is merged into cart_items with one batched upsert and then cleared.
+ */
+@Service
+public class GuestCartService {
+
+    public static final String COOKIE_NAME = "guest_cart";
+
+    // Keeps the cookie well below the 4 KB browser limit
+    private static final int MAX_LINES = 30;
+    private static final int MAX_QUANTITY = 99;
+
+    private final ProductRepository productRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final CartCache cartCache;
+    private final byte[] signingKey;
+
+    @Value("${guest-cart.max-age-days:30}")
+    private long maxAgeDays;
+
+    public GuestCartService(ProductRepository productRepository, JdbcTemplate jdbcTemplate, CartCache cartCache,
+                            @Value("${guest-cart.secret:}") String secret) {
+        this.productRepository = productRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.cartCache = cartCache;
+        if (secret == null || secret.isBlank()) {
+            // Without a configured secret, guest carts do not survive a restart (signatures stop matching)
+            this.signingKey = new byte[32];
+            new SecureRandom().nextBytes(this.signingKey);
+            System.out.println("LOG: guest-cart.secret not set; using a random per-start key for guest cart cookies.");
+        } else {
+            this.signingKey = secret.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reads the guest cart (productId -> quantity). A missing, tampered or malformed cookie is an empty cart.
+     */
+    public Map<Long, Integer> read(HttpServletRequest request) {
+        Map<Long, Integer> lines = new LinkedHashMap<>();
+        String value = findCookie(request);
+        if (value == null) {
+            return lines;
+        }
+
+        int dot = value.indexOf('.');
+        if (dot <= 0) {
+            return lines;
+        }
+        String payload = value.substring(0, dot);
+        byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(value.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return lines;
+        }
+        if (!MessageDigest.isEqual(sign(payload), signature)) {
+            return lines;
+        }
+
+        String decoded = new String(Base64.getUrlDecoder().decode(payload), StandardCharsets.UTF_8);
+        for (String entry : decoded.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2) {
+                continue;
+            }
+            try {
+                long productId = Long.parseLong(parts[0]);
+                int quantity = Integer.parseInt(parts[1]);
+                if (quantity > 0 && lines.size() < MAX_LINES) {
+                    lines.put(productId, Math.min(quantity, MAX_QUANTITY));
+                }
+            } catch (NumberFormatException ignored) {
+                // Skip the malformed entry
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Adds a product to the guest cart (or increments its quantity). No database access.
+     * @throws IllegalStateException if the guest cart is full.
+     */
+    public void addProduct(HttpServletRequest request, HttpServletResponse response, Long productId, int quantity) {
+        if (quantity <= 0) return;
+
+        Map<Long, Integer> lines = read(request);
+        if (!lines.containsKey(productId) && lines.size() >= MAX_LINES) {
+            throw new IllegalStateException("Your guest cart is full. Please log in to add more items.");
+        }
+        lines.merge(productId, quantity, (current, added) -> Math.min(current + added, MAX_QUANTITY));
+        write(response, lines);
+    }
+
+    /**
+     * Sets the quantity of a guest cart line; zero or less removes it.
+     */
+    public void updateQuantity(HttpServletRequest request, HttpServletResponse response, Long productId, int quantity) {
+        Map<Long, Integer> lines = read(request);
+        if (quantity <= 0) {
+            lines.remove(productId);
+        } else if (lines.containsKey(productId)) {
+            lines.put(productId, Math.min(quantity, MAX_QUANTITY));
+        }
+        write(response, lines);
+    }
+
+    public void removeProduct(HttpServletRequest request, HttpServletResponse response, Long productId) {
+        updateQuantity(request, response, productId, 0);
+    }
+
+    /**
+     * Builds a displayable cart from the cookie with one product query (unsaved CartItem objects).
+     * Products that no longer exist are skipped.
+     */
+    public CartSummary getCartSummary(HttpServletRequest request) {
+        Map<Long, Integer> lines = read(request);
+        if (lines.isEmpty()) {
+            return CartSummary.of(List.of());
+        }
+
+        Map<Long, Product> products = productRepository.findAllById(lines.keySet()).stream()
+                .collect(Collectors.toMap(Product::getId, product -> product));
+
+        List<CartItem> items = new ArrayList<>();
+        lines.forEach((productId, quantity) -> {
+            Product product = products.get(productId);
+            if (product != null) {
+                CartItem item = new CartItem();
+                item.setProduct(product);
+                item.setQuantity(quantity);
+                items.add(item);
+            }
+        });
+        return CartSummary.of(items);
+    }
+
+    /**
+     * Merges the guest cart into the user's cart_items with one batched upsert, then clears the cookie.
+     * Each product is resolved inside the statement, so unknown products are skipped
+     * instead of failing the batch.
+     */
+    public void mergeIntoUserCart(HttpServletRequest request, HttpServletResponse response, Long userId) {
+        Map<Long, Integer> lines = read(request);
+        if (lines.isEmpty()) {
+            return;
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> batchArgs = new ArrayList<>();
+        lines.forEach((productId, quantity) -> batchArgs.add(new Object[]{userId, quantity, now, now, productId, quantity, now}));
+
+        cartCache.writeThrough(userId, () -> jdbcTemplate.batchUpdate(
+                "INSERT INTO cart_items (user_id, product_id, quantity, date_added, last_modified) " +
+                        "SELECT ?, p.id, ?, ?, ? FROM products p WHERE p.id = ? " +
+                        "ON DUPLICATE KEY UPDATE quantity = cart_items.quantity + ?, last_modified = ?",
+                batchArgs));
+
+        write(response, Map.of());
+        System.out.println("LOG: Merged " + lines.size() + " guest cart line(s) into the cart of user " + userId + ".");
+    }
+
+    private void write(HttpServletResponse response, Map<Long, Integer> lines) {
+        ResponseCookie cookie;
+        if (lines.isEmpty()) {
+            cookie = baseCookie("").maxAge(0).build();
+        } else {
+            String plain = lines.entrySet().stream()
+                    .map(entry -> entry.getKey() + ":" + entry.getValue())
+                    .collect(Collectors.joining(","));
+            String payload = Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+            String signature = Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload));
+            cookie = baseCookie(payload + "." + signature).maxAge(Duration.ofDays(maxAgeDays)).build();
+        }
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+    }
+
+    private ResponseCookie.ResponseCookieBuilder baseCookie(String value) {
+        return ResponseCookie.from(COOKIE_NAME, value)
+                .path("/")
+                .httpOnly(true)
+                .sameSite("Lax");
+    }
+
+    private static String findCookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE_NAME.equals(cookie.getName())) {
+                return cookie.getValue();
+            }
+        }
+        return null;
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(signingKey, "HmacSHA256"));
+            return mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available.", e);
+        }
+    }
+}
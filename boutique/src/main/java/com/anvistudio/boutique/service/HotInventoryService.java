@@ -0,0 +1,418 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.InventoryReservation;
+import com.anvistudio.boutique.model.InventoryReservation.ReservationStatus;
+import com.anvistudio.boutique.model.Product;
+import com.anvistudio.boutique.repository.InventoryReservationRepository;
+import com.anvistudio.boutique.repository.ProductRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hot-item (flash sale) inventory mode.
+ *
+ * For SKUs flagged as hot, stock admission happens against striped in-memory counters instead of
+ * the products row, so thousands of shoppers competing for one clearance saree never queue on a row lock.
+ * Payment-page holds for hot SKUs live only in memory; confirmed sales are appended as COMMITTED
+ * inventory_reservations rows (no products row touched) and a write-behind flush applies their
+ * net decrement to products.stock_quantity in batches.
+ *
+ * Recovery: COMMITTED rows are durable, so after a restart the counters are seeded from
+ * stock_quantity minus unflushed sales, and active DB holds become in-memory holds. In-memory holds
+ * are simply lost, which releases their stock; those shoppers re-acquire it when they confirm.
+ * A live counter is never re-seeded: admin stock edits are applied to it as a delta.
+ * NOTE: Counters are per JVM, so hot mode assumes checkout traffic for a SKU is served by one node.
+ */
+@Service
+public class HotInventoryService {
+
+    private final ProductRepository productRepository;
+    private final InventoryReservationRepository reservationRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    // productId -> counter + in-memory holds
+    private final ConcurrentMap<Long, HotSku> hotSkus = new ConcurrentHashMap<>();
+
+    @Value("${inventory.hot.stripes:0}")
+    private int configuredStripes;
+
+    public HotInventoryService(ProductRepository productRepository,
+                               InventoryReservationRepository reservationRepository,
+                               TransactionTemplate transactionTemplate) {
+        this.productRepository = productRepository;
+        this.reservationRepository = reservationRepository;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Re-seeds the counters of every hot SKU once the application is ready (restart recovery).
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadHotSkus() {
+        List<Product> hotProducts = productRepository.findByHotInventoryTrue();
+        for (Product product : hotProducts) {
+            activate(product.getId());
+        }
+        if (!hotProducts.isEmpty()) {
+            System.out.println("INVENTORY: Hot-item mode active for " + hotProducts.size() + " product(s).");
+        }
+    }
+
+    public boolean isHot(Long productId) {
+        return hotSkus.containsKey(productId);
+    }
+
+    /**
+     * Admin function: enables or disables hot-item mode for a product.
+     * Disabling flushes the pending sales first so the product row is exact again.
+     */
+    @Transactional
+    public void setHotMode(Long productId, boolean enabled) {
+        if (productRepository.updateHotInventory(productId, enabled) == 0) {
+            throw new IllegalArgumentException("Product not found: " + productId);
+        }
+
+        if (enabled) {
+            activate(productId);
+        } else {
+            hotSkus.remove(productId);
+            flushProduct(productId);
+        }
+    }
+
+    /**
+     * Applies an admin's stock edit to a hot SKU's live counter.
+     * MODIFIED: Adjusts by the change (new stock minus old stock) instead of re-seeding, so units taken
+     * by concurrent holds and sales are neither lost nor counted twice.
+     */
+    public void resync(Long productId, long stockDelta) {
+        HotSku sku = hotSkus.get(productId);
+        if (sku == null || stockDelta == 0) {
+            return;
+        }
+        if (stockDelta > 0) {
+            sku.counter.release(stockDelta);
+        } else {
+            long shortfall = -stockDelta - sku.counter.drain(-stockDelta);
+            if (shortfall > 0) {
+                System.out.println("INVENTORY: Stock of product " + productId + " was lowered below the " +
+                        "units held on payment pages; the next " + shortfall + " released unit(s) are not put back on sale.");
+            }
+        }
+    }
+
+    /**
+     * Admits (or rejects) a payment-page hold immediately against the in-memory counter.
+     * Any previous hold of the same user on this SKU is replaced.
+     * @return true if the stock was held.
+     */
+    public boolean hold(Long userId, Long productId, int quantity, Date expiresAt) {
+        HotSku sku = hotSkus.get(productId);
+        if (sku == null) {
+            return false;
+        }
+
+        Hold previous = sku.holds.remove(userId);
+        if (previous != null) {
+            sku.counter.release(previous.quantity());
+        }
+
+        if (!sku.counter.tryAcquire(quantity)) {
+            sku.rejected.increment();
+            return false;
+        }
+
+        Hold replaced = sku.holds.put(userId, new Hold(quantity, expiresAt.getTime()));
+        if (replaced != null) {
+            // A concurrent request of the same user won the race; give its units back
+            sku.counter.release(replaced.quantity());
+        }
+        sku.admitted.increment();
+        return true;
+    }
+
+    /**
+     * Releases every in-memory hold of a user across all hot SKUs.
+     */
+    public void releaseHolds(Long userId) {
+        for (HotSku sku : hotSkus.values()) {
+            Hold hold = sku.holds.remove(userId);
+            if (hold != null) {
+                sku.counter.release(hold.quantity());
+            }
+        }
+    }
+
+    /**
+     * Converts a user's hold into a sale on confirm. If the hold was lost (expired, restart),
+     * the stock is re-acquired from the counter. When called inside a transaction, the units
+     * are given back automatically if that transaction rolls back.
+     * @return true if the sale is admitted.
+     */
+    public boolean convertHold(Long userId, Long productId, int quantity) {
+        HotSku sku = hotSkus.get(productId);
+        if (sku == null) {
+            return false;
+        }
+
+        Hold hold = sku.holds.remove(userId);
+        if (hold != null && hold.quantity() >= quantity) {
+            if (hold.quantity() > quantity) {
+                sku.counter.release(hold.quantity() - quantity);
+            }
+        } else {
+            if (hold != null) {
+                sku.counter.release(hold.quantity());
+            }
+            if (!sku.counter.tryAcquire(quantity)) {
+                sku.rejected.increment();
+                return false;
+            }
+        }
+
+        releaseOnRollback(sku, quantity);
+        return true;
+    }
+
+    /**
+     * Returns the units a hot SKU can still admit, or -1 if the product is not hot.
+     */
+    public long getAvailable(Long productId) {
+        HotSku sku = hotSkus.get(productId);
+        return sku != null ? Math.max(0L, sku.counter.available()) : -1L;
+    }
+
+    /**
+     * Releases in-memory holds whose TTL has passed.
+     */
+    @Scheduled(fixedDelayString = "${inventory.reservation.sweep-interval-ms:30000}")
+    public void releaseExpiredHolds() {
+        long now = System.currentTimeMillis();
+        for (HotSku sku : hotSkus.values()) {
+            for (Map.Entry<Long, Hold> entry : sku.holds.entrySet()) {
+                Hold hold = entry.getValue();
+                // remove(key, value) guarantees a hold is released exactly once
+                if (hold.expiresAtMillis() <= now && sku.holds.remove(entry.getKey(), hold)) {
+                    sku.counter.release(hold.quantity());
+                }
+            }
+        }
+    }
+
+    /**
+     * Write-behind flush: applies the net decrement of all confirmed hot-mode sales to
+     * products.stock_quantity, one short transaction per product.
+     */
+    @Scheduled(fixedDelayString = "${inventory.hot.flush-interval-ms:2000}")
+    public void flushCommittedSales() {
+        for (Long productId : reservationRepository.findProductIdsWithCommittedSales()) {
+            flushProduct(productId);
+        }
+    }
+
+    /**
+     * Final flush so a graceful shutdown leaves every product row exact.
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        try {
+            flushCommittedSales();
+        } catch (Exception e) {
+            // COMMITTED rows are durable; the next start-up flush will apply them
+            System.err.println("INVENTORY ERROR: Shutdown flush failed: " + e.getMessage());
+        }
+    }
+
+    private void flushProduct(Long productId) {
+        Integer flushed = transactionTemplate.execute(status -> {
+            // Lock exactly the rows being applied so sales committed meanwhile are left for the next run
+            List<InventoryReservation> sales = reservationRepository
+                    .findByProductIdAndStatusForUpdate(productId, ReservationStatus.COMMITTED);
+            if (sales.isEmpty()) {
+                return 0;
+            }
+
+            int quantity = sales.stream().mapToInt(InventoryReservation::getQuantity).sum();
+            productRepository.decrementStock(productId, quantity);
+            reservationRepository.deleteAllInBatch(sales);
+            return quantity;
+        });
+
+        if (flushed != null && flushed > 0) {
+            System.out.println("INVENTORY: Flushed " + flushed + " hot-mode unit(s) sold for product " + productId + ".");
+        }
+    }
+
+    /**
+     * Seeds the counter of a SKU entering hot mode. A SKU that already has a live counter keeps it.
+     * MODIFIED: Pending sales are flushed first, and active DB holds are moved into in-memory holds
+     * instead of being subtracted, since convertHold would otherwise take the same units again.
+     */
+    private void activate(Long productId) {
+        if (hotSkus.containsKey(productId)) {
+            return;
+        }
+
+        flushProduct(productId);
+
+        Date now = new Date();
+        Long stock = reservationRepository.findStockNetOfCommittedSales(productId);
+        ConcurrentMap<Long, Hold> holds = new ConcurrentHashMap<>();
+        for (InventoryReservation reservation : reservationRepository.findActiveHolds(productId, ReservationStatus.HELD, now)) {
+            holds.merge(reservation.getUser().getId(),
+                    new Hold(reservation.getQuantity(), reservation.getExpiresAt().getTime()),
+                    (a, b) -> new Hold(a.quantity() + b.quantity(), Math.max(a.expiresAtMillis(), b.expiresAtMillis())));
+        }
+        long held = holds.values().stream().mapToLong(Hold::quantity).sum();
+        long available = (stock != null ? stock : 0L) - held;
+
+        StripedStockCounter counter = new StripedStockCounter(Math.max(0L, available), stripeCount());
+        if (available < 0) {
+            counter.drain(-available); // Oversubscribed holds: released units first pay this back
+        }
+        hotSkus.putIfAbsent(productId, new HotSku(counter, holds));
+    }
+
+    private void releaseOnRollback(HotSku sku, int quantity) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    sku.counter.release(quantity);
+                }
+            }
+        });
+    }
+
+    private int stripeCount() {
+        return configuredStripes > 0 ? configuredStripes : Runtime.getRuntime().availableProcessors();
+    }
+
+    private record Hold(int quantity, long expiresAtMillis) {
+    }
+
+    private static final class HotSku {
+        private final StripedStockCounter counter;
+        private final ConcurrentMap<Long, Hold> holds;
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private HotSku(StripedStockCounter counter, ConcurrentMap<Long, Hold> holds) {
+            this.counter = counter;
+            this.holds = holds;
+        }
+    }
+
+    /**
+     * Lock-free stock counter split across independent stripes. A request takes units from a
+     * random home stripe first and spills over to the others, so concurrent shoppers mostly CAS
+     * different cache lines. If the stripes together cannot cover the request, the partial take
+     * is given back and the request is rejected.
+     * A stock reduction larger than what is left is recorded as a deficit that released units pay back
+     * before they can be admitted again.
+     */
+    static final class StripedStockCounter {
+
+        private final AtomicLong[] stripes;
+        private final AtomicLong deficit = new AtomicLong();
+
+        StripedStockCounter(long initial, int stripeCount) {
+            this.stripes = new AtomicLong[stripeCount];
+            long base = initial / stripeCount;
+            long remainder = initial % stripeCount;
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new AtomicLong(base + (i < remainder ? 1 : 0));
+            }
+        }
+
+        boolean tryAcquire(long quantity) {
+            int home = ThreadLocalRandom.current().nextInt(stripes.length);
+            long taken = 0;
+
+            for (int i = 0; i < stripes.length && taken < quantity; i++) {
+                AtomicLong stripe = stripes[(home + i) % stripes.length];
+                long current;
+                while ((current = stripe.get()) > 0) {
+                    long take = Math.min(current, quantity - taken);
+                    if (stripe.compareAndSet(current, current - take)) {
+                        taken += take;
+                        break;
+                    }
+                }
+            }
+
+            if (taken < quantity) {
+                if (taken > 0) {
+                    stripes[home].addAndGet(taken);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        void release(long quantity) {
+            long remaining = quantity;
+            long owed;
+            while (remaining > 0 && (owed = deficit.get()) > 0) {
+                long paid = Math.min(owed, remaining);
+                if (deficit.compareAndSet(owed, owed - paid)) {
+                    remaining -= paid;
+                }
+            }
+            if (remaining > 0) {
+                stripes[ThreadLocalRandom.current().nextInt(stripes.length)].addAndGet(remaining);
+            }
+        }
+
+        /**
+         * Removes up to quantity units; whatever cannot be taken now is added to the deficit.
+         * @return The units taken from the stripes.
+         */
+        long drain(long quantity) {
+            long taken = 0;
+            for (int i = 0; i < stripes.length && taken < quantity; i++) {
+                AtomicLong stripe = stripes[i];
+                long current;
+                while ((current = stripe.get()) > 0) {
+                    long take = Math.min(current, quantity - taken);
+                    if (stripe.compareAndSet(current, current - take)) {
+                        taken += take;
+                        break;
+                    }
+                }
+            }
+            if (taken < quantity) {
+                deficit.addAndGet(quantity - taken);
+            }
+            return taken;
+        }
+
+        long available() {
+            long sum = -deficit.get();
+            for (AtomicLong stripe : stripes) {
+                sum += stripe.get();
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.repository.CartItemRepository;
+import com.anvistudio.boutique.repository.ContactRepository;
+import com.anvistudio.boutique.repository.EmailOutboxRepository;
+import com.anvistudio.boutique.repository.VerificationTokenRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Scheduled purge of rows nobody reads any more: expired verification tokens, carts untouched for
+ * housekeeping.cart-max-age-days, old contact messages and finished outbox emails.
+ * Every purge is a loop of small indexed DELETE ... LIMIT statements, each in its own short
+ * transaction with an optional pause in between, so the tables are never locked for long and
+ * shoppers' writes interleave with the purge. A run stops early once it exceeds its time budget;
+ * the next run continues where it left off. Each run logs what it deleted and how long it took.
+ */
+@Service
+public class HousekeepingService {
+
+    private final VerificationTokenRepository tokenRepository;
+    private final CartItemRepository cartItemRepository;
+    private final ContactRepository contactRepository;
+    private final EmailOutboxRepository outboxRepository;
+    private final CartCache cartCache;
+
+    @Value("${housekeeping.batch-size:500}")
+    private int batchSize;
+
+    @Value("${housekeeping.batch-pause-ms:50}")
+    private long batchPauseMillis;
+
+    @Value("${housekeeping.max-run-ms:60000}")
+    private long maxRunMillis;
+
+    @Value("${housekeeping.cart-max-age-days:30}")
+    private int cartMaxAgeDays;
+
+    @Value("${housekeeping.contact-retention-days:365}")
+    private int contactRetentionDays;
+
+    @Value("${housekeeping.outbox-retention-days:30}")
+    private int outboxRetentionDays;
+
+    public HousekeepingService(VerificationTokenRepository tokenRepository, CartItemRepository cartItemRepository,
+                               ContactRepository contactRepository, EmailOutboxRepository outboxRepository,
+                               CartCache cartCache) {
+        this.tokenRepository = tokenRepository;
+        this.cartItemRepository = cartItemRepository;
+        this.contactRepository = contactRepository;
+        this.outboxRepository = outboxRepository;
+        this.cartCache = cartCache;
+    }
+
+    @Scheduled(initialDelayString = "${housekeeping.initial-delay-ms:300000}",
+            fixedDelayString = "${housekeeping.interval-ms:3600000}")
+    public void purge() {
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(maxRunMillis);
+        Date now = new Date();
+        Map<String, Integer> deleted = new LinkedHashMap<>();
+
+        try {
+            deleted.put("expired tokens", purgeInBatches(deadline,
+                    () -> tokenRepository.deleteExpired(now, batchSize)));
+
+            purgeInBatches(deadline, () -> cartItemRepository.backfillLastModified(batchSize));
+            if (cartMaxAgeDays > 0) {
+                deleted.put("stale cart lines", purgeStaleCarts(daysBefore(now, cartMaxAgeDays), deadline));
+            }
+
+            if (contactRetentionDays > 0) {
+                Date cutoff = daysBefore(now, contactRetentionDays);
+                deleted.put("contact messages", purgeInBatches(deadline,
+                        () -> contactRepository.deleteSubmittedBefore(cutoff, batchSize)));
+            }
+            if (outboxRetentionDays > 0) {
+                Date cutoff = daysBefore(now, outboxRetentionDays);
+                deleted.put("finished emails", purgeInBatches(deadline,
+                        () -> outboxRepository.deleteFinishedBefore(cutoff, batchSize)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // Whatever was deleted so far stays deleted; the next run picks up the rest
+            System.err.println("HOUSEKEEPING: Run failed: " + e.getMessage());
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        System.out.println("HOUSEKEEPING: Deleted " + deleted + " in " + elapsedMillis + " ms"
+                + (System.nanoTime() - deadline > 0 ? " (time budget reached, continuing next run)." : "."));
+    }
+
+    /**
+     * Runs one bounded statement until it deletes less than a full batch or the run is out of time.
+     * @return The total number of rows affected.
+     */
+    private int purgeInBatches(long deadline, IntSupplier batch) throws InterruptedException {
+        int total = 0;
+        int affected;
+        do {
+            affected = batch.getAsInt();
+            total += affected;
+        } while (affected == batchSize && pauseBeforeNextBatch(deadline));
+        return total;
+    }
+
+    /**
+     * Deletes carts in which no line was added or changed since the cutoff, batchSize carts at a time,
+     * and drops them from the cart cache.
+     * @return The number of cart lines deleted.
+     */
+    private int purgeStaleCarts(Date cutoff, long deadline) throws InterruptedException {
+        int total = 0;
+        List<Long> userIds;
+        do {
+            userIds = cartItemRepository.findStaleCartUserIds(cutoff, batchSize);
+            if (userIds.isEmpty()) {
+                break;
+            }
+            total += cartItemRepository.deleteStaleLines(userIds, cutoff);
+            userIds.forEach(cartCache::evict);
+        } while (userIds.size() == batchSize && pauseBeforeNextBatch(deadline));
+        return total;
+    }
+
+    /**
+     * @return false once the run's time budget is spent.
+     */
+    private boolean pauseBeforeNextBatch(long deadline) throws InterruptedException {
+        if (System.nanoTime() - deadline > 0) {
+            return false;
+        }
+        if (batchPauseMillis > 0) {
+            Thread.sleep(batchPauseMillis);
+        }
+        return true;
+    }
+
+    private static Date daysBefore(Date now, int days) {
+        return new Date(now.getTime() - TimeUnit.DAYS.toMillis(days));
+    }
+}
@@ -0,0 +1,59 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.User;
+import com.anvistudio.boutique.model.VerificationToken;
+import com.anvistudio.boutique.model.VerificationToken.TokenType;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Default OTP store: a map per user id plus an expiry queue, no database round trips.
+ * Every OTP has the same lifetime, so issue order is expiry order and a plain FIFO queue works as the
+ * expiry queue: the sweep pops entries from the head until it reaches one that is still valid.
+ * OTPs do not survive a restart (users request a new code) and are not shared between nodes;
+ * use security.otp.store=database when running several nodes without sticky sessions.
+ */
+@Component
+@ConditionalOnProperty(name = "security.otp.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryOtpStore implements OtpStore {
+
+    private final ConcurrentHashMap<Long, VerificationToken> tokens = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Expiry> expiryQueue = new ConcurrentLinkedQueue<>();
+
+    private record Expiry(Long userId, VerificationToken token) {}
+
+    @Override
+    public VerificationToken issue(User user, TokenType tokenType) {
+        VerificationToken token = new VerificationToken(user, tokenType);
+        tokens.put(user.getId(), token);
+        expiryQueue.add(new Expiry(user.getId(), token));
+        return token;
+    }
+
+    @Override
+    public Optional<VerificationToken> find(Long userId) {
+        return Optional.ofNullable(tokens.get(userId));
+    }
+
+    @Override
+    public void remove(Long userId) {
+        tokens.remove(userId);
+    }
+
+    /**
+     * Drops expired OTPs. Entries whose OTP was already replaced or used only leave the queue.
+     */
+    @Scheduled(fixedDelayString = "${security.otp.sweep-interval-ms:30000}")
+    public void evictExpired() {
+        Expiry head;
+        while ((head = expiryQueue.peek()) != null && head.token().isExpired()) {
+            expiryQueue.poll();
+            tokens.remove(head.userId(), head.token()); // Only if it is still the user's current OTP
+        }
+    }
+}
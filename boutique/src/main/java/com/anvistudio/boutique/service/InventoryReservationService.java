@@ -0,0 +1,147 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.CartItem;
+import com.anvistudio.boutique.model.Product;
+import com.anvistudio.boutique.repository.InventoryReservationRepository;
+import com.anvistudio.boutique.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that holds stock for a shopper between opening the payment page and confirming the order.
+ * Holds are TTL-based rows in inventory_reservations; they are converted to a stock deduction on
+ * confirm, and anything left behind is released by a periodic, index-driven expiry sweep.
+ * NEW: Lines of hot-mode (flash sale) SKUs are routed to HotInventoryService instead, so they
+ * never contend on the products row.
+ */
+@Service
+public class InventoryReservationService {
+
+    private final InventoryReservationRepository reservationRepository;
+    private final ProductRepository productRepository;
+    private final HotInventoryService hotInventoryService;
+
+    @Value("${inventory.reservation.ttl-minutes:10}")
+    private long reservationTtlMinutes;
+
+    @Value("${inventory.reservation.sweep-batch-size:500}")
+    private int sweepBatchSize;
+
+    public InventoryReservationService(InventoryReservationRepository reservationRepository,
+                                       ProductRepository productRepository,
+                                       HotInventoryService hotInventoryService) {
+        this.reservationRepository = reservationRepository;
+        this.productRepository = productRepository;
+        this.hotInventoryService = hotInventoryService;
+    }
+
+    /**
+     * Places (or refreshes) holds for every line in the user's cart.
+     * Any previous holds of this user are released first so reloading the payment page
+     * simply extends the hold instead of double-counting it.
+     * @throws IllegalStateException if any line can no longer be covered by available stock.
+     */
+    @Transactional
+    public void reserveCart(Long userId, List<CartItem> cartItems) {
+        reservationRepository.deleteByUserId(userId);
+        hotInventoryService.releaseHolds(userId);
+
+        Date now = new Date();
+        Date expiresAt = new Date(now.getTime() + TimeUnit.MINUTES.toMillis(reservationTtlMinutes));
+
+        for (CartItem item : cartItems) {
+            Product product = item.getProduct();
+            boolean placed;
+            if (hotInventoryService.isHot(product.getId())) {
+                placed = hotInventoryService.hold(userId, product.getId(), item.getQuantity(), expiresAt);
+            } else {
+                placed = reservationRepository.reserveIfAvailable(
+                        userId, product.getId(), item.getQuantity(), now, expiresAt) > 0;
+            }
+
+            if (!placed) {
+                // Throwing rolls back the DB holds already placed for earlier lines; in-memory holds are released here
+                hotInventoryService.releaseHolds(userId);
+                throw new IllegalStateException(String.format(
+                        "Sorry, only %d unit(s) of '%s' are available right now. Please update your cart.",
+                        Math.max(0, getAvailableToSell(product.getId())), product.getName()));
+            }
+        }
+    }
+
+    /**
+     * Converts the user's holds into real stock deductions and releases the holds.
+     * Must run inside the order-creation transaction.
+     * @throws IllegalStateException if a line sold out because its hold had expired.
+     */
+    @Transactional
+    public void commitReservations(Long userId, List<CartItem> cartItems) {
+        Date now = new Date();
+
+        for (CartItem item : cartItems) {
+            Product product = item.getProduct();
+            int updated;
+            if (hotInventoryService.isHot(product.getId())) {
+                // Admitted by the in-memory counter; the deduction is flushed to products later
+                updated = hotInventoryService.convertHold(userId, product.getId(), item.getQuantity())
+                        ? reservationRepository.insertCommitted(userId, product.getId(), item.getQuantity(), now)
+                        : 0;
+            } else {
+                updated = productRepository.deductReservedStock(product.getId(), userId, item.getQuantity(), now);
+            }
+            if (updated == 0) {
+                throw new IllegalStateException("'" + product.getName() + "' sold out while your payment was in progress.");
+            }
+        }
+
+        reservationRepository.deleteByUserId(userId);
+    }
+
+    /**
+     * Releases all holds of a user without deducting stock (e.g., checkout abandoned).
+     */
+    @Transactional
+    public void releaseReservations(Long userId) {
+        reservationRepository.deleteByUserId(userId);
+        hotInventoryService.releaseHolds(userId);
+    }
+
+    /**
+     * Returns the stock that can still be sold: stock_quantity minus active holds.
+     * This is a non-locking read and is safe to call from catalog pages.
+     * Hot-mode SKUs answer straight from their in-memory counter.
+     */
+    public long getAvailableToSell(Long productId) {
+        long hotAvailable = hotInventoryService.getAvailable(productId);
+        if (hotAvailable >= 0) {
+            return hotAvailable;
+        }
+
+        Long available = reservationRepository.findAvailableToSell(productId, new Date());
+        return available != null ? available : 0L;
+    }
+
+    /**
+     * Expiry sweeper: deletes expired holds in bounded batches, each in its own short transaction.
+     * Expired holds are already ignored by availability checks, so this only keeps the table small.
+     */
+    @Scheduled(fixedDelayString = "${inventory.reservation.sweep-interval-ms:30000}")
+    public void releaseExpiredReservations() {
+        int total = 0;
+        int released;
+        do {
+            released = reservationRepository.deleteExpired(new Date(), sweepBatchSize);
+            total += released;
+        } while (released == sweepBatchSize);
+
+        if (total > 0) {
+            System.out.println("INVENTORY: Released " + total + " expired stock reservation(s).");
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.User;
+import com.anvistudio.boutique.model.VerificationToken;
+import com.anvistudio.boutique.model.VerificationToken.TokenType;
+import com.anvistudio.boutique.repository.VerificationTokenRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+/**
+ * OTP store backed by the verification_tokens table (security.otp.store=database), shared by all nodes.
+ */
+@Component
+@ConditionalOnProperty(name = "security.otp.store", havingValue = "database")
+public class JpaOtpStore implements OtpStore {
+
+    private final VerificationTokenRepository tokenRepository;
+
+    public JpaOtpStore(VerificationTokenRepository tokenRepository) {
+        this.tokenRepository = tokenRepository;
+        System.out.println("LOG: OTPs are stored in the verification_tokens table.");
+    }
+
+    @Override
+    @Transactional
+    public VerificationToken issue(User user, TokenType tokenType) {
+        // The DELETE must reach the database before the INSERT (user_id is unique)
+        tokenRepository.deleteByUserId(user.getId());
+        tokenRepository.flush();
+        return tokenRepository.save(new VerificationToken(user, tokenType));
+    }
+
+    @Override
+    public Optional<VerificationToken> find(Long userId) {
+        return tokenRepository.findByUserId(userId);
+    }
+
+    @Override
+    @Transactional
+    public void remove(Long userId) {
+        tokenRepository.deleteByUserId(userId);
+    }
+}
@@ -0,0 +1,183 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.NewsletterCampaign;
+import com.anvistudio.boutique.model.NewsletterCampaign.CampaignStatus;
+import com.anvistudio.boutique.repository.EmailOutboxRepository;
+import com.anvistudio.boutique.repository.NewsletterCampaignRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Resumable, throttled newsletter campaigns.
+ * Starting a campaign only saves its row; a scheduled tick then queues the audience one keyset page
+ * at a time into the email outbox (bulk rows, unique per campaign and recipient). The page's rows
+ * and the advanced cursor commit together under a row lock on the campaign, so restarts and several
+ * nodes neither skip nor repeat recipients. The page size follows newsletter.campaign.rate-per-minute.
+ */
+@Service
+public class NewsletterCampaignService {
+
+    // Next audience page after :cursor, in email order. Each branch walks its own unique index
+    // (users.username, newsletter_subscriptions.email); UNION drops addresses present in both.
+    private static final String AUDIENCE_PAGE_QUERY =
+            "SELECT email FROM (" +
+            "(SELECT u.username AS email FROM users u JOIN customer_details c ON c.user_id = u.id " +
+            "WHERE c.newsletter_opt_in = TRUE AND u.username > ? ORDER BY u.username LIMIT ?) " +
+            "UNION " +
+            "(SELECT s.email FROM newsletter_subscriptions s WHERE s.is_active = TRUE AND s.email > ? ORDER BY s.email LIMIT ?)" +
+            ") audience ORDER BY email LIMIT ?";
+
+    private static final String INSERT_OUTBOX =
+            "INSERT IGNORE INTO email_outbox (category, sender, recipient, subject, body, bulk, campaign_id, " +
+            "status, attempts, next_attempt_at, created_at) VALUES (?, ?, ?, ?, ?, TRUE, ?, 'PENDING', 0, ?, ?)";
+
+    private final NewsletterCampaignRepository campaignRepository;
+    private final EmailOutboxRepository outboxRepository;
+    private final EmailOutboxService emailOutboxService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int pageSize;
+
+    public NewsletterCampaignService(NewsletterCampaignRepository campaignRepository,
+                                     EmailOutboxRepository outboxRepository,
+                                     EmailOutboxService emailOutboxService,
+                                     JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                     @Value("${newsletter.campaign.rate-per-minute:600}") int ratePerMinute,
+                                     @Value("${newsletter.campaign.tick-ms:10000}") long tickMillis) {
+        this.campaignRepository = campaignRepository;
+        this.outboxRepository = outboxRepository;
+        this.emailOutboxService = emailOutboxService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        // Recipients queued per campaign and tick
+        this.pageSize = (int) Math.max(1, ratePerMinute * tickMillis / 60_000);
+    }
+
+    /**
+     * Creates a running campaign. Call it inside the transaction that triggers the mailing, so the
+     * campaign exists if and only if that change commits.
+     * A product that already has an unfinished campaign does not get a second one.
+     * @return The new campaign, or null if one is already running for the product.
+     */
+    @Transactional
+    public NewsletterCampaign startCampaign(String category, Long productId, String sender, String subject, String body) {
+        if (productId != null && campaignRepository.existsByProductIdAndStatusIn(productId,
+                EnumSet.of(CampaignStatus.RUNNING, CampaignStatus.PAUSED))) {
+            System.out.println("NOTIFICATION: A campaign for product " + productId + " is already running; not starting another.");
+            return null;
+        }
+
+        NewsletterCampaign campaign = new NewsletterCampaign();
+        campaign.setCategory(category);
+        campaign.setProductId(productId);
+        campaign.setSender(sender);
+        campaign.setSubject(subject);
+        campaign.setBody(body);
+        return campaignRepository.save(campaign);
+    }
+
+    /**
+     * Queues the next audience page of every running campaign.
+     */
+    @Scheduled(fixedDelayString = "${newsletter.campaign.tick-ms:10000}")
+    public void advanceCampaigns() {
+        int queued = 0;
+        for (Long campaignId : campaignRepository.findIdsByStatus(CampaignStatus.RUNNING)) {
+            try {
+                Integer pageQueued = transactionTemplate.execute(tx -> queueNextPage(campaignId));
+                queued += pageQueued != null ? pageQueued : 0;
+            } catch (RuntimeException e) {
+                // The cursor did not move; the same page is retried on the next tick
+                System.err.println("NOTIFICATION: Campaign " + campaignId + " could not queue its next page: " + e.getMessage());
+            }
+        }
+
+        if (queued > 0) {
+            emailOutboxService.dispatchDueBulkEmails();
+        }
+    }
+
+    /**
+     * One page under the campaign's row lock: read the audience after the cursor, insert the
+     * outbox rows, advance the cursor. Runs inside a transaction.
+     * @return The number of recipients queued.
+     */
+    private int queueNextPage(Long campaignId) {
+        NewsletterCampaign campaign = campaignRepository.findByIdForUpdate(campaignId).orElse(null);
+        if (campaign == null || campaign.getStatus() != CampaignStatus.RUNNING) {
+            return 0; // Paused or cancelled meanwhile
+        }
+
+        String cursor = campaign.getCursorEmail();
+        List<String> page = jdbcTemplate.queryForList(AUDIENCE_PAGE_QUERY, String.class,
+                cursor, pageSize, cursor, pageSize, pageSize);
+        if (page.isEmpty()) {
+            campaign.setStatus(CampaignStatus.COMPLETED);
+            campaign.setCompletedAt(new Date());
+            campaignRepository.save(campaign);
+            System.out.println("NOTIFICATION: Campaign " + campaignId + " fully queued (" + campaign.getQueuedCount() + " recipients).");
+            return 0;
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> rows = new ArrayList<>(page.size());
+        for (String recipient : page) {
+            rows.add(new Object[]{campaign.getCategory(), campaign.getSender(), recipient,
+                    campaign.getSubject(), campaign.getBody(), campaign.getId(), now, now});
+        }
+        jdbcTemplate.batchUpdate(INSERT_OUTBOX, rows);
+
+        campaign.setCursorEmail(page.get(page.size() - 1));
+        campaign.setQueuedCount(campaign.getQueuedCount() + page.size());
+        campaignRepository.save(campaign);
+        return page.size();
+    }
+
+    public List<NewsletterCampaign> getRecentCampaigns() {
+        return campaignRepository.findTop10ByOrderByCreatedAtDesc();
+    }
+
+    /**
+     * Stops queueing and holds back the campaign's queued emails until resumed.
+     * @throws IllegalStateException if the campaign is not running.
+     */
+    public void pauseCampaign(Long campaignId) {
+        if (campaignRepository.transition(campaignId, EnumSet.of(CampaignStatus.RUNNING), CampaignStatus.PAUSED) == 0) {
+            throw new IllegalStateException("Only a running campaign can be paused.");
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the campaign is not paused.
+     */
+    public void resumeCampaign(Long campaignId) {
+        if (campaignRepository.transition(campaignId, EnumSet.of(CampaignStatus.PAUSED), CampaignStatus.RUNNING) == 0) {
+            throw new IllegalStateException("Only a paused campaign can be resumed.");
+        }
+        emailOutboxService.dispatchDueBulkEmails();
+    }
+
+    /**
+     * Cancels the campaign and drops its emails that no worker has claimed yet.
+     * @throws IllegalStateException if the campaign has already finished.
+     */
+    @Transactional
+    public void cancelCampaign(Long campaignId) {
+        if (campaignRepository.transition(campaignId, EnumSet.of(CampaignStatus.RUNNING, CampaignStatus.PAUSED),
+                CampaignStatus.CANCELLED) == 0) {
+            throw new IllegalStateException("This campaign has already finished.");
+        }
+        int dropped = outboxRepository.cancelPendingForCampaign(campaignId);
+        System.out.println("NOTIFICATION: Campaign " + campaignId + " cancelled; " + dropped + " queued email(s) dropped.");
+    }
+}
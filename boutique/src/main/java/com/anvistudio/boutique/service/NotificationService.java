@@ -1,39 +1,54 @@
 package com.anvistudio.boutique.service;
 
-import com.anvistudio.boutique.model.Customer;
+import com.anvistudio.boutique.model.NewsletterCampaign;
+import com.anvistudio.boutique.model.PendingSaleEvent;
 import com.anvistudio.boutique.model.Product;
-import com.anvistudio.boutique.model.User;
 import com.anvistudio.boutique.model.NewsletterSubscription;
-import com.anvistudio.boutique.repository.CustomerRepository;
 import com.anvistudio.boutique.repository.NewsletterSubscriptionRepository;
-import com.anvistudio.boutique.repository.UserRepository; // New Import
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
+import com.anvistudio.boutique.repository.PendingSaleEventRepository;
+import com.anvistudio.boutique.repository.ProductRepository;
+import com.anvistudio.boutique.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.HashSet;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Service
 public class NotificationService {
 
     private final NewsletterSubscriptionRepository subscriptionRepository;
-    private final CustomerRepository customerRepository;
     private final UserRepository userRepository;
-    private final JavaMailSender javaMailSender;
+    private final NewsletterCampaignService newsletterCampaignService;
+    private final PendingSaleEventRepository pendingSaleEventRepository;
+    private final ProductRepository productRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${notification.sale-digest.window-minutes:60}")
+    private long digestWindowMinutes;
+
+    @Value("${notification.sale-digest.max-products:100}")
+    private int digestMaxProducts;
 
     public NotificationService(NewsletterSubscriptionRepository subscriptionRepository,
-                               CustomerRepository customerRepository,
-                               UserRepository userRepository, // Injected
-                               JavaMailSender javaMailSender) {
+                               UserRepository userRepository,
+                               NewsletterCampaignService newsletterCampaignService,
+                               PendingSaleEventRepository pendingSaleEventRepository,
+                               ProductRepository productRepository,
+                               TransactionTemplate transactionTemplate) {
         this.subscriptionRepository = subscriptionRepository;
-        this.customerRepository = customerRepository;
         this.userRepository = userRepository;
-        this.javaMailSender = javaMailSender;
+        this.newsletterCampaignService = newsletterCampaignService;
+        this.pendingSaleEventRepository = pendingSaleEventRepository;
+        this.productRepository = productRepository;
+        this.transactionTemplate = transactionTemplate;
     }
 
     /**
@@ -73,91 +88,91 @@ public class NotificationService {
 
 
     /**
-     * Finds all unique emails for notification:
-     * 1. Registered Customers who opted-in (`newsletterOptIn = true`)
-     * 2. Non-registered Subscribers from the footer table (`isActive = true`)
-     * @return Set of unique email addresses.
+     * Sends an exclusive offer notification for a new/updated sale product.
+     * MODIFIED: Only buffers a sale event in the caller's transaction (saveProduct); the sale digest
+     * job announces all products discounted within the window in one email per subscriber.
+     * @param product The product now on sale/clearance.
      */
-    private Set<String> getAllActiveSubscriberEmails() {
-        Set<String> emails = new HashSet<>();
-
-        // 1. Get emails from registered customers who opted-in
-        List<Customer> customers = customerRepository.findAll().stream()
-                .filter(Customer::getNewsletterOptIn)
-                .collect(Collectors.toList());
-
-        for (Customer customer : customers) {
-            // Ensure the user account itself is enabled and present
-            Optional<User> userOptional = userRepository.findById(customer.getUser().getId());
-            if (userOptional.isPresent()) {
-                emails.add(userOptional.get().getUsername());
-            }
-        }
-
-        // 2. Get emails from general newsletter subscribers
-        List<NewsletterSubscription> subscribers = subscriptionRepository.findByIsActiveTrue();
-        for (NewsletterSubscription subscriber : subscribers) {
-            emails.add(subscriber.getEmail());
+    @Transactional
+    public void sendSaleNotification(Product product) {
+        if (pendingSaleEventRepository.insertIgnore(product.getId(), new Date()) == 1) {
+            System.out.println("NOTIFICATION: Product " + product.getId() + " added to the next sale digest.");
         }
-
-        return emails;
     }
 
     /**
-     * Sends an exclusive offer notification for a new/updated sale product.
-     * @param product The product now on sale/clearance.
+     * NEW: Once the oldest buffered sale event is older than the digest window, announces every
+     * buffered product in one digest campaign and clears the buffer, in one transaction.
+     * Products that were deleted or are no longer discounted by then are left out.
      */
-    public void sendSaleNotification(Product product) {
-        Set<String> recipientEmails = getAllActiveSubscriberEmails();
-
-        if (recipientEmails.isEmpty()) {
-            System.out.println("NOTIFICATION: No active newsletter subscribers found.");
+    @Scheduled(fixedDelayString = "${notification.sale-digest.check-interval-ms:60000}")
+    public void sendSaleDigest() {
+        Optional<Date> oldest = pendingSaleEventRepository.findOldestCreatedAt();
+        long windowMillis = TimeUnit.MINUTES.toMillis(digestWindowMinutes);
+        if (oldest.isEmpty() || System.currentTimeMillis() - oldest.get().getTime() < windowMillis) {
             return;
         }
 
-        String offerType = product.isClearance() ? "🔥 Clearance Sale" : "✨ Exclusive Offer";
-        String subject = String.format("%s: New Product on Sale! - %s", offerType, product.getName());
-
-        // Note: Replace "http://yourboutique.com" with your actual domain or localhost address for testing
-        String productUrl = "http://localhost:8080/products/" + product.getId();
-
-        String body = String.format(
-                "Hello valued customer,\n\n" +
-                        "We are thrilled to announce a new product is now on %s!\n\n" +
-                        "Product: %s (%s)\n" +
-                        "Category: %s\n" +
-                        "Original Price: ₹ %.2f\n" +
-                        "Discount: %d%%\n" +
-                        "New Price: ₹ %.2f\n\n" +
-                        "Description: %s\n\n" +
-                        "Shop now before it sells out!\n" +
-                        "[Link to Product: %s]\n\n" + // Use the new product URL
-                        "Thank you for being an Anvi Studio subscriber!",
-                offerType,
+        transactionTemplate.executeWithoutResult(tx -> {
+            List<PendingSaleEvent> events = pendingSaleEventRepository.findAllForUpdate();
+            if (events.isEmpty()) {
+                return; // Another node sent this digest
+            }
+
+            Map<Long, Product> productsById = productRepository.findAllById(
+                    events.stream().map(PendingSaleEvent::getProductId).toList()).stream()
+                    .collect(Collectors.toMap(Product::getId, product -> product));
+            List<Product> products = events.stream()
+                    .map(event -> productsById.get(event.getProductId()))
+                    .filter(product -> product != null && product.getDiscountPercent() > 0)
+                    .toList();
+
+            pendingSaleEventRepository.deleteAllInBatch(events);
+            if (products.isEmpty()) {
+                return;
+            }
+
+            NewsletterCampaign campaign = newsletterCampaignService.startCampaign("SALE_DIGEST", null,
+                    "Anvi Studio Offers <bharath161099@gmail.com>", digestSubject(products), digestBody(products));
+            System.out.println("NOTIFICATION: Sale digest campaign " + campaign.getId() + " started for "
+                    + products.size() + " product(s) (" + events.size() + " sale event(s)).");
+        });
+    }
+
+    private static String digestSubject(List<Product> products) {
+        boolean anyClearance = products.stream().anyMatch(Product::isClearance);
+        String offerType = anyClearance ? "🔥 Clearance Sale" : "✨ Exclusive Offers";
+        if (products.size() == 1) {
+            return String.format("%s: New Product on Sale! - %s", offerType, products.get(0).getName());
+        }
+        return String.format("%s: %d New Products on Sale!", offerType, products.size());
+    }
+
+    private String digestBody(List<Product> products) {
+        StringBuilder body = new StringBuilder("Hello valued customer,\n\n")
+                .append("We are thrilled to announce new products on sale at Anvi Studio!\n\n");
+
+        // Note: Replace "http://localhost:8080" with your actual domain
+        products.stream().limit(digestMaxProducts).forEach(product -> body.append(String.format(
+                "%s%s (%s) - %s\n" +
+                        "Original Price: ₹ %.2f | Discount: %d%% | New Price: ₹ %.2f\n" +
+                        "[Link to Product: http://localhost:8080/products/%d]\n\n",
+                product.isClearance() ? "🔥 " : "",
                 product.getName(),
                 product.getSku(),
                 product.getCategory(),
                 product.getPrice().doubleValue(),
                 product.getDiscountPercent(),
                 product.getDiscountedPrice().doubleValue(),
-                product.getDescription(),
-                productUrl // Use the new product URL
-        );
-
-        // Send a separate email to each recipient
-        for (String email : recipientEmails) {
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setFrom("Anvi Studio Offers <bharath161099@gmail.com>");
-            message.setTo(email);
-            message.setSubject(subject);
-            message.setText(body);
-
-            try {
-                javaMailSender.send(message);
-                System.out.println("NOTIFICATION: Sent sale email to " + email);
-            } catch (Exception e) {
-                System.err.println("SMTP ERROR: Failed to send sale email to " + email + ": " + e.getMessage());
-            }
+                product.getId())));
+
+        if (products.size() > digestMaxProducts) {
+            body.append(String.format("...and %d more offers: http://localhost:8080/products\n\n",
+                    products.size() - digestMaxProducts));
         }
+
+        return body.append("Shop now before they sell out!\n\n")
+                .append("Thank you for being an Anvi Studio subscriber!")
+                .toString();
     }
-}
\ No newline at end of file
+}
@@ -4,6 +4,7 @@ import com.anvistudio.boutique.model.CartItem;
 import com.anvistudio.boutique.model.Order;
 import com.anvistudio.boutique.model.User;
 import com.anvistudio.boutique.repository.OrderRepository;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
@@ -18,13 +19,20 @@ public class OrderService {
 
     private final OrderRepository orderRepository; // Changed from public to private
     private final UserService userService;
+    private final CartService cartService;
+    private final InventoryReservationService inventoryReservationService;
+    private final RefundService refundService;
 
     // Standard 7-day return window in milliseconds
     private static final long RETURN_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(7);
 
-    public OrderService(OrderRepository orderRepository, UserService userService) {
+    public OrderService(OrderRepository orderRepository, UserService userService, CartService cartService,
+                        InventoryReservationService inventoryReservationService, RefundService refundService) {
         this.orderRepository = orderRepository;
         this.userService = userService;
+        this.cartService = cartService;
+        this.inventoryReservationService = inventoryReservationService;
+        this.refundService = refundService;
     }
 
     /**
@@ -37,10 +45,8 @@ public class OrderService {
     /**
      * Retrieves all orders for the authenticated user.
      */
-    public List<Order> getOrdersByUsername(String username) {
-        User user = userService.findUserByUsername(username)
-                .orElseThrow(() -> new IllegalArgumentException("User not found: " + username));
-        return orderRepository.findByUserIdOrderByOrderDateDesc(user.getId());
+    public List<Order> getOrdersByUserId(Long userId) {
+        return orderRepository.findByUserIdOrderByOrderDateDesc(userId);
     }
 
     /**
@@ -73,8 +79,29 @@ public class OrderService {
         order.setStatus(Order.OrderStatus.CANCELLED);
         orderRepository.save(order);
 
-        System.out.println("LOG: Order " + orderId + " cancelled. Initiating refund for amount: " + order.getTotalAmount());
-        // TODO: Trigger Refund Process (Stripe API call would happen here)
+        System.out.println("LOG: Order " + orderId + " cancelled. Settling payment of amount: " + order.getTotalAmount());
+        // Durable refund job in this same transaction (or a cancel of an unsettled payment); the Stripe call happens later
+        refundService.enqueueRefund(order, "Order cancelled");
+    }
+
+    /**
+     * NEW: Admin approval of a return (moved from AdminController): marks the order RETURNED
+     * and queues its refund in the same transaction.
+     */
+    @Transactional
+    public void finalizeReturn(Long orderId) {
+        Order order = getOrderById(orderId)
+                .orElseThrow(() -> new IllegalArgumentException("Order not found."));
+
+        if (order.getStatus() != Order.OrderStatus.RETURN_REQUESTED) {
+            throw new IllegalStateException("Order must be RETURN_REQUESTED to finalize return.");
+        }
+
+        order.setStatus(Order.OrderStatus.RETURNED);
+        orderRepository.save(order);
+
+        refundService.enqueueRefund(order, "Return approved");
+        System.out.println("LOG: Return approved for Order: " + orderId + ". Refund queued.");
     }
 
     /**
@@ -103,18 +130,152 @@ public class OrderService {
         System.out.println("LOG: Order " + orderId + " return requested. Awaiting admin approval.");
     }
 
+    /**
+     * NEW: Finalizes a checkout exactly once per idempotency key, in one transaction:
+     * claims the key by inserting the order, converts the stock holds and bulk-clears the cart.
+     * A retry with the same key returns the order that was already created.
+     * The caller must flush the cached cart first ({@link CartService#flushCart(Long)}), outside this transaction.
+     * @throws DataIntegrityViolationException if a concurrent request claimed the same key first;
+     *         the caller should then look the order up with {@link #findByIdempotencyKey(String, Long)}.
+     * @throws IllegalStateException if the cart is empty or a line sold out.
+     */
+    @Transactional
+    public Order finalizeCheckout(Long userId, String idempotencyKey, String paymentMethod, String paymentIntentId) {
+        return finalizeCheckout(userId, idempotencyKey, paymentMethod, paymentIntentId, null);
+    }
+
+    /**
+     * NEW: Same as {@link #finalizeCheckout(Long, String, String, String)}, but only if the cart still adds up
+     * to the amount that was paid (smallest currency unit). Used when Stripe reports a payment for a cart the
+     * browser never confirmed, which may have changed since the PaymentIntent was created.
+     * @throws IllegalStateException also if the cart total differs from expectedAmountInCents.
+     */
+    @Transactional
+    public Order finalizeCheckout(Long userId, String idempotencyKey, String paymentMethod, String paymentIntentId,
+                                  Long expectedAmountInCents) {
+        Optional<Order> existingOrder = orderRepository.findByIdempotencyKeyAndUserId(idempotencyKey, userId);
+        if (existingOrder.isPresent()) {
+            return existingOrder.get();
+        }
+
+        // Pending cached changes were flushed by the caller before this transaction began
+        List<CartItem> cartItems = cartService.getStoredCartItems(userId);
+
+        // 1. Insert the order first: the unique key makes a concurrent duplicate wait here and fail
+        //    before it touches any stock (saveAndFlush so the violation surfaces now, not at commit).
+        Order order = buildOrderFromCart(cartItems);
+        if (expectedAmountInCents != null
+                && order.getTotalAmount().movePointRight(2).longValue() != expectedAmountInCents) {
+            throw new IllegalStateException("The cart total (" + order.getTotalAmount()
+                    + ") no longer matches the amount paid (" + BigDecimal.valueOf(expectedAmountInCents, 2) + ").");
+        }
+        order.setIdempotencyKey(idempotencyKey);
+        order.setPaymentMethod(paymentMethod);
+        order.setPaymentIntentId(paymentIntentId);
+        if (paymentIntentId != null) {
+            // Confirmed by the browser; Stripe's webhook reports the authoritative payment outcome
+            order.setPaymentStatus(Order.PaymentStatus.PENDING);
+        }
+        order = orderRepository.saveAndFlush(order);
+
+        // 2. Convert the stock holds placed on the payment page into real deductions
+        inventoryReservationService.commitReservations(userId, cartItems);
+
+        // 3. Clear the user's cart with one bulk statement
+        cartService.clearCart(userId);
+
+        return order;
+    }
+
+    /**
+     * NEW: Applies a payment status reported by a Stripe webhook to the order paid with the PaymentIntent.
+     * Statuses only move forward, so a late or replayed event can never undo a newer one.
+     * A payment that succeeds on an order that was already cancelled is refunded.
+     * @return false if no order exists (yet) for the PaymentIntent.
+     */
+    @Transactional
+    public boolean applyPaymentStatus(String paymentIntentId, Order.PaymentStatus newStatus) {
+        Optional<Order> orderOptional = orderRepository.findByPaymentIntentId(paymentIntentId);
+        if (orderOptional.isEmpty()) {
+            return false;
+        }
+
+        Order order = orderOptional.get();
+        Order.PaymentStatus current = order.getPaymentStatus();
+        if (current == null || newStatus.ordinal() > current.ordinal()) {
+            order.setPaymentStatus(newStatus);
+            System.out.println("LOG: Order " + order.getId() + " payment status " + current + " -> " + newStatus + ".");
+
+            // Cancelled before the payment settled and the provider-side cancel lost the race: refund it now
+            if (newStatus == Order.PaymentStatus.SUCCEEDED && (order.getStatus() == Order.OrderStatus.CANCELLED
+                    || order.getStatus() == Order.OrderStatus.RETURNED)) {
+                refundService.enqueueRefund(order, "Payment settled after cancellation");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * NEW: Records a card payment that cannot become an order (cart emptied, a line sold out, or the cart
+     * no longer matches the amount paid) as a cancelled order and queues the refund of the full amount.
+     * The PaymentIntent id is the idempotency key, so repeating this (or a late browser confirm) finds that order.
+     */
+    @Transactional
+    public Order refundUnfulfilledPayment(Long userId, String paymentIntentId, long amountInCents, String reason) {
+        Optional<Order> existingOrder = orderRepository.findByIdempotencyKeyAndUserId(paymentIntentId, userId);
+        if (existingOrder.isPresent()) {
+            return existingOrder.get();
+        }
+
+        Order order = new Order();
+        order.setUser(userService.getUserReference(userId));
+        order.setOrderDate(new Date());
+        order.setTotalAmount(BigDecimal.valueOf(amountInCents, 2));
+        order.setStatus(Order.OrderStatus.CANCELLED);
+        order.setOrderItemsSnapshot("Payment received but the order could not be placed: " + reason);
+        order.setIdempotencyKey(paymentIntentId);
+        order.setPaymentMethod("CARD");
+        order.setPaymentIntentId(paymentIntentId);
+        order.setPaymentStatus(Order.PaymentStatus.SUCCEEDED);
+        order = orderRepository.saveAndFlush(order);
+
+        // Nothing is sold, so the stock held for this checkout goes back on sale
+        inventoryReservationService.releaseReservations(userId);
+        refundService.enqueueRefund(order, "Paid order could not be fulfilled");
+        return order;
+    }
+
+    /**
+     * NEW: Looks up the order a user created for a checkout attempt.
+     */
+    public Optional<Order> findByIdempotencyKey(String idempotencyKey, Long userId) {
+        return orderRepository.findByIdempotencyKeyAndUserId(idempotencyKey, userId);
+    }
+
     @Transactional
     public Order createOrderFromCart(Long userId, List<CartItem> cartItems) {
+        return orderRepository.save(buildOrderFromCart(cartItems));
+    }
+
+    /**
+     * NEW: The order total of a cart in rupees (2 decimals). The amount charged through Stripe is derived
+     * from the same value, so a paid amount can be compared with the cart exactly.
+     */
+    public static BigDecimal totalOf(List<CartItem> cartItems) {
+        return cartItems.stream()
+                .map(item -> BigDecimal.valueOf(item.getTotalPrice()))
+                .reduce(BigDecimal.ZERO, BigDecimal::add)
+                .setScale(2, BigDecimal.ROUND_HALF_UP);
+    }
+
+    private Order buildOrderFromCart(List<CartItem> cartItems) {
         if (cartItems.isEmpty()) {
             throw new IllegalStateException("Cannot create an order from an empty cart.");
         }
 
         User user = cartItems.get(0).getUser();
 
-        BigDecimal totalAmount = cartItems.stream()
-                .map(item -> BigDecimal.valueOf(item.getTotalPrice()))
-                .reduce(BigDecimal.ZERO, BigDecimal::add)
-                .setScale(2, BigDecimal.ROUND_HALF_UP);
+        BigDecimal totalAmount = totalOf(cartItems);
 
         // Format: <QTY>x <NAME> [ID:<ID>] (₹<PRICE>); ...
         String orderItemsSnapshot = cartItems.stream()
@@ -135,7 +296,7 @@ public class OrderService {
         newOrder.setShippingAddressSnapshot(shippingAddressSnapshot);
         newOrder.setOrderItemsSnapshot(orderItemsSnapshot);
 
-        return orderRepository.save(newOrder);
+        return newOrder;
     }
 
     public void populateDummyOrders(User user) {
@@ -0,0 +1,31 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.User;
+import com.anvistudio.boutique.model.VerificationToken;
+import com.anvistudio.boutique.model.VerificationToken.TokenType;
+
+import java.util.Optional;
+
+/**
+ * Storage for the short-lived OTPs of registration, password reset and email change.
+ * A user has at most one OTP at a time; issuing a new one replaces the previous one.
+ * Implementations: InMemoryOtpStore (security.otp.store=memory, default; single node) and
+ * JpaOtpStore (security.otp.store=database) for deployments where a user may hit any of several nodes.
+ */
+public interface OtpStore {
+
+    /**
+     * Generates a new OTP for the user, replacing any previous one.
+     */
+    VerificationToken issue(User user, TokenType tokenType);
+
+    /**
+     * Returns the user's current OTP, which may already be expired (callers check isExpired()).
+     */
+    Optional<VerificationToken> find(Long userId);
+
+    /**
+     * Discards the user's OTP, e.g. after it was used.
+     */
+    void remove(Long userId);
+}
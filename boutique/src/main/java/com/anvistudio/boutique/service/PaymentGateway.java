@@ -0,0 +1,48 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.dto.PaymentIntentRequest;
+import com.anvistudio.boutique.dto.PaymentIntentResult;
+import com.anvistudio.boutique.dto.RefundResult;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous abstraction over the payment provider.
+ * Every call runs on the gateway's bounded executor (never on the request thread), has a deadline,
+ * and fails fast with {@link PaymentGatewayException} while the provider's circuit is open.
+ * Implementations: StripePaymentGateway (payment.gateway.provider=stripe, default) and
+ * FakePaymentGateway (payment.gateway.provider=fake) for offline load tests.
+ */
+public interface PaymentGateway {
+
+    /**
+     * Creates the provider-side customer for a user and returns its id.
+     */
+    CompletableFuture<String> createCustomer(Long userId, String email);
+
+    /**
+     * Creates a PaymentIntent. Retried with the request's idempotency key on transient failures.
+     */
+    CompletableFuture<PaymentIntentResult> createPaymentIntent(PaymentIntentRequest request);
+
+    /**
+     * Sets the amount of an open PaymentIntent (idempotent: the same absolute amount on every retry).
+     */
+    CompletableFuture<PaymentIntentResult> updatePaymentIntentAmount(String paymentIntentId, long amountInCents);
+
+    /**
+     * Cancels a PaymentIntent that has not succeeded yet, so it can no longer be charged.
+     * Fails (not transiently) if the PaymentIntent already succeeded or was canceled.
+     */
+    CompletableFuture<PaymentIntentResult> cancelPaymentIntent(String paymentIntentId);
+
+    /**
+     * NEW: Reads the live state of a PaymentIntent (e.g. "processing", "succeeded", "canceled").
+     */
+    CompletableFuture<PaymentIntentResult> retrievePaymentIntent(String paymentIntentId);
+
+    /**
+     * Refunds (part of) a PaymentIntent. Retried with the given idempotency key on transient failures.
+     */
+    CompletableFuture<RefundResult> createRefund(String paymentIntentId, long amountInCents, String idempotencyKey);
+}
@@ -0,0 +1,25 @@
+package com.anvistudio.boutique.service;
+
+/**
+ * Raised when a payment gateway call fails, times out, is rejected by the bulkhead
+ * or is short-circuited by the open circuit breaker.
+ */
+public class PaymentGatewayException extends RuntimeException {
+
+    // True for failures worth retrying later (timeouts, connection errors, 5xx, busy, circuit open)
+    private final boolean transientFailure;
+
+    public PaymentGatewayException(String message, boolean transientFailure) {
+        super(message);
+        this.transientFailure = transientFailure;
+    }
+
+    public PaymentGatewayException(String message, Throwable cause, boolean transientFailure) {
+        super(message, cause);
+        this.transientFailure = transientFailure;
+    }
+
+    public boolean isTransientFailure() {
+        return transientFailure;
+    }
+}
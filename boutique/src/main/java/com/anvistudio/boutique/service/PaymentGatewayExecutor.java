@@ -0,0 +1,288 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.config.WorkerThreads;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Runs payment provider calls off the request thread with:
+ * - a bulkhead: a fixed pool with a bounded queue; when both are full the call is rejected at once,
+ * - a deadline per attempt and an overall deadline per call,
+ * - retries with exponential backoff and full jitter (only for calls marked idempotent),
+ * - a circuit breaker (CLOSED / OPEN / HALF_OPEN) that fails fast while the provider is unhealthy.
+ * Only transient failures (timeouts, connection errors, 5xx) count against the breaker; a declined
+ * card is a healthy answer from the provider.
+ */
+@Component
+public class PaymentGatewayExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final CircuitBreaker circuitBreaker;
+
+    private final long callTimeoutMillis;
+    private final long totalTimeoutMillis;
+    private final int maxAttempts;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+
+    // Simple counters, logged when the breaker changes state
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder rejectedByBulkhead = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    public PaymentGatewayExecutor(@Value("${payment.gateway.pool-size:16}") int poolSize,
+                                  @Value("${payment.gateway.queue-capacity:32}") int queueCapacity,
+                                  @Value("${payment.gateway.call-timeout-ms:4000}") long callTimeoutMillis,
+                                  @Value("${payment.gateway.total-timeout-ms:10000}") long totalTimeoutMillis,
+                                  @Value("${payment.gateway.max-attempts:3}") int maxAttempts,
+                                  @Value("${payment.gateway.backoff-base-ms:200}") long backoffBaseMillis,
+                                  @Value("${payment.gateway.backoff-max-ms:2000}") long backoffMaxMillis,
+                                  @Value("${payment.gateway.breaker.failure-threshold:5}") int failureThreshold,
+                                  @Value("${payment.gateway.breaker.open-ms:30000}") long openMillis,
+                                  @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                WorkerThreads.factory("payment-gateway-", virtualThreads),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, openMillis);
+        this.callTimeoutMillis = callTimeoutMillis;
+        this.totalTimeoutMillis = totalTimeoutMillis;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.backoffMaxMillis = backoffMaxMillis;
+    }
+
+    /**
+     * Submits a provider call.
+     * @param operation Short name used in logs and error messages.
+     * @param idempotent Whether the call may be retried (it must carry an idempotency key or be naturally idempotent).
+     * @param isTransient Classifies provider exceptions that are worth retrying and count against the breaker.
+     * @return A future completed with the result or with a {@link PaymentGatewayException}.
+     */
+    public <T> CompletableFuture<T> execute(String operation, boolean idempotent, Callable<T> call,
+                                            Predicate<Throwable> isTransient) {
+        calls.increment();
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        if (!circuitBreaker.tryAcquirePermission()) {
+            shortCircuited.increment();
+            result.completeExceptionally(new PaymentGatewayException(
+                    "Payment provider is temporarily unavailable (" + operation + " short-circuited).", true));
+            return result;
+        }
+
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(totalTimeoutMillis);
+        attempt(operation, idempotent, call, isTransient, 1, deadlineNanos, result);
+
+        // Overall deadline, covering queueing, every attempt and the backoff pauses
+        return result.orTimeout(totalTimeoutMillis, TimeUnit.MILLISECONDS)
+                .exceptionallyCompose(error -> CompletableFuture.failedFuture(toGatewayException(operation, unwrap(error))));
+    }
+
+    /**
+     * Blocks the caller for the result of {@link #execute}. The wait is bounded by the call's overall deadline.
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentGatewayException("Interrupted while waiting for the payment provider.", e, true);
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof PaymentGatewayException gatewayException) {
+                throw gatewayException;
+            }
+            throw new PaymentGatewayException("Payment provider call failed: " + cause.getMessage(), cause, false);
+        }
+    }
+
+    private <T> void attempt(String operation, boolean idempotent, Callable<T> call, Predicate<Throwable> isTransient,
+                             int attemptNumber, long deadlineNanos, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return; // Overall deadline already expired
+        }
+
+        CompletableFuture<T> attemptFuture;
+        try {
+            attemptFuture = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return call.call();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            // Bulkhead full: fail fast instead of queueing request threads behind a slow provider.
+            // Says nothing about the provider's health, but a rejected probe must not leave the breaker HALF_OPEN.
+            rejectedByBulkhead.increment();
+            circuitBreaker.releasePermission();
+            result.completeExceptionally(new PaymentGatewayException(
+                    "Payment provider is busy, please try again in a moment.", e, true));
+            return;
+        }
+
+        attemptFuture.orTimeout(callTimeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, error) -> {
+            if (error == null) {
+                circuitBreaker.onSuccess();
+                result.complete(value);
+                return;
+            }
+
+            Throwable cause = unwrap(error);
+            boolean transientFailure = cause instanceof TimeoutException || isTransient.test(cause);
+            if (cause instanceof TimeoutException) {
+                timeouts.increment();
+            }
+            if (transientFailure) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess();
+            }
+
+            if (idempotent && transientFailure && attemptNumber < maxAttempts) {
+                long delayMillis = backoffWithJitter(attemptNumber);
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (TimeUnit.MILLISECONDS.toNanos(delayMillis) < remainingNanos && circuitBreaker.tryAcquirePermission()) {
+                    retries.increment();
+                    CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() ->
+                            attempt(operation, idempotent, call, isTransient, attemptNumber + 1, deadlineNanos, result));
+                    return;
+                }
+            }
+
+            result.completeExceptionally(cause instanceof PaymentGatewayException
+                    ? cause
+                    : new PaymentGatewayException(operation + " failed: " + describe(cause), cause, transientFailure));
+        });
+    }
+
+    /**
+     * Exponential backoff with full jitter: a random delay in [0, min(max, base * 2^(attempt-1))].
+     */
+    private long backoffWithJitter(int attemptNumber) {
+        long ceiling = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(attemptNumber - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private PaymentGatewayException toGatewayException(String operation, Throwable cause) {
+        if (cause instanceof PaymentGatewayException gatewayException) {
+            return gatewayException;
+        }
+        if (cause instanceof TimeoutException) {
+            timeouts.increment();
+            return new PaymentGatewayException("Payment provider did not answer in time (" + operation + ").", cause, true);
+        }
+        return new PaymentGatewayException(operation + " failed: " + describe(cause), cause, false);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static String describe(Throwable cause) {
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private void logState(String transition) {
+        System.out.println("PAYMENT GATEWAY: Circuit " + transition + " (calls=" + calls.sum()
+                + ", timeouts=" + timeouts.sum() + ", retries=" + retries.sum()
+                + ", bulkheadRejected=" + rejectedByBulkhead.sum() + ", shortCircuited=" + shortCircuited.sum() + ").");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Consecutive-failure circuit breaker. After the open period a single probe call is let
+     * through (HALF_OPEN); its outcome closes or re-opens the circuit.
+     */
+    private final class CircuitBreaker {
+
+        private enum State { CLOSED, OPEN, HALF_OPEN }
+
+        private final int failureThreshold;
+        private final long openMillis;
+        private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong openedAtMillis = new AtomicLong();
+
+        private CircuitBreaker(int failureThreshold, long openMillis) {
+            this.failureThreshold = Math.max(1, failureThreshold);
+            this.openMillis = openMillis;
+        }
+
+        boolean tryAcquirePermission() {
+            State current = state.get();
+            if (current == State.CLOSED) {
+                return true;
+            }
+            if (current == State.OPEN
+                    && System.currentTimeMillis() - openedAtMillis.get() >= openMillis
+                    && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                logState("HALF_OPEN, sending probe");
+                return true; // This caller is the probe
+            }
+            return false;
+        }
+
+        /**
+         * Gives back a permission whose call never reached the provider. If it was the HALF_OPEN probe,
+         * the circuit returns to OPEN with its original open time, so the next caller probes instead.
+         */
+        void releasePermission() {
+            state.compareAndSet(State.HALF_OPEN, State.OPEN);
+        }
+
+        void onSuccess() {
+            State current = state.get();
+            if (current == State.OPEN) {
+                return; // Late answer to a call started before the trip; only the probe may close the circuit
+            }
+            consecutiveFailures.set(0);
+            if (current == State.HALF_OPEN && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                logState("CLOSED");
+            }
+        }
+
+        void onFailure() {
+            if (state.get() == State.HALF_OPEN) {
+                trip();
+            } else if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                trip();
+            }
+        }
+
+        private void trip() {
+            openedAtMillis.set(System.currentTimeMillis());
+            if (state.getAndSet(State.OPEN) != State.OPEN) {
+                logState("OPEN");
+            }
+        }
+    }
+}
@@ -6,6 +6,8 @@ import com.anvistudio.boutique.repository.CartItemRepository;
 import com.anvistudio.boutique.repository.WishlistRepository;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import java.util.List;
 import java.util.Optional;
 import java.util.Comparator;
@@ -17,13 +19,18 @@ public class ProductService {
     private final CartItemRepository cartItemRepository;
     private final WishlistRepository wishlistRepository;
     private final NotificationService notificationService; // NEW INJECTION
+    private final HotInventoryService hotInventoryService;
+    private final CartCache cartCache;
 
     public ProductService(ProductRepository productRepository, CartItemRepository cartItemRepository,
-                          WishlistRepository wishlistRepository, NotificationService notificationService) { // NEW CONSTRUCTOR PARAMETER
+                          WishlistRepository wishlistRepository, NotificationService notificationService,
+                          HotInventoryService hotInventoryService, CartCache cartCache) { // NEW CONSTRUCTOR PARAMETER
         this.productRepository = productRepository;
         this.cartItemRepository = cartItemRepository;
         this.wishlistRepository = wishlistRepository;
         this.notificationService = notificationService; // <--- CRITICAL: Initialization was missing or incorrect previously
+        this.hotInventoryService = hotInventoryService;
+        this.cartCache = cartCache;
     }
 
     /**
@@ -63,17 +70,39 @@ public class ProductService {
     public Product saveProduct(Product product) {
         // 1. Check the previous state of the discount if updating an existing product
         boolean wasPreviouslyDiscounted = false;
+        int previousStock = 0;
         if (product.getId() != null) {
             Optional<Product> oldProductOptional = productRepository.findById(product.getId());
             if (oldProductOptional.isPresent()) {
                 // If old discount was > 0, set flag to true
                 wasPreviouslyDiscounted = oldProductOptional.get().getDiscountPercent() > 0;
+                // The edit form does not carry the hot-item flag; keep whatever the admin toggled
+                product.setHotInventory(oldProductOptional.get().getHotInventory());
+                // Read before the save: merging the edit updates the managed instance
+                previousStock = oldProductOptional.get().getStockQuantity();
             }
         }
 
         // 2. Save the product first to commit the new discount/clearance status
         Product savedProduct = productRepository.save(product);
 
+        // Apply the stock change to the in-memory counter once the edit is committed
+        if (Boolean.TRUE.equals(savedProduct.getHotInventory())) {
+            Long productId = savedProduct.getId();
+            long stockDelta = (long) savedProduct.getStockQuantity() - previousStock;
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    hotInventoryService.resync(productId, stockDelta);
+                }
+            });
+        }
+
+        // Cached carts holding this product would keep showing the old price/name until evicted
+        if (product.getId() != null) {
+            evictCachedCartsAfterCommit(savedProduct.getId());
+        }
+
         // 3. Notification Logic:
         // Trigger notification ONLY if the product is currently discounted (> 0%)
         // AND it was *NOT* previously discounted. This prevents spamming on every edit.
@@ -202,5 +231,16 @@ public class ProductService {
 
         // 3. Delete the product itself
         productRepository.deleteById(id);
+
+        evictCachedCartsAfterCommit(id);
+    }
+
+    private void evictCachedCartsAfterCommit(Long productId) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cartCache.evictProduct(productId);
+            }
+        });
     }
 }
\ No newline at end of file
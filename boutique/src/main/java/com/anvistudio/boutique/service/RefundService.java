@@ -0,0 +1,293 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.config.WorkerThreads;
+import com.anvistudio.boutique.dto.RefundResult;
+import com.anvistudio.boutique.model.Order;
+import com.anvistudio.boutique.model.RefundJob;
+import com.anvistudio.boutique.model.RefundJob.RefundStatus;
+import com.anvistudio.boutique.repository.OrderRepository;
+import com.anvistudio.boutique.repository.RefundJobRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable, asynchronous refund processing.
+ * Cancellations and approved returns enqueue a refund_jobs row in the same transaction as the
+ * status change; a small worker pool claims due jobs and calls the payment gateway with a
+ * per-order idempotency key, retrying transient failures with backoff. Progress is mirrored
+ * on the order's paymentStatus (REFUND_PENDING -> REFUNDED / REFUND_FAILED).
+ */
+@Service
+public class RefundService {
+
+    private final RefundJobRepository refundJobRepository;
+    private final OrderRepository orderRepository;
+    private final PaymentGateway paymentGateway;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor workers;
+
+    @Value("${refund.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${refund.lease-seconds:120}")
+    private long leaseSeconds;
+
+    @Value("${refund.backoff-base-ms:5000}")
+    private long backoffBaseMillis;
+
+    @Value("${refund.backoff-max-ms:600000}")
+    private long backoffMaxMillis;
+
+    public RefundService(RefundJobRepository refundJobRepository, OrderRepository orderRepository,
+                         PaymentGateway paymentGateway, TransactionTemplate transactionTemplate,
+                         @Value("${refund.workers:4}") int workerCount,
+                         @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.refundJobRepository = refundJobRepository;
+        this.orderRepository = orderRepository;
+        this.paymentGateway = paymentGateway;
+        this.transactionTemplate = transactionTemplate;
+
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(workerCount),
+                WorkerThreads.factory("refund-worker-", virtualThreads),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Enqueues the refund of a card-paid order. Must be called inside the transaction that changes
+     * the order's status, so the job exists if and only if the status change commits.
+     * COD orders have nothing to refund through the gateway and are skipped.
+     * MODIFIED: Only a SUCCEEDED payment is refunded. A payment not known to have settled is canceled at
+     * the provider instead; if it was in fact captured, the refund is queued once the provider says so
+     * (see cancelPaymentAfterCommit and OrderService#applyPaymentStatus).
+     * @return true if a refund job was enqueued.
+     */
+    @Transactional
+    public boolean enqueueRefund(Order order, String reason) {
+        if (order.getPaymentIntentId() == null) {
+            System.out.println("LOG: Order " + order.getId() + " was not paid by card; no gateway refund needed.");
+            return false;
+        }
+
+        Order.PaymentStatus paymentStatus = order.getPaymentStatus();
+        if (paymentStatus != Order.PaymentStatus.SUCCEEDED) {
+            if (paymentStatus == null || paymentStatus == Order.PaymentStatus.PENDING
+                    || paymentStatus == Order.PaymentStatus.PROCESSING) {
+                cancelPaymentAfterCommit(order);
+            } else {
+                // FAILED or CANCELED: nothing was charged. REFUND_*: a refund already exists.
+                System.out.println("LOG: Order " + order.getId() + " payment is " + paymentStatus + "; no refund queued.");
+            }
+            return false;
+        }
+
+        RefundJob job = new RefundJob();
+        job.setOrder(order);
+        job.setPaymentIntentId(order.getPaymentIntentId());
+        job.setAmountInCents(order.getTotalAmount().multiply(BigDecimal.valueOf(100)).longValue());
+        job.setReason(reason);
+        job.setIdempotencyKey("refund-order-" + order.getId());
+        refundJobRepository.save(job);
+
+        order.setPaymentStatus(Order.PaymentStatus.REFUND_PENDING);
+        orderRepository.save(order);
+
+        // Start the refund right after commit instead of waiting for the next poll
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    // Off the request thread: the committed transaction is still bound to it here.
+                    // If this fails, the job is committed and the scheduled poll picks it up.
+                    CompletableFuture.runAsync(RefundService.this::dispatchDueRefunds);
+                }
+            });
+        }
+
+        System.out.println("LOG: Refund of " + order.getTotalAmount() + " queued for Order " + order.getId() + ".");
+        return true;
+    }
+
+    /**
+     * Cancels the unsettled PaymentIntent of a cancelled order once the cancellation has committed.
+     * MODIFIED: Our PENDING only means no webhook has arrived (and none will if webhooks are not
+     * configured); the payment may well have been captured. A rejected cancel is therefore followed by
+     * a look at the intent's live status, and a payment that succeeded is refunded.
+     */
+    private void cancelPaymentAfterCommit(Order order) {
+        Long orderId = order.getId();
+        String paymentIntentId = order.getPaymentIntentId();
+        Runnable cancel = () -> paymentGateway.cancelPaymentIntent(paymentIntentId)
+                .exceptionallyCompose(cancelError -> {
+                    System.out.println("LOG: Could not cancel PaymentIntent " + paymentIntentId + " of Order " + orderId
+                            + " (" + cancelError.getMessage() + "); checking whether it was paid.");
+                    return paymentGateway.retrievePaymentIntent(paymentIntentId);
+                })
+                // Off the gateway's threads: a refund is enqueued in a database transaction
+                .whenCompleteAsync((intent, error) -> {
+                    if (error != null) {
+                        System.err.println("STRIPE ERROR: PaymentIntent " + paymentIntentId + " of cancelled Order " + orderId
+                                + " could be neither canceled nor checked (" + error.getMessage() + "). Check it manually; it may need a refund.");
+                    } else if ("succeeded".equals(intent.status())) {
+                        try {
+                            refundSettledPayment(orderId);
+                        } catch (RuntimeException e) {
+                            System.err.println("STRIPE ERROR: PaymentIntent " + paymentIntentId + " of cancelled Order " + orderId
+                                    + " was paid but its refund could not be queued (" + e.getMessage() + "). Refund it manually.");
+                        }
+                    } else {
+                        System.out.println("LOG: PaymentIntent " + paymentIntentId + " of Order " + orderId + " is "
+                                + intent.status() + " after the cancellation.");
+                    }
+                });
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cancel.run();
+                }
+            });
+        } else {
+            cancel.run();
+        }
+        System.out.println("LOG: Order " + orderId + " payment is not known to have settled; canceling it instead of refunding.");
+    }
+
+    /**
+     * Queues the refund of a cancelled order whose payment turned out to have succeeded.
+     * Skipped if a refund exists already (e.g. queued by the SUCCEEDED webhook meanwhile).
+     */
+    private void refundSettledPayment(Long orderId) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            Order order = orderRepository.findById(orderId).orElseThrow();
+            if (order.getPaymentStatus() != null && order.getPaymentStatus().ordinal() > Order.PaymentStatus.SUCCEEDED.ordinal()) {
+                return;
+            }
+            order.setPaymentStatus(Order.PaymentStatus.SUCCEEDED);
+            enqueueRefund(order, "Payment settled before the cancellation reached the provider");
+        });
+    }
+
+    /**
+     * Claims as many due jobs as there are idle workers and hands them to the pool.
+     * Also runs on a fixed delay, which picks up retries and jobs enqueued on other nodes.
+     */
+    @Scheduled(fixedDelayString = "${refund.poll-interval-ms:5000}")
+    public void dispatchDueRefunds() {
+        Date now = new Date();
+        int reclaimed = refundJobRepository.reclaimExpiredLeases(now);
+        if (reclaimed > 0) {
+            System.out.println("LOG: Reclaimed " + reclaimed + " refund job(s) with an expired lease.");
+        }
+
+        // Claim only what idle workers can start now; the rest stays PENDING for other nodes
+        int capacity = workers.getMaximumPoolSize() - workers.getActiveCount() - workers.getQueue().size();
+        if (capacity <= 0) {
+            return;
+        }
+
+        String claimToken = UUID.randomUUID().toString();
+        Date lockedUntil = new Date(now.getTime() + TimeUnit.SECONDS.toMillis(leaseSeconds));
+        if (refundJobRepository.claimDueJobs(claimToken, now, lockedUntil, capacity) == 0) {
+            return;
+        }
+
+        List<RefundJob> claimed = refundJobRepository.findByClaimToken(claimToken);
+        for (RefundJob job : claimed) {
+            try {
+                workers.execute(() -> process(job.getId()));
+            } catch (RejectedExecutionException e) {
+                // Pool filled up meanwhile; the lease expires and the job is reclaimed
+                break;
+            }
+        }
+    }
+
+    /**
+     * Executes one claimed job: gateway call outside any transaction, then a short transaction
+     * to record the outcome on the job and the order.
+     */
+    private void process(Long jobId) {
+        RefundJob job = refundJobRepository.findById(jobId).orElse(null);
+        if (job == null || job.getStatus() != RefundStatus.IN_PROGRESS) {
+            return;
+        }
+
+        try {
+            RefundResult result = PaymentGatewayExecutor.await(
+                    paymentGateway.createRefund(job.getPaymentIntentId(), job.getAmountInCents(), job.getIdempotencyKey()));
+            recordOutcome(jobId, RefundStatus.SUCCEEDED, result.refundId(), null);
+            System.out.println("LOG: Refund " + result.refundId() + " created for refund job " + jobId + ".");
+        } catch (PaymentGatewayException e) {
+            boolean retryable = e.isTransientFailure() && job.getAttempts() + 1 < maxAttempts;
+            recordOutcome(jobId, retryable ? RefundStatus.PENDING : RefundStatus.FAILED, null, e.getMessage());
+            if (!retryable) {
+                System.err.println("LOG: Refund job " + jobId + " FAILED and needs manual follow-up: " + e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            // Unexpected (bad data, a mapping error): retried like a transient failure, but not forever
+            boolean retryable = job.getAttempts() + 1 < maxAttempts;
+            recordOutcome(jobId, retryable ? RefundStatus.PENDING : RefundStatus.FAILED, null, e.getMessage());
+            if (!retryable) {
+                System.err.println("LOG: Refund job " + jobId + " FAILED and needs manual follow-up: " + e.getMessage());
+            }
+        }
+    }
+
+    private void recordOutcome(Long jobId, RefundStatus status, String providerRefundId, String error) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            RefundJob job = refundJobRepository.findById(jobId).orElseThrow();
+            job.setAttempts(job.getAttempts() + 1);
+            job.setStatus(status);
+            job.setClaimToken(null);
+            job.setLockedUntil(null);
+            job.setLastError(error != null && error.length() > 500 ? error.substring(0, 500) : error);
+
+            Order order = job.getOrder();
+            switch (status) {
+                case SUCCEEDED -> {
+                    job.setProviderRefundId(providerRefundId);
+                    job.setCompletedAt(new Date());
+                    order.setPaymentStatus(Order.PaymentStatus.REFUNDED);
+                }
+                case FAILED -> {
+                    job.setCompletedAt(new Date());
+                    order.setPaymentStatus(Order.PaymentStatus.REFUND_FAILED);
+                }
+                default -> job.setNextAttemptAt(new Date(System.currentTimeMillis() + backoffWithJitter(job.getAttempts())));
+            }
+        });
+    }
+
+    /**
+     * Exponential backoff with full jitter, capped at refund.backoff-max-ms.
+     */
+    private long backoffWithJitter(int attempts) {
+        long ceiling = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(attempts - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // In-flight jobs that do not finish are reclaimed from their lease on the next start
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,133 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.dto.PaymentIntentRequest;
+import com.anvistudio.boutique.dto.PaymentIntentResult;
+import com.anvistudio.boutique.dto.RefundResult;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Customer;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.Refund;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.CustomerCreateParams;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.PaymentIntentUpdateParams;
+import com.stripe.param.RefundCreateParams;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stripe implementation of {@link PaymentGateway}. Each SDK call runs on the {@link PaymentGatewayExecutor}.
+ * SDK-level network retries are disabled in StripeConfig; retries happen here with idempotency keys.
+ */
+@Service
+@ConditionalOnProperty(name = "payment.gateway.provider", havingValue = "stripe", matchIfMissing = true)
+public class StripePaymentGateway implements PaymentGateway {
+
+    private final PaymentGatewayExecutor gatewayExecutor;
+
+    public StripePaymentGateway(PaymentGatewayExecutor gatewayExecutor) {
+        this.gatewayExecutor = gatewayExecutor;
+    }
+
+    @Override
+    public CompletableFuture<String> createCustomer(Long userId, String email) {
+        CustomerCreateParams params = CustomerCreateParams.builder()
+                .setEmail(email)
+                .setName(email)
+                .putMetadata("user_id", userId.toString())
+                .build();
+        // Idempotency key: retries and two tabs opening checkout at once get the same Stripe customer back
+        RequestOptions options = RequestOptions.builder()
+                .setIdempotencyKey("customer-create-" + userId)
+                .build();
+
+        return gatewayExecutor.execute("customer.create", true,
+                () -> Customer.create(params, options).getId(), StripePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<PaymentIntentResult> createPaymentIntent(PaymentIntentRequest request) {
+        PaymentIntentCreateParams params = PaymentIntentCreateParams.builder()
+                .setAmount(request.amountInCents())
+                .setCurrency(request.currency())
+                .setCustomer(request.customerId())
+                .setSetupFutureUsage(PaymentIntentCreateParams.SetupFutureUsage.ON_SESSION) // Saves card for future purchases
+                .setDescription("Anvi Studio Order for " + request.receiptEmail())
+                .setReceiptEmail(request.receiptEmail())
+                .putMetadata("cart_user_id", request.userId().toString()) // Reference to your internal system
+                .setAutomaticPaymentMethods(PaymentIntentCreateParams.AutomaticPaymentMethods.builder()
+                        .setEnabled(true) // Enables card, UPI, etc., depending on Stripe settings
+                        .build())
+                .build();
+        RequestOptions options = RequestOptions.builder()
+                .setIdempotencyKey(request.idempotencyKey())
+                .build();
+
+        return gatewayExecutor.execute("payment_intent.create", true,
+                () -> toResult(PaymentIntent.create(params, options)), StripePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<PaymentIntentResult> updatePaymentIntentAmount(String paymentIntentId, long amountInCents) {
+        PaymentIntentUpdateParams params = PaymentIntentUpdateParams.builder()
+                .setAmount(amountInCents)
+                .build();
+
+        return gatewayExecutor.execute("payment_intent.update", true, () -> {
+            PaymentIntent existing = new PaymentIntent();
+            existing.setId(paymentIntentId);
+            return toResult(existing.update(params));
+        }, StripePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<PaymentIntentResult> cancelPaymentIntent(String paymentIntentId) {
+        return gatewayExecutor.execute("payment_intent.cancel", true, () -> {
+            PaymentIntent existing = new PaymentIntent();
+            existing.setId(paymentIntentId);
+            return toResult(existing.cancel());
+        }, StripePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<PaymentIntentResult> retrievePaymentIntent(String paymentIntentId) {
+        return gatewayExecutor.execute("payment_intent.retrieve", true,
+                () -> toResult(PaymentIntent.retrieve(paymentIntentId)), StripePaymentGateway::isTransient);
+    }
+
+    @Override
+    public CompletableFuture<RefundResult> createRefund(String paymentIntentId, long amountInCents, String idempotencyKey) {
+        RefundCreateParams params = RefundCreateParams.builder()
+                .setPaymentIntent(paymentIntentId)
+                .setAmount(amountInCents)
+                .build();
+        RequestOptions options = RequestOptions.builder()
+                .setIdempotencyKey(idempotencyKey)
+                .build();
+
+        return gatewayExecutor.execute("refund.create", true, () -> {
+            Refund refund = Refund.create(params, options);
+            return new RefundResult(refund.getId(), refund.getStatus());
+        }, StripePaymentGateway::isTransient);
+    }
+
+    private static PaymentIntentResult toResult(PaymentIntent paymentIntent) {
+        return new PaymentIntentResult(paymentIntent.getId(), paymentIntent.getClientSecret(), paymentIntent.getStatus());
+    }
+
+    /**
+     * Network problems, rate limiting and Stripe-side 5xx errors are transient; card and request errors are not.
+     */
+    static boolean isTransient(Throwable error) {
+        if (error instanceof ApiConnectionException || error instanceof RateLimitException) {
+            return true;
+        }
+        return error instanceof StripeException stripeException
+                && stripeException.getStatusCode() != null
+                && stripeException.getStatusCode() >= 500;
+    }
+}
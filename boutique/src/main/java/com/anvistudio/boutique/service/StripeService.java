@@ -1,28 +1,39 @@
 package com.anvistudio.boutique.service;
 
+import com.anvistudio.boutique.dto.PaymentIntentRequest;
+import com.anvistudio.boutique.dto.PaymentIntentResult;
 import com.anvistudio.boutique.model.CartItem;
-import com.anvistudio.boutique.model.User;
-import com.stripe.exception.StripeException;
-import com.stripe.model.Customer;
-import com.stripe.model.PaymentIntent;
-import com.stripe.param.CustomerCreateParams;
-import com.stripe.param.PaymentIntentCreateParams;
+import com.anvistudio.boutique.repository.OrderRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Service to interface with the Stripe API for custom Payment Element integration.
  * This uses Payment Intents instead of Checkout Sessions (which were used previously).
+ * MODIFIED: All provider calls go through the asynchronous {@link PaymentGateway} (deadlines, bulkhead,
+ * retries, circuit breaker); this service only waits for the bounded result.
  */
 @Service
 public class StripeService {
 
-    private final CartService cartService;
     private final UserService userService;
+    private final PaymentGateway paymentGateway;
+    private final OrderRepository orderRepository;
+
+    // NEW: userId -> open Payment Intent, so reloading the payment page makes no Stripe call
+    private final ConcurrentMap<Long, CachedPaymentIntent> paymentIntentCache = new ConcurrentHashMap<>();
 
     @Value("${stripe.currency}")
     private String currency;
@@ -33,9 +44,14 @@ public class StripeService {
     @Value("${app.base.url}")
     private String appBaseUrl;
 
-    public StripeService(CartService cartService, UserService userService) {
-        this.cartService = cartService;
+    private final long paymentIntentTtlMillis;
+
+    public StripeService(UserService userService, PaymentGateway paymentGateway, OrderRepository orderRepository,
+                         @Value("${stripe.payment-intent.cache-ttl-minutes:30}") long paymentIntentTtlMinutes) {
         this.userService = userService;
+        this.paymentGateway = paymentGateway;
+        this.orderRepository = orderRepository;
+        this.paymentIntentTtlMillis = TimeUnit.MINUTES.toMillis(paymentIntentTtlMinutes);
     }
 
     public String getPublishableKey() {
@@ -58,60 +74,109 @@ public class StripeService {
     /**
      * NEW: Creates a Payment Intent and returns the client secret for the frontend Payment Element.
      * This replaces the old createCheckoutSession method.
-     * * @param username The authenticated user's username (email).
+     * MODIFIED: Reuses the user's open Payment Intent while the cart content is unchanged (no outbound call),
+     * and only updates its amount when the cart changed. The caller passes the cart it already loaded.
+     * MODIFIED: Takes the user id and email from the authenticated principal instead of a loaded User.
+     * MODIFIED: A cached intent that an order was already placed with is dropped instead of reused.
+     * * @param userId The authenticated user's id.
+     * @param email The authenticated user's email (username), sent to Stripe when the customer is created.
+     * @param cartItems The user's current cart lines.
      * @return The client secret string.
-     * @throws StripeException If the Stripe API call fails.
+     * @throws PaymentGatewayException If the provider call fails, times out or is short-circuited.
      */
-    public String createPaymentIntent(String username) throws StripeException {
-        User user = userService.findUserByUsername(username)
-                .orElseThrow(() -> new IllegalArgumentException("User not found: " + username));
-
-        Long userId = user.getId();
-        List<CartItem> cartItems = cartService.getCartItems(userId);
-
+    public String createPaymentIntent(Long userId, String email, List<CartItem> cartItems) {
         if (cartItems.isEmpty()) {
             throw new IllegalStateException("Cannot create a payment intent for an empty cart.");
         }
 
-        // Calculate total amount in smallest unit (e.g., paise)
-        Long amountInCents = BigDecimal.valueOf(cartService.getCartTotal(userId))
-                .multiply(BigDecimal.valueOf(100))
-                .longValue();
-
-        // 1. Create or retrieve Stripe Customer ID
-        // NOTE: This assumes we successfully create a customer every time, which is fine for test mode.
-        String customerId = getOrCreateStripeCustomer(user.getUsername(), user.getUsername()).getId();
-
-        // 2. Build the Payment Intent Parameters
-        PaymentIntentCreateParams params = PaymentIntentCreateParams.builder()
-                .setAmount(amountInCents)
-                .setCurrency(currency)
-                .setCustomer(customerId)
-                .setSetupFutureUsage(PaymentIntentCreateParams.SetupFutureUsage.ON_SESSION) // Saves card for future purchases
-                // REMOVED: .addPaymentMethodType("card") - This conflicts with automatic methods
-                .setDescription("Anvi Studio Order for " + user.getUsername())
-                .setReceiptEmail(user.getUsername())
-                .putMetadata("cart_user_id", userId.toString()) // Reference to your internal system
-                .setAutomaticPaymentMethods(PaymentIntentCreateParams.AutomaticPaymentMethods.builder()
-                        .setEnabled(true) // Enables card, UPI, etc., depending on Stripe settings
-                        .build())
-                .build();
-
-        // 3. Create the Payment Intent
-        PaymentIntent paymentIntent = PaymentIntent.create(params);
-        return paymentIntent.getClientSecret();
+        // Calculate total amount in smallest unit (e.g., paise), exactly as the order total will be
+        Long amountInCents = OrderService.totalOf(cartItems).movePointRight(2).longValueExact();
+        String cartHash = hashCart(cartItems, amountInCents);
+
+        // 1. Reload of the payment page with the same cart: reuse the intent as-is
+        CachedPaymentIntent cached = paymentIntentCache.get(userId);
+        if (cached != null && (cached.isExpired(paymentIntentTtlMillis)
+                || orderRepository.existsByPaymentIntentId(cached.paymentIntentId()))) {
+            // Expired, or already paid for an order (e.g. finalized on another node): never charge it again
+            paymentIntentCache.remove(userId, cached);
+            cached = null;
+        }
+        if (cached != null && cached.cartHash().equals(cartHash)) {
+            return cached.clientSecret();
+        }
+
+        // 2. Cart changed: update the amount of the existing intent instead of creating another one
+        if (cached != null) {
+            try {
+                PaymentIntentResult updated = PaymentGatewayExecutor.await(
+                        paymentGateway.updatePaymentIntentAmount(cached.paymentIntentId(), amountInCents));
+                paymentIntentCache.put(userId, new CachedPaymentIntent(updated.paymentIntentId(), updated.clientSecret(), cartHash, System.currentTimeMillis()));
+                return updated.clientSecret();
+            } catch (PaymentGatewayException e) {
+                if (e.isTransientFailure()) {
+                    throw e; // Provider unhealthy: creating another intent would fail the same way
+                }
+                // The intent can no longer be modified (e.g., already succeeded or canceled); start a new one
+                System.out.println("STRIPE INFO: Could not update PaymentIntent " + cached.paymentIntentId() + " (" + e.getMessage() + "), creating a new one.");
+                paymentIntentCache.remove(userId, cached);
+            }
+        }
+
+        // 3. Reuse the stored Stripe Customer, creating it only on the user's first checkout
+        String customerId = getOrCreateStripeCustomer(userId, email);
+
+        // 4. Create the Payment Intent (one idempotency key shared by all retries of this create)
+        PaymentIntentRequest request = new PaymentIntentRequest(userId, customerId, amountInCents, currency,
+                email, "payment-intent-create-" + UUID.randomUUID());
+        PaymentIntentResult paymentIntent = PaymentGatewayExecutor.await(paymentGateway.createPaymentIntent(request));
+        paymentIntentCache.put(userId, new CachedPaymentIntent(paymentIntent.paymentIntentId(), paymentIntent.clientSecret(), cartHash, System.currentTimeMillis()));
+        return paymentIntent.clientSecret();
+    }
+
+    /**
+     * NEW: Forgets the user's open Payment Intent once the order is finalized, so the next checkout starts a fresh one.
+     */
+    public void evictPaymentIntent(Long userId) {
+        paymentIntentCache.remove(userId);
+    }
+
+    /**
+     * Helper to get the user's Stripe Customer ID, creating the customer once if none is stored.
+     * MODIFIED: The ID is persisted on the User; Customer.create is no longer called on every checkout.
+     * Only the stored id column is read, and only when a new Payment Intent is needed.
+     */
+    private String getOrCreateStripeCustomer(Long userId, String email) {
+        Optional<String> storedCustomerId = userService.findStripeCustomerId(userId);
+        if (storedCustomerId.isPresent()) {
+            return storedCustomerId.get();
+        }
+
+        String createdCustomerId = PaymentGatewayExecutor.await(paymentGateway.createCustomer(userId, email));
+        return userService.assignStripeCustomerId(userId, createdCustomerId);
     }
 
     /**
-     * Helper to get a Stripe Customer or create one if not found.
-     * In a production app, the Customer ID would be stored on your local User model.
+     * SHA-256 over the cart lines (product, quantity, line price) and the total, independent of line order.
      */
-    private Customer getOrCreateStripeCustomer(String email, String name) throws StripeException {
-        // Simple search by email. In a real app, use the user's saved Stripe Customer ID.
-        CustomerCreateParams params = CustomerCreateParams.builder()
-                .setEmail(email)
-                .setName(name)
-                .build();
-        return Customer.create(params);
+    private String hashCart(List<CartItem> cartItems, long amountInCents) {
+        String canonicalCart = cartItems.stream()
+                .map(item -> item.getProduct().getId() + ":" + item.getQuantity() + ":" + item.getTotalPrice())
+                .sorted()
+                .collect(Collectors.joining("|")) + "|total:" + amountInCents + "|" + currency;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonicalCart.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    /**
+     * The open Payment Intent of a user and the cart content it was created for.
+     */
+    private record CachedPaymentIntent(String paymentIntentId, String clientSecret, String cartHash, long createdAtMillis) {
+        boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - createdAtMillis > ttlMillis;
+        }
     }
-}
\ No newline at end of file
+}
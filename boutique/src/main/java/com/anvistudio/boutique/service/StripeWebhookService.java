@@ -0,0 +1,303 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.Order;
+import com.anvistudio.boutique.model.StripeWebhookEvent;
+import com.anvistudio.boutique.model.StripeWebhookEvent.EventStatus;
+import com.anvistudio.boutique.repository.StripeWebhookEventRepository;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.net.Webhook;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Server-to-server payment confirmation via Stripe webhooks, split in two halves:
+ * - ingest: verify the signature and append to the stripe_webhook_events inbox (one INSERT IGNORE),
+ *   so the endpoint acknowledges in milliseconds even during Stripe retry storms;
+ * - consume: a scheduled batch job applies pending events, in order per PaymentIntent.
+ * Dedupe is by Stripe event id (unique key), and applying an event is idempotent as well.
+ */
+@Service
+public class StripeWebhookService {
+
+    /**
+     * Outcome of an ingest call, mapped to an HTTP status by the controller.
+     */
+    public enum IngestResult { ACCEPTED, DUPLICATE, INVALID_SIGNATURE, NOT_CONFIGURED }
+
+    private static final String SUCCEEDED_EVENT = "payment_intent.succeeded";
+
+    private final StripeWebhookEventRepository eventRepository;
+    private final OrderService orderService;
+    private final CartService cartService;
+    private final StripeService stripeService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${stripe.webhook.secret:}")
+    private String webhookSecret;
+
+    @Value("${stripe.webhook.tolerance-seconds:300}")
+    private long toleranceSeconds;
+
+    @Value("${stripe.webhook.batch-size:200}")
+    private int batchSize;
+
+    @Value("${stripe.webhook.max-attempts:10}")
+    private int maxAttempts;
+
+    public StripeWebhookService(StripeWebhookEventRepository eventRepository, OrderService orderService,
+                                CartService cartService, StripeService stripeService,
+                                TransactionTemplate transactionTemplate) {
+        this.eventRepository = eventRepository;
+        this.orderService = orderService;
+        this.cartService = cartService;
+        this.stripeService = stripeService;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Verifies and appends one webhook delivery. Does no order work; that is left to the consumer.
+     */
+    public IngestResult ingest(String payload, String signatureHeader) {
+        if (webhookSecret == null || webhookSecret.isBlank()) {
+            System.err.println("STRIPE ERROR: Webhook received but stripe.webhook.secret is not configured.");
+            return IngestResult.NOT_CONFIGURED;
+        }
+
+        try {
+            Webhook.Signature.verifyHeader(payload, signatureHeader, webhookSecret, toleranceSeconds);
+        } catch (SignatureVerificationException e) {
+            return IngestResult.INVALID_SIGNATURE;
+        }
+
+        // Extract only the few fields needed for routing; the full payload is kept for the consumer
+        JsonObject event = JsonParser.parseString(payload).getAsJsonObject();
+        String eventId = event.get("id").getAsString();
+        String eventType = event.get("type").getAsString();
+        long created = event.has("created") ? event.get("created").getAsLong() : 0L;
+        String paymentIntentId = extractPaymentIntentId(event);
+
+        int inserted = eventRepository.insertIgnore(eventId, eventType, paymentIntentId, created, payload, new Date());
+        return inserted == 1 ? IngestResult.ACCEPTED : IngestResult.DUPLICATE;
+    }
+
+    /**
+     * Consumer: applies pending events in batches. Events of one PaymentIntent are applied in
+     * Stripe creation order; if one fails, the later events of the same PaymentIntent wait for
+     * the next run so they are never applied out of order.
+     * MODIFIED: A failure only holds back its own PaymentIntent; the run keeps draining the rest of the queue.
+     */
+    @Scheduled(fixedDelayString = "${stripe.webhook.consumer-interval-ms:1000}")
+    public void processPendingEvents() {
+        // PaymentIntents with a failed event in this run; their later events are left PENDING
+        Set<String> blocked = new HashSet<>();
+        long afterId = 0L;
+        List<StripeWebhookEvent> batch;
+        do {
+            batch = eventRepository.findPendingBatch(afterId, batchSize);
+            if (batch.isEmpty()) {
+                return;
+            }
+            afterId = batch.get(batch.size() - 1).getId();
+
+            // Group per PaymentIntent, keeping arrival order between groups
+            Map<String, List<StripeWebhookEvent>> byPaymentIntent = new LinkedHashMap<>();
+            for (StripeWebhookEvent event : batch) {
+                String key = event.getPaymentIntentId() != null ? event.getPaymentIntentId() : "event:" + event.getEventId();
+                byPaymentIntent.computeIfAbsent(key, k -> new ArrayList<>()).add(event);
+            }
+
+            for (Map.Entry<String, List<StripeWebhookEvent>> group : byPaymentIntent.entrySet()) {
+                if (blocked.contains(group.getKey())) {
+                    continue;
+                }
+                List<StripeWebhookEvent> events = group.getValue();
+                events.sort(Comparator.comparing(StripeWebhookEvent::getStripeCreated)
+                        .thenComparing(StripeWebhookEvent::getId));
+                for (StripeWebhookEvent event : events) {
+                    if (!processOne(event)) {
+                        blocked.add(group.getKey()); // Keep per-PaymentIntent order: retry this one first next run
+                        break;
+                    }
+                }
+            }
+        } while (batch.size() == batchSize);
+    }
+
+    /**
+     * Applies one event in its own short transaction and records the outcome.
+     * MODIFIED: A payment that can never become an order is refunded right away instead of being retried.
+     * @return false if the event failed and should be retried.
+     */
+    private boolean processOne(StripeWebhookEvent event) {
+        try {
+            if (SUCCEEDED_EVENT.equals(event.getEventType())) {
+                // A server-side finalize reads the cart inside the transaction; write cached changes first
+                Long cartUserId = extractCartUserId(event.getPayload());
+                if (cartUserId != null) {
+                    cartService.flushCart(cartUserId);
+                }
+            }
+
+            EventStatus outcome;
+            String note = null;
+            try {
+                outcome = transactionTemplate.execute(status -> apply(event));
+            } catch (UnfulfillablePaymentException e) {
+                outcome = refundUnfulfillable(event, e);
+                note = e.getMessage();
+            }
+            event.setStatus(outcome);
+            event.setProcessedAt(new Date());
+            event.setAttempts(event.getAttempts() + 1);
+            event.setLastError(truncate(note));
+            eventRepository.save(event);
+            return true;
+        } catch (Exception e) {
+            event.setAttempts(event.getAttempts() + 1);
+            event.setLastError(truncate(e.getMessage()));
+            if (event.getAttempts() >= maxAttempts) {
+                event.setStatus(EventStatus.FAILED);
+                System.err.println("STRIPE ERROR: Giving up on webhook event " + event.getEventId() + ": " + e.getMessage());
+            }
+            eventRepository.save(event);
+            return event.getStatus() == EventStatus.FAILED; // A FAILED event no longer blocks its PaymentIntent
+        }
+    }
+
+    private EventStatus apply(StripeWebhookEvent event) {
+        if (event.getPaymentIntentId() == null) {
+            return EventStatus.IGNORED;
+        }
+
+        Order.PaymentStatus paymentStatus = switch (event.getEventType()) {
+            case SUCCEEDED_EVENT -> Order.PaymentStatus.SUCCEEDED;
+            case "payment_intent.processing" -> Order.PaymentStatus.PROCESSING;
+            case "payment_intent.payment_failed" -> Order.PaymentStatus.FAILED;
+            case "payment_intent.canceled" -> Order.PaymentStatus.CANCELED;
+            default -> null;
+        };
+        if (paymentStatus == null) {
+            return EventStatus.IGNORED;
+        }
+
+        if (orderService.applyPaymentStatus(event.getPaymentIntentId(), paymentStatus)) {
+            return EventStatus.PROCESSED;
+        }
+
+        if (paymentStatus == Order.PaymentStatus.SUCCEEDED) {
+            // Paid, but the browser never reached /payment/confirm: finalize server-side.
+            // The PaymentIntent id is the checkout's idempotency key, so a late browser POST resolves to this order.
+            // The order is built from the current cart, so it must still add up to what Stripe charged.
+            Long userId = extractCartUserId(event.getPayload());
+            if (userId != null) {
+                Long amountPaid = extractAmount(event.getPayload());
+                try {
+                    orderService.finalizeCheckout(userId, event.getPaymentIntentId(), "CARD",
+                            event.getPaymentIntentId(), amountPaid);
+                } catch (IllegalStateException e) {
+                    // Empty cart, a line sold out or a different total: no retry can fix this
+                    throw new UnfulfillablePaymentException(userId, amountPaid, e.getMessage());
+                }
+                orderService.applyPaymentStatus(event.getPaymentIntentId(), paymentStatus);
+                // The paid intent must not be offered again on this node's payment page
+                stripeService.evictPaymentIntent(userId);
+                System.out.println("STRIPE INFO: Order finalized from webhook for PaymentIntent " + event.getPaymentIntentId() + ".");
+                return EventStatus.PROCESSED;
+            }
+        }
+
+        // No order for a non-success event: nothing to update
+        return EventStatus.IGNORED;
+    }
+
+    /**
+     * Refunds a payment whose order cannot be placed, in a new transaction (the finalize attempt rolled back).
+     * Without an amount in the payload nothing can be refunded automatically, so the event fails loudly.
+     */
+    private EventStatus refundUnfulfillable(StripeWebhookEvent event, UnfulfillablePaymentException e) {
+        if (e.amountPaid == null) {
+            System.err.println("STRIPE ERROR: PaymentIntent " + event.getPaymentIntentId() + " was paid but cannot be fulfilled ("
+                    + e.getMessage() + ") and carries no amount. Refund it manually.");
+            return EventStatus.FAILED;
+        }
+
+        Order order = transactionTemplate.execute(status -> orderService.refundUnfulfilledPayment(
+                e.userId, event.getPaymentIntentId(), e.amountPaid, e.getMessage()));
+        stripeService.evictPaymentIntent(e.userId);
+        System.err.println("STRIPE ERROR: PaymentIntent " + event.getPaymentIntentId() + " was paid but cannot be fulfilled ("
+                + e.getMessage() + "). Refund queued on cancelled Order " + order.getId() + ".");
+        return EventStatus.PROCESSED;
+    }
+
+    private static String extractPaymentIntentId(JsonObject event) {
+        JsonObject dataObject = dataObject(event);
+        if (dataObject == null || !dataObject.has("object") || !dataObject.has("id")) {
+            return null;
+        }
+        String objectType = dataObject.get("object").getAsString();
+        if ("payment_intent".equals(objectType)) {
+            return dataObject.get("id").getAsString();
+        }
+        // Charges and refunds point back to their PaymentIntent
+        JsonElement paymentIntent = dataObject.get("payment_intent");
+        return paymentIntent != null && !paymentIntent.isJsonNull() ? paymentIntent.getAsString() : null;
+    }
+
+    private static Long extractCartUserId(String payload) {
+        JsonObject dataObject = dataObject(JsonParser.parseString(payload).getAsJsonObject());
+        if (dataObject == null || !dataObject.has("metadata")) {
+            return null;
+        }
+        JsonElement userId = dataObject.getAsJsonObject("metadata").get("cart_user_id");
+        return userId != null && !userId.isJsonNull() ? Long.valueOf(userId.getAsString()) : null;
+    }
+
+    /**
+     * The PaymentIntent amount in the smallest currency unit (paise), or null if absent.
+     */
+    private static Long extractAmount(String payload) {
+        JsonObject dataObject = dataObject(JsonParser.parseString(payload).getAsJsonObject());
+        JsonElement amount = dataObject != null ? dataObject.get("amount") : null;
+        return amount != null && !amount.isJsonNull() ? amount.getAsLong() : null;
+    }
+
+    private static JsonObject dataObject(JsonObject event) {
+        JsonObject data = event.getAsJsonObject("data");
+        return data != null ? data.getAsJsonObject("object") : null;
+    }
+
+    private static String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.length() > 500 ? message.substring(0, 500) : message;
+    }
+
+    /**
+     * A paid PaymentIntent whose checkout can no longer be finalized; thrown to roll the attempt back.
+     */
+    private static final class UnfulfillablePaymentException extends RuntimeException {
+        private final Long userId;
+        private final Long amountPaid;
+
+        private UnfulfillablePaymentException(Long userId, Long amountPaid, String message) {
+            super(message);
+            this.userId = userId;
+            this.amountPaid = amountPaid;
+        }
+    }
+}
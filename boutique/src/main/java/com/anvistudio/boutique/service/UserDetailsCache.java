@@ -0,0 +1,98 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.dto.BoutiqueUserDetails;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, TTL-based cache of loaded users for the DaoAuthenticationProvider, so repeated
+ * authentications of the same account do not run loadUserByUsername (1-3 queries) every time.
+ * Entries are keyed by username (email); phone-number logins are not served from the cache.
+ * Entries are copies: Spring Security erases the password on the principal it returns, which
+ * must not touch the cached entry.
+ * UserService evicts a user whenever their password, email, phone or verification state changes.
+ */
+@Component
+public class UserDetailsCache implements UserCache {
+
+    private final ConcurrentHashMap<String, CachedUser> users = new ConcurrentHashMap<>();
+
+    private final long ttlMillis;
+    private final int maxEntries;
+
+    public UserDetailsCache(@Value("${security.user-cache.ttl-seconds:300}") long ttlSeconds,
+                            @Value("${security.user-cache.max-entries:10000}") int maxEntries) {
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public UserDetails getUserFromCache(String username) {
+        CachedUser cached = users.get(username);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.isExpired()) {
+            users.remove(username, cached);
+            return null;
+        }
+        return copyOf(cached.user());
+    }
+
+    @Override
+    public void putUserInCache(UserDetails user) {
+        if (!(user instanceof BoutiqueUserDetails details) || ttlMillis <= 0) {
+            return;
+        }
+        if (users.size() >= maxEntries) {
+            users.values().removeIf(CachedUser::isExpired);
+            if (users.size() >= maxEntries) {
+                return; // Still full of live entries: authenticate from the database instead
+            }
+        }
+        users.put(details.getUsername(), new CachedUser(copyOf(details), System.currentTimeMillis() + ttlMillis));
+    }
+
+    @Override
+    public void removeUserFromCache(String username) {
+        users.remove(username);
+    }
+
+    /**
+     * Evicts the user's entry (also one cached under a previous email), now and again after the
+     * surrounding transaction commits, so a login in between cannot re-cache the old state.
+     */
+    public void evictUser(Long userId) {
+        evictNow(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictNow(userId);
+                }
+            });
+        }
+    }
+
+    private void evictNow(Long userId) {
+        users.values().removeIf(cached -> userId.equals(cached.user().getUserId()));
+    }
+
+    private static BoutiqueUserDetails copyOf(BoutiqueUserDetails user) {
+        return new BoutiqueUserDetails(user.getUserId(), user.getUsername(), user.getPassword(), user.getRole(),
+                user.isEnabled(), user.getAuthorities());
+    }
+
+    private record CachedUser(BoutiqueUserDetails user, long expiresAtMillis) {
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAtMillis;
+        }
+    }
+}
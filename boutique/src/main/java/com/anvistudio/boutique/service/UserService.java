@@ -6,13 +6,14 @@ import com.anvistudio.boutique.model.VerificationToken;
 import com.anvistudio.boutique.model.VerificationToken.TokenType;
 import com.anvistudio.boutique.repository.CustomerRepository;
 import com.anvistudio.boutique.repository.UserRepository;
-import com.anvistudio.boutique.repository.VerificationTokenRepository;
+import com.anvistudio.boutique.dto.BoutiqueUserDetails;
 import com.anvistudio.boutique.dto.RegistrationDTO;
 import jakarta.annotation.PostConstruct;
 import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -26,7 +27,7 @@ import java.util.Date;
 import java.util.regex.Pattern;
 
 @Service
-public class UserService implements UserDetailsService {
+public class UserService implements UserDetailsService, UserDetailsPasswordService {
 
     private static final Pattern PHONE_PATTERN = Pattern.compile("^[+]?[0-9]{10,15}$");
 
@@ -42,18 +43,20 @@ public class UserService implements UserDetailsService {
 
     public final UserRepository userRepository;
     private final CustomerRepository customerRepository;
-    private final VerificationTokenRepository tokenRepository;
+    private final OtpStore otpStore;
     private final EmailService emailService;
     private final PasswordEncoder passwordEncoder;
+    private final UserDetailsCache userDetailsCache;
 
     public UserService(UserRepository userRepository, CustomerRepository customerRepository,
-                       VerificationTokenRepository tokenRepository, EmailService emailService,
-                       PasswordEncoder passwordEncoder) {
+                       OtpStore otpStore, EmailService emailService,
+                       PasswordEncoder passwordEncoder, UserDetailsCache userDetailsCache) {
         this.userRepository = userRepository;
         this.customerRepository = customerRepository;
-        this.tokenRepository = tokenRepository;
+        this.otpStore = otpStore;
         this.emailService = emailService;
         this.passwordEncoder = passwordEncoder;
+        this.userDetailsCache = userDetailsCache;
     }
 
     /**
@@ -102,11 +105,13 @@ public class UserService implements UserDetailsService {
         GrantedAuthority authority = new SimpleGrantedAuthority("ROLE_" + user.getRole());
 
         // Spring Security will now use the password stored in the 'user' object (the actual DB password).
-        return new org.springframework.security.core.userdetails.User(
+        // MODIFIED: The principal also carries the user id and role, so requests never re-resolve the user
+        return new BoutiqueUserDetails(
+                user.getId(),
                 user.getUsername(),
                 user.getPassword(),
+                user.getRole(),
                 isEnabled,
-                true, true, true,
                 Collections.singleton(authority)
         );
     }
@@ -119,40 +124,64 @@ public class UserService implements UserDetailsService {
     }
 
     /**
-     * NEW: Finds a User by either username (email) or phone number.
-     * Used by loadUserByUsername and Forgot Password feature.
+     * NEW: Returns a reference to the user for setting associations (no SELECT is issued).
      */
-    public Optional<User> findUserByIdentifier(String identifier) {
-        // 1. Try to treat identifier as email (User.username)
-        Optional<User> userByEmail = userRepository.findByUsername(identifier);
-        if (userByEmail.isPresent()) {
-            return userByEmail;
+    public User getUserReference(Long userId) {
+        return userRepository.getReferenceById(userId);
+    }
+
+    /**
+     * NEW: Reads only the user's Stripe customer id.
+     */
+    public Optional<String> findStripeCustomerId(Long userId) {
+        return userRepository.findStripeCustomerIdById(userId);
+    }
+
+    /**
+     * NEW: Records the user's Stripe customer id if none is stored yet.
+     * @return The customer id that is stored for the user after the call (the earlier one wins a race).
+     */
+    public String assignStripeCustomerId(Long userId, String customerId) {
+        if (userRepository.assignStripeCustomerIdIfAbsent(userId, customerId) == 1) {
+            return customerId;
         }
+        return userRepository.findStripeCustomerIdById(userId).orElse(customerId);
+    }
 
-        // 2. If not found by email, check if it matches phone pattern
-        if (PHONE_PATTERN.matcher(identifier).matches()) {
+    /**
+     * NEW: Called by the authentication provider after a successful login whose stored hash uses an
+     * older BCrypt cost than configured (security.password.bcrypt-strength). The new hash was computed
+     * from the password just entered; it is stored only if the old hash is still current.
+     */
+    @Override
+    @Transactional
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        if (!(user instanceof BoutiqueUserDetails principal)) {
+            return user;
+        }
 
-            // 2a. Try to find CUSTOMER by phone number (via Customer profile table)
-            Optional<User> customerUser = customerRepository.findByPhoneNumber(identifier)
-                    .map(Customer::getUser);
-            if (customerUser.isPresent()) {
-                return customerUser;
-            }
+        if (userRepository.replacePasswordIfUnchanged(principal.getUserId(), principal.getPassword(), newPassword) == 1) {
+            userDetailsCache.evictUser(principal.getUserId());
+            System.out.println("LOG: Re-encoded the password hash of user " + principal.getUserId() + " with the current cost.");
+        }
 
-            // 2b. Try to find ADMIN by recovery phone number (via User table)
-            // Use stream to handle potential multiple matches, though recovery phone should ideally be unique.
-            Optional<User> adminUser = userRepository.findAll().stream()
-                    .filter(u -> "ADMIN".equals(u.getRole()))
-                    .filter(u -> identifier.equals(u.getRecoveryPhoneNumber()))
-                    .findFirst();
+        return new BoutiqueUserDetails(principal.getUserId(), principal.getUsername(), newPassword,
+                principal.getRole(), principal.isEnabled(), principal.getAuthorities());
+    }
 
-            if (adminUser.isPresent()) {
-                return adminUser;
-            }
+    /**
+     * NEW: Finds a User by either username (email) or phone number.
+     * Used by loadUserByUsername and Forgot Password feature.
+     */
+    public Optional<User> findUserByIdentifier(String identifier) {
+        // 1. Anything that cannot be a phone number is treated as an email (User.username)
+        if (!PHONE_PATTERN.matcher(identifier).matches()) {
+            return userRepository.findByUsername(identifier);
         }
 
-        // 3. Not found by email or valid phone pattern
-        return Optional.empty();
+        // 2. MODIFIED: Email, CUSTOMER phone (Customer profile table) or ADMIN recovery phone (User table),
+        //    resolved with one indexed query instead of loading the whole users table for the admin case
+        return userRepository.findByUsernameOrPhoneNumber(identifier);
     }
 
 
@@ -190,6 +219,7 @@ public class UserService implements UserDetailsService {
         adminUser.setEmailVerified(true);
         adminUser.setCredentialsUpdated(true); // This invalidates the default login.
 
+        userDetailsCache.evictUser(adminUser.getId()); // The cached default login must stop working at once
         return userRepository.save(adminUser);
     }
 
@@ -257,14 +287,11 @@ public class UserService implements UserDetailsService {
 
     /**
      * Creates a new OTP for the user and triggers the email sending.
-     * The caller is responsible for cleaning up old tokens *before* calling this method.
+     * MODIFIED: The OTP store replaces any previous token of the user.
      */
     @Transactional
     public void createOtpAndSendEmail(User user, TokenType tokenType) {
-        // We create the token here and rely on the calling method to have cleared the old token.
-
-        VerificationToken otpToken = new VerificationToken(user, tokenType);
-        tokenRepository.save(otpToken);
+        VerificationToken otpToken = otpStore.issue(user, tokenType);
 
         // NOTE: The recipient email is derived from the 'user' object's username field.
         emailService.sendOtpEmail(user, otpToken);
@@ -276,14 +303,7 @@ public class UserService implements UserDetailsService {
      */
     @Transactional
     public void createOtpAndSendEmail(User user) {
-        // Ensure old token is deleted and flushed before creating a new one for registration
-        tokenRepository.deleteByUserId(user.getId());
-        tokenRepository.flush(); // <--- CRITICAL FIX: Ensure DELETE is executed now
-
-        VerificationToken otpToken = new VerificationToken(user, TokenType.REGISTRATION); // Use REGISTRATION type
-        tokenRepository.save(otpToken);
-
-        emailService.sendOtpEmail(user, otpToken);
+        createOtpAndSendEmail(user, TokenType.REGISTRATION); // Use REGISTRATION type
     }
 
     // --- Password Reset Logic (Modified for Transaction Safety) ---
@@ -292,11 +312,7 @@ public class UserService implements UserDetailsService {
         User user = findUserByIdentifier(identifier)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found: " + identifier));
 
-        // FIX: Ensure old token is deleted and flushed before creating a new one for password reset
-        tokenRepository.deleteByUserId(user.getId());
-        tokenRepository.flush(); // <--- CRITICAL FIX: Ensure DELETE is executed now
-
-        // Create OTP and send email for PASSWORD_RESET
+        // Create OTP and send email for PASSWORD_RESET (replaces any older token)
         createOtpAndSendEmail(user, TokenType.PASSWORD_RESET); // Use generic method
 
         return user;
@@ -327,13 +343,9 @@ public class UserService implements UserDetailsService {
             throw new IllegalStateException("The email address '" + newEmail + "' is already registered to another account.");
         }
 
-        // 4. CRITICAL FIX: Delete the existing token *before* saving the new one and flush the changes.
-        tokenRepository.deleteByUserId(user.getId());
-        tokenRepository.flush();
-
-        // 5. Create OTP: The token is linked to the existing user ID.
+        // 4. Create OTP: The token is linked to the existing user ID.
         // We create a temp User object *in memory* with the new email for the EmailService to target.
-        // CRITICAL CONSTRUCTOR FIX: Ensure all 7 fields are provided.
+        // CRITICAL CONSTRUCTOR FIX: Ensure all 8 fields are provided.
         User tempUserForEmail = new User(
                 user.getId(),
                 newEmail,
@@ -341,14 +353,14 @@ public class UserService implements UserDetailsService {
                 user.getRole(),
                 user.getEmailVerified(),
                 user.getCredentialsUpdated(),
-                user.getRecoveryPhoneNumber() // <--- ADDED THE MISSING 7TH ARGUMENT
+                user.getRecoveryPhoneNumber(), // <--- ADDED THE MISSING 7TH ARGUMENT
+                user.getStripeCustomerId()
         );
 
 
-        VerificationToken otpToken = new VerificationToken(user, TokenType.NEW_EMAIL_VERIFICATION);
-        tokenRepository.save(otpToken); // Saves token linked to old User ID
+        VerificationToken otpToken = otpStore.issue(user, TokenType.NEW_EMAIL_VERIFICATION); // Linked to old User ID
 
-        // 6. Send email to the NEW address
+        // 5. Send email to the NEW address
         emailService.sendOtpEmail(tempUserForEmail, otpToken);
     }
 
@@ -362,7 +374,7 @@ public class UserService implements UserDetailsService {
                 .orElseThrow(() -> new IllegalStateException("Authenticated user not found."));
 
         // 2. Verify the OTP against the user ID and expected token type
-        Optional<VerificationToken> tokenOptional = tokenRepository.findByUserId(user.getId())
+        Optional<VerificationToken> tokenOptional = otpStore.find(user.getId())
                 .filter(token -> token.getTokenType() == TokenType.NEW_EMAIL_VERIFICATION);
 
         if (tokenOptional.isEmpty()) {
@@ -372,7 +384,7 @@ public class UserService implements UserDetailsService {
         VerificationToken token = tokenOptional.get();
 
         if (token.isExpired()) {
-            tokenRepository.delete(token);
+            otpStore.remove(user.getId());
             throw new IllegalStateException("Verification code expired.");
         }
 
@@ -383,9 +395,10 @@ public class UserService implements UserDetailsService {
         // 3. OTP is valid: Update the user's username (email)
         user.setUsername(newEmail);
         userRepository.save(user);
+        userDetailsCache.evictUser(user.getId()); // The old email must no longer log in from the cache
 
         // 4. Delete the token
-        tokenRepository.delete(token);
+        otpStore.remove(user.getId());
     }
 
     // ... (rest of the service methods remain the same)
@@ -394,7 +407,7 @@ public class UserService implements UserDetailsService {
     public Optional<VerificationToken> findActiveToken(String email, TokenType tokenType) {
         // This method is primarily used for frontend validation/redirection logic
         return userRepository.findByUsername(email)
-                .flatMap(user -> tokenRepository.findByUserId(user.getId()))
+                .flatMap(user -> otpStore.find(user.getId()))
                 .filter(token -> token.getTokenType() == tokenType && !token.isExpired());
     }
 
@@ -410,7 +423,7 @@ public class UserService implements UserDetailsService {
         User user = userOptional.get();
 
         // Find the specific token for this user
-        Optional<VerificationToken> tokenOptional = tokenRepository.findByUserId(user.getId())
+        Optional<VerificationToken> tokenOptional = otpStore.find(user.getId())
                 .filter(token -> token.getTokenType() == tokenType);
 
         if (tokenOptional.isEmpty()) {
@@ -421,7 +434,7 @@ public class UserService implements UserDetailsService {
 
         // Check 1: Expiry
         if (otpToken.isExpired()) {
-            tokenRepository.delete(otpToken);
+            otpStore.remove(user.getId());
             return Optional.empty();
         }
 
@@ -431,7 +444,7 @@ public class UserService implements UserDetailsService {
         }
 
         // Valid OTP found. Delete the token immediately after success.
-        tokenRepository.delete(otpToken);
+        otpStore.remove(user.getId());
 
         return Optional.of(user);
     }
@@ -445,6 +458,7 @@ public class UserService implements UserDetailsService {
             User user = verifiedUser.get();
             user.setEmailVerified(true);
             userRepository.save(user);
+            userDetailsCache.evictUser(user.getId());
             return "Verification successful: Your account is now active!";
         } else {
             return "Invalid or expired OTP. Please check the code, request a new one, and try again.";
@@ -458,6 +472,7 @@ public class UserService implements UserDetailsService {
 
         user.setPassword(passwordEncoder.encode(newPassword));
         userRepository.save(user);
+        userDetailsCache.evictUser(user.getId());
     }
 
     public Optional<Customer> getCustomerDetailsByUsername(String username) {
@@ -506,6 +521,7 @@ public class UserService implements UserDetailsService {
                 throw new IllegalStateException("The new phone number is already registered with another account.");
             }
             customer.setPhoneNumber(profileDTO.getPhoneNumber());
+            userDetailsCache.evictUser(user.getId());
         }
 
         // 2. Update Customer fields
@@ -558,6 +574,7 @@ public class UserService implements UserDetailsService {
         // 4. Update and Save
         user.setPassword(passwordEncoder.encode(newPassword));
         userRepository.save(user);
+        userDetailsCache.evictUser(user.getId()); // The old password must not keep working from the cache
     }
 
     /**
@@ -6,9 +6,11 @@ import com.anvistudio.boutique.model.Wishlist;
 import com.anvistudio.boutique.repository.ProductRepository;
 import com.anvistudio.boutique.repository.UserRepository;
 import com.anvistudio.boutique.repository.WishlistRepository;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Date;
 import java.util.List;
 
 @Service
@@ -26,23 +28,17 @@ public class WishlistService {
 
     /**
      * Adds a product to a user's wishlist, ensuring no duplicates.
-     * @param username The username of the currently logged-in user.
+     * @param userId The id of the currently logged-in user (from the authenticated principal).
      * @param productId The ID of the product to add.
      */
     @Transactional
-    public void addToWishlist(String username, Long productId) {
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new IllegalArgumentException("User not found: " + username));
-
-        Product product = productRepository.findById(productId)
-                .orElseThrow(() -> new IllegalArgumentException("Product not found: " + productId));
-
-        // Prevent duplicate entries
-        if (wishlistRepository.findByUserIdAndProductId(user.getId(), productId).isEmpty()) {
-            Wishlist item = new Wishlist();
-            item.setUser(user);
-            item.setProduct(product);
-            wishlistRepository.save(item);
+    public void addToWishlist(Long userId, Long productId) {
+        // MODIFIED: One INSERT ... ON DUPLICATE KEY UPDATE; the unique (user_id, product_id) key prevents duplicates
+        try {
+            wishlistRepository.insertIfAbsent(userId, productId, new Date());
+        } catch (DataIntegrityViolationException e) {
+            // The user id comes from the session, so the failing foreign key is the product's
+            throw new IllegalArgumentException("Product not found: " + productId);
         }
     }
 
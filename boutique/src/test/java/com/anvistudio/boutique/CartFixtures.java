@@ -0,0 +1,61 @@
+package com.anvistudio.boutique;
+
+import com.anvistudio.boutique.model.CartItem;
+import com.anvistudio.boutique.model.Product;
+import com.anvistudio.boutique.model.User;
+import com.anvistudio.boutique.repository.CartItemRepository;
+import com.anvistudio.boutique.repository.ProductRepository;
+import com.anvistudio.boutique.repository.UserRepository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Creates a customer with a cart of distinct products (quantity 1 each, 10 in stock) for the JPA tests.
+ */
+public class CartFixtures {
+
+	private final UserRepository userRepository;
+	private final ProductRepository productRepository;
+	private final CartItemRepository cartItemRepository;
+	private final TransactionTemplate transactionTemplate;
+
+	public CartFixtures(UserRepository userRepository, ProductRepository productRepository,
+						CartItemRepository cartItemRepository, TransactionTemplate transactionTemplate) {
+		this.userRepository = userRepository;
+		this.productRepository = productRepository;
+		this.cartItemRepository = cartItemRepository;
+		this.transactionTemplate = transactionTemplate;
+	}
+
+	/**
+	 * @return The id of the new customer.
+	 */
+	public Long customerWithCart(int lines) {
+		return transactionTemplate.execute(status -> {
+			User user = new User();
+			user.setUsername("shopper-" + UUID.randomUUID() + "@example.com");
+			user.setPassword("{noop}secret");
+			user.setRole("CUSTOMER");
+			userRepository.save(user);
+
+			for (int i = 0; i < lines; i++) {
+				Product product = new Product();
+				product.setName("Handloom saree " + i);
+				product.setDescription("Test product");
+				product.setPrice(new BigDecimal("1499.00"));
+				product.setCategory("Sarees");
+				product.setStockQuantity(10);
+				productRepository.save(product);
+
+				CartItem item = new CartItem();
+				item.setUser(user);
+				item.setProduct(product);
+				item.setQuantity(1);
+				cartItemRepository.save(item);
+			}
+			return user.getId();
+		});
+	}
+}
@@ -0,0 +1,96 @@
+package com.anvistudio.boutique;
+
+import com.anvistudio.boutique.repository.CartItemRepository;
+import com.anvistudio.boutique.repository.OrderRepository;
+import com.anvistudio.boutique.repository.ProductRepository;
+import com.anvistudio.boutique.repository.UserRepository;
+import com.anvistudio.boutique.service.PaymentGateway;
+import com.anvistudio.boutique.service.UserService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.mockito.Mockito;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Minimal JPA context for query-count tests: the real entities and repositories on an in-memory
+ * H2 database in MySQL mode, with Hibernate statistics enabled. Services under test are added with
+ * {@code @Import}; collaborators that reach outside the database (users, payment provider) are mocks.
+ */
+@Configuration
+@EnableTransactionManagement(proxyTargetClass = true)
+@EnableJpaRepositories(basePackageClasses = OrderRepository.class)
+public class JpaTestConfig {
+
+	@Bean
+	public DataSource dataSource() {
+		return new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID()
+				+ ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+	}
+
+	@Bean
+	public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource) {
+		LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+		factory.setDataSource(dataSource);
+		factory.setPackagesToScan("com.anvistudio.boutique.model");
+		factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+		factory.setJpaPropertyMap(Map.of(
+				"hibernate.hbm2ddl.auto", "create-drop",
+				"hibernate.generate_statistics", "true",
+				// Same column names as under Spring Boot (the native queries rely on them)
+				"hibernate.physical_naming_strategy", "org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy"));
+		return factory;
+	}
+
+	@Bean
+	public PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+		return new JpaTransactionManager(entityManagerFactory);
+	}
+
+	@Bean
+	public TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+		return new TransactionTemplate(transactionManager);
+	}
+
+	@Bean
+	public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+		return new JdbcTemplate(dataSource);
+	}
+
+	@Bean
+	public CartFixtures cartFixtures(UserRepository userRepository, ProductRepository productRepository,
+									 CartItemRepository cartItemRepository, TransactionTemplate transactionTemplate) {
+		return new CartFixtures(userRepository, productRepository, cartItemRepository, transactionTemplate);
+	}
+
+	@Bean
+	public UserService userService() {
+		return Mockito.mock(UserService.class);
+	}
+
+	@Bean
+	public PaymentGateway paymentGateway() {
+		return Mockito.mock(PaymentGateway.class);
+	}
+
+	/**
+	 * Statement counts of the whole context; call clear() right before the code under test.
+	 */
+	public static Statistics statistics(EntityManagerFactory entityManagerFactory) {
+		return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+}
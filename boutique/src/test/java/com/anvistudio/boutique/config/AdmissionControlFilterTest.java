@@ -0,0 +1,181 @@
+package com.anvistudio.boutique.config;
+
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdmissionControlFilterTest {
+
+	@Test
+	void browsingIsShedAtItsShareWhileCheckoutStillGetsIn() throws Exception {
+		// Limit 10: browsing may fill 6 slots, cart 8, checkout all 10
+		AdmissionControlFilter filter = filter(10, 10);
+		ExecutorService pool = Executors.newFixedThreadPool(6);
+		CountDownLatch entered = new CountDownLatch(6);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			List<Future<MockHttpServletResponse>> browsing = new ArrayList<>();
+			for (int i = 0; i < 6; i++) {
+				browsing.add(pool.submit(() -> request(filter, "/products", (req, res) -> {
+					entered.countDown();
+					await(release);
+				})));
+			}
+			assertThat(entered.await(10, TimeUnit.SECONDS)).isTrue();
+
+			MockHttpServletResponse shed = request(filter, "/products", new MockFilterChain());
+			assertThat(shed.getStatus()).isEqualTo(503);
+			assertThat(shed.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("2");
+			assertThat(request(filter, "/cart", new MockFilterChain()).getStatus()).isEqualTo(200);
+			assertThat(request(filter, "/payment/confirm", new MockFilterChain()).getStatus()).isEqualTo(200);
+
+			release.countDown();
+			for (Future<MockHttpServletResponse> response : browsing) {
+				assertThat(response.get(10, TimeUnit.SECONDS).getStatus()).isEqualTo(200);
+			}
+			assertThat(request(filter, "/products", new MockFilterChain()).getStatus()).isEqualTo(200);
+		} finally {
+			release.countDown();
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void staticFilesAreNeverShed() throws Exception {
+		AdmissionControlFilter filter = filter(1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread holder = Thread.ofPlatform().start(() -> {
+			try {
+				request(filter, "/payment/confirm", (req, res) -> await(release));
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		try {
+			waitForInflight(filter, 1);
+
+			assertThat(request(filter, "/products", new MockFilterChain()).getStatus()).isEqualTo(503);
+			assertThat(request(filter, "/css/site.css", new MockFilterChain()).getStatus()).isEqualTo(200);
+		} finally {
+			release.countDown();
+			holder.join(10_000);
+		}
+	}
+
+	@Test
+	void risingLatencyShrinksTheLimit() throws Exception {
+		AdmissionControlFilter filter = filter(100, 5);
+
+		// Warm-up windows establish a real baseline latency (a 0 ms minimum would be timer noise,
+		// and any jitter above twice that would already halve the limit); an idle shop never grows it
+		for (int window = 0; window < 2; window++) {
+			sendCartRequests(filter, 5, 20);
+			filter.updateLimit();
+		}
+		assertThat(limit(filter)).isEqualTo(100.0);
+
+		sendCartRequests(filter, 5, 100);
+		filter.updateLimit();
+
+		// Gradient clamped at 0.5: 100 * 0.5 + sqrt(100)
+		assertThat(limit(filter)).isEqualTo(60.0);
+	}
+
+	@Test
+	void slowPaymentProviderDoesNotShrinkTheLimit() throws Exception {
+		AdmissionControlFilter filter = filter(100, 5);
+		sendCheckoutRequests(filter, 5, 0);
+		sendCartRequests(filter, 5, 10);
+		filter.updateLimit();
+
+		// Checkout slows down tenfold, the shop's own pages do not
+		sendCheckoutRequests(filter, 5, 100);
+		sendCartRequests(filter, 5, 10);
+		filter.updateLimit();
+
+		assertThat(limit(filter)).isEqualTo(100.0);
+	}
+
+	@Test
+	void windowWithTooFewSamplesLeavesTheLimitAlone() throws Exception {
+		AdmissionControlFilter filter = filter(100, 5);
+		sendCartRequests(filter, 5, 0);
+		filter.updateLimit();
+
+		sendCartRequests(filter, 4, 50);
+		filter.updateLimit();
+
+		assertThat(limit(filter)).isEqualTo(100.0);
+	}
+
+	/**
+	 * A filter whose limit moves straight to its target each window (smoothing 1.0).
+	 */
+	private static AdmissionControlFilter filter(int initialLimit, int minSamples) {
+		return new AdmissionControlFilter(true, initialLimit, 1, 200, 1.0, minSamples, 300, 1.0, 0.85, 0.7, 0.6);
+	}
+
+	private static MockHttpServletResponse request(AdmissionControlFilter filter, String path, FilterChain chain)
+			throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+		request.setServletPath(path);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, chain);
+		return response;
+	}
+
+	private static void sendCartRequests(AdmissionControlFilter filter, int count, long millisEach) throws Exception {
+		for (int i = 0; i < count; i++) {
+			request(filter, "/cart", (req, res) -> sleep(millisEach));
+		}
+	}
+
+	private static void sendCheckoutRequests(AdmissionControlFilter filter, int count, long millisEach) throws Exception {
+		for (int i = 0; i < count; i++) {
+			request(filter, "/payment/confirm", (req, res) -> sleep(millisEach));
+		}
+	}
+
+	private static double limit(AdmissionControlFilter filter) {
+		return (double) ReflectionTestUtils.getField(filter, "limit");
+	}
+
+	private static void waitForInflight(AdmissionControlFilter filter, int expected) throws InterruptedException {
+		AtomicInteger inflight = (AtomicInteger) ReflectionTestUtils.getField(filter, "inflight");
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (inflight.get() != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
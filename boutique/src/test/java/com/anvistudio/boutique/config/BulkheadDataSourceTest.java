@@ -0,0 +1,112 @@
+package com.anvistudio.boutique.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkheadDataSourceTest {
+
+	private DataSource pool;
+
+	@BeforeEach
+	void setUp() throws SQLException {
+		pool = mock(DataSource.class);
+		when(pool.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+	}
+
+	@Test
+	void waitingLongerThanMaxWaitFailsFast() throws SQLException {
+		BulkheadDataSource bulkhead = new BulkheadDataSource(pool, 2, 10, 50);
+		bulkhead.getConnection();
+		bulkhead.getConnection();
+
+		long started = System.nanoTime();
+		assertThatThrownBy(bulkhead::getConnection)
+				.isInstanceOf(SQLTransientConnectionException.class)
+				.hasMessageContaining("within 50 ms");
+
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isGreaterThanOrEqualTo(50);
+		assertThat(bulkhead.describe()).contains("in use=2/2", "timeouts=1");
+	}
+
+	@Test
+	void closingTheConnectionReturnsThePermitExactlyOnce() throws SQLException {
+		BulkheadDataSource bulkhead = new BulkheadDataSource(pool, 2, 10, 50);
+		Connection first = bulkhead.getConnection();
+		bulkhead.getConnection();
+
+		first.close();
+		first.close();
+
+		assertThat(bulkhead.describe()).contains("in use=1/2");
+		bulkhead.getConnection();
+		assertThatThrownBy(bulkhead::getConnection).isInstanceOf(SQLTransientConnectionException.class);
+	}
+
+	@Test
+	void closeIsPassedToThePooledConnection() throws SQLException {
+		Connection pooled = mock(Connection.class);
+		when(pool.getConnection()).thenReturn(pooled);
+		BulkheadDataSource bulkhead = new BulkheadDataSource(pool, 1, 10, 50);
+
+		Connection connection = bulkhead.getConnection();
+		connection.isValid(1);
+		connection.close();
+
+		verify(pooled).isValid(1);
+		verify(pooled, times(1)).close();
+		assertThat(connection).isEqualTo(connection).isNotEqualTo(pooled);
+	}
+
+	@Test
+	void permitIsReturnedWhenThePoolFails() throws SQLException {
+		when(pool.getConnection()).thenThrow(new SQLException("pool exhausted"));
+		BulkheadDataSource bulkhead = new BulkheadDataSource(pool, 1, 10, 50);
+
+		assertThatThrownBy(bulkhead::getConnection).hasMessage("pool exhausted");
+		assertThatThrownBy(bulkhead::getConnection).hasMessage("pool exhausted");
+		assertThat(bulkhead.describe()).contains("in use=0/1");
+	}
+
+	@Test
+	void requestsBeyondTheWaitingQueueAreRejectedImmediately() throws Exception {
+		BulkheadDataSource bulkhead = new BulkheadDataSource(pool, 1, 1, 10_000);
+		Connection held = bulkhead.getConnection();
+		CompletableFuture<Connection> waiter = CompletableFuture.supplyAsync(() -> {
+			try {
+				return bulkhead.getConnection();
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		waitUntil(bulkhead, "waiting=1");
+
+		assertThatThrownBy(bulkhead::getConnection)
+				.isInstanceOf(SQLTransientConnectionException.class)
+				.hasMessageContaining("bulkhead full");
+
+		held.close();
+		assertThat(waiter.get(10, TimeUnit.SECONDS)).isNotNull();
+		assertThat(bulkhead.describe()).contains("in use=1/1", "rejected=1");
+	}
+
+	private static void waitUntil(BulkheadDataSource bulkhead, String state) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!bulkhead.describe().contains(state) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+}
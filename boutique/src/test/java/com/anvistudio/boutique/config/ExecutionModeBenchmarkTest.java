@@ -0,0 +1,114 @@
+package com.anvistudio.boutique.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the two execution modes on the workload virtual threads are meant for: each task blocks
+ * on a slow remote call (SMTP, Stripe), then runs a short database step behind the JDBC bulkhead.
+ * Platform mode is a fixed pool the size of Tomcat's default; virtual mode starts one thread per
+ * task from WorkerThreads. The default size keeps the build fast; for a real comparison run e.g.
+ * mvn test -Dtest=ExecutionModeBenchmarkTest -Dbenchmark.tasks=100000 -Dbenchmark.blocking-ms=100
+ */
+class ExecutionModeBenchmarkTest {
+
+	private static final int TASKS = Integer.getInteger("benchmark.tasks", 2_000);
+	private static final int PLATFORM_THREADS = Integer.getInteger("benchmark.platform-threads", 200);
+	private static final long BLOCKING_MILLIS = Long.getLong("benchmark.blocking-ms", 50);
+	private static final int DB_PERMITS = Integer.getInteger("benchmark.db-permits", 10);
+
+	@Test
+	void virtualThreadsCompleteBlockingWorkFasterBehindTheSameBulkhead() throws Exception {
+		Result platform = run("platform", Executors.newFixedThreadPool(PLATFORM_THREADS,
+				WorkerThreads.factory("bench-platform-", false)));
+		Result virtual = run("virtual", Executors.newThreadPerTaskExecutor(
+				WorkerThreads.factory("bench-virtual-", true)));
+
+		System.out.println("LOG: " + TASKS + " tasks blocking " + BLOCKING_MILLIS + " ms, " + DB_PERMITS
+				+ " database permits | " + platform + " | " + virtual);
+
+		assertThat(platform.failures()).isZero();
+		assertThat(virtual.failures()).isZero();
+		// Platform mode needs at least TASKS / PLATFORM_THREADS rounds of the blocking call
+		assertThat(platform.millis()).isGreaterThanOrEqualTo(TASKS / PLATFORM_THREADS * BLOCKING_MILLIS);
+		assertThat(virtual.millis()).isLessThan(platform.millis());
+	}
+
+	private static Result run(String mode, ExecutorService executor) throws Exception {
+		DataSource pool = new FreeConnectionPool();
+		// Every task may queue at once in virtual mode, so the waiting limit must not be what fails them
+		BulkheadDataSource bulkhead = new BulkheadDataSource(pool, DB_PERMITS, TASKS, 30_000);
+		LongAdder failures = new LongAdder();
+
+		long started = System.nanoTime();
+		try (executor) {
+			List<Future<?>> tasks = new ArrayList<>(TASKS);
+			for (int i = 0; i < TASKS; i++) {
+				tasks.add(executor.submit(() -> {
+					try {
+						Thread.sleep(BLOCKING_MILLIS);
+						try (Connection connection = bulkhead.getConnection()) {
+							connection.isValid(1);
+						}
+					} catch (SQLException | InterruptedException e) {
+						failures.increment();
+					}
+				}));
+			}
+			for (Future<?> task : tasks) {
+				task.get(5, TimeUnit.MINUTES);
+			}
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+		assertThat(bulkhead.describe()).startsWith("in use=0/");
+		return new Result(mode, millis, failures.sum(), TASKS * 1000L / Math.max(1, millis));
+	}
+
+	/**
+	 * A pool that hands out a no-op connection at once, so the benchmark measures thread scheduling
+	 * and the bulkhead rather than a mock framework's synchronized bookkeeping.
+	 */
+	private static final class FreeConnectionPool extends AbstractDataSource {
+
+		private final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[]{Connection.class}, (proxy, method, args) -> switch (method.getName()) {
+					case "isValid" -> true;
+					case "equals" -> proxy == args[0];
+					case "hashCode" -> System.identityHashCode(proxy);
+					default -> null;
+				});
+
+		@Override
+		public Connection getConnection() {
+			return connection;
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) {
+			return connection;
+		}
+	}
+
+	private record Result(String mode, long millis, long failures, long tasksPerSecond) {
+
+		@Override
+		public String toString() {
+			return mode + ": " + millis + " ms, " + tasksPerSecond + " tasks/s, " + failures + " failed";
+		}
+	}
+}
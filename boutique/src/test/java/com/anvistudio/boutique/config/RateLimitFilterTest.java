@@ -0,0 +1,110 @@
+package com.anvistudio.boutique.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitFilterTest {
+
+	private static final String IP = "203.0.113.7";
+
+	@Test
+	void accountBucketAllowsItsBurstThenRejectsWithRetryAfter() throws Exception {
+		RateLimitFilter filter = filter(100_000, 30, 3);
+
+		for (int i = 0; i < 3; i++) {
+			assertThat(login(filter, IP, "asha@example.com").getStatus()).isEqualTo(200);
+		}
+		MockHttpServletResponse rejected = login(filter, IP, "asha@example.com");
+
+		assertThat(rejected.getStatus()).isEqualTo(429);
+		// One token every 20 s (3 per minute)
+		assertThat(Long.parseLong(rejected.getHeader(HttpHeaders.RETRY_AFTER))).isBetween(19L, 20L);
+	}
+
+	@Test
+	void accountLimitHoldsAcrossIpsAndIsCaseInsensitive() throws Exception {
+		RateLimitFilter filter = filter(100_000, 30, 2);
+
+		login(filter, "198.51.100.1", "Asha@Example.com");
+		login(filter, "198.51.100.2", "asha@example.com ");
+
+		assertThat(login(filter, "198.51.100.3", "ASHA@example.com").getStatus()).isEqualTo(429);
+		assertThat(login(filter, "198.51.100.3", "ravi@example.com").getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	void ipLimitAppliesAcrossAccounts() throws Exception {
+		RateLimitFilter filter = filter(100_000, 2, 10);
+
+		login(filter, IP, "a@example.com");
+		login(filter, IP, "b@example.com");
+
+		assertThat(login(filter, IP, "c@example.com").getStatus()).isEqualTo(429);
+		assertThat(login(filter, "198.51.100.9", "c@example.com").getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	void newKeysShareAnOverflowBucketOnceTheMapIsFull() throws Exception {
+		// Room for the IP bucket and one account bucket only
+		RateLimitFilter filter = filter(2, 1000, 2);
+
+		login(filter, IP, "first@example.com");
+		login(filter, IP, "fresh-1@example.com");
+		login(filter, IP, "fresh-2@example.com");
+
+		// Fresh usernames no longer get a bucket of their own, so they cannot bypass the limit
+		assertThat(login(filter, IP, "fresh-3@example.com").getStatus()).isEqualTo(429);
+	}
+
+	@Test
+	void untouchedRoutesAndDisabledFilterPassThrough() throws Exception {
+		RateLimitFilter filter = filter(100_000, 1, 1);
+		login(filter, IP, "a@example.com");
+
+		MockHttpServletRequest browse = new MockHttpServletRequest("GET", "/products");
+		browse.setServletPath("/products");
+		browse.setRemoteAddr(IP);
+		MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(browse, new MockHttpServletResponse(), chain);
+		assertThat(chain.getRequest()).isNotNull();
+
+		RateLimitFilter disabled = new RateLimitFilter(false, 100_000, 1, 1, 1, 1, 1, 1, 1);
+		login(disabled, IP, "a@example.com");
+		assertThat(login(disabled, IP, "a@example.com").getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	void sweepKeepsBucketsThatAreNotFullYet() throws Exception {
+		RateLimitFilter filter = filter(100_000, 30, 1);
+		login(filter, IP, "asha@example.com");
+
+		filter.sweepIdleBuckets();
+
+		// The bucket still owes a token, so it must survive the sweep and keep rejecting
+		assertThat(login(filter, IP, "asha@example.com").getStatus()).isEqualTo(429);
+	}
+
+	private static RateLimitFilter filter(int maxKeys, int loginPerIp, int loginPerAccount) {
+		return new RateLimitFilter(true, maxKeys, loginPerIp, loginPerAccount, 10, 5, 60, 10, 3);
+	}
+
+	private static MockHttpServletResponse login(RateLimitFilter filter, String ip, String username) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/login");
+		request.setServletPath("/login");
+		request.setRemoteAddr(ip);
+		request.setParameter("username", username);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		MockFilterChain chain = new MockFilterChain();
+
+		filter.doFilter(request, response, chain);
+		if (response.getStatus() == 200) {
+			assertThat(chain.getRequest()).isNotNull();
+		}
+		return response;
+	}
+}
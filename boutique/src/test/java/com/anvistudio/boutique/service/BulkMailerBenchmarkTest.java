@@ -0,0 +1,144 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.EmailOutbox;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sends the same bulk audience to an in-process SMTP server three ways: one message per connection
+ * from a single thread (how sale notifications used to go out), one message per connection from as
+ * many threads as there are bulk connections, and BulkMailer batches over those connections. The
+ * rate limit is off so only the SMTP round trips are measured. The default size keeps the build fast;
+ * for a larger run use e.g. mvn test -Dtest=BulkMailerBenchmarkTest -Dbenchmark.messages=2000
+ */
+class BulkMailerBenchmarkTest {
+
+	private static final int MESSAGES = Integer.getInteger("benchmark.messages", 200);
+	private static final int BATCH_SIZE = Integer.getInteger("benchmark.batch-size", 50);
+	private static final int CONNECTIONS = Integer.getInteger("benchmark.connections", 2);
+
+	@RegisterExtension
+	static final GreenMailExtension smtp = new GreenMailExtension(ServerSetupTest.SMTP.dynamicPort());
+
+	private JavaMailSenderImpl mailSender;
+
+	@BeforeEach
+	void setUp() {
+		mailSender = new JavaMailSenderImpl();
+		mailSender.setHost("localhost");
+		mailSender.setPort(smtp.getSmtp().getPort());
+		// Name used in EHLO; without it JavaMail looks up the machine's own host name on every connection
+		mailSender.getJavaMailProperties().setProperty("mail.smtp.localhost", "localhost");
+	}
+
+	@Test
+	void batchedSendsDeliverTheAudienceFasterThanPerMessageSends() throws Exception {
+		List<EmailOutbox> audience = audience();
+
+		// Warm up both paths so class loading and JIT do not count against whichever runs first
+		sendPerMessage(audience.subList(0, BATCH_SIZE), 1);
+		sendBatched(audience.subList(0, BATCH_SIZE));
+		awaitDelivery(2 * BATCH_SIZE);
+
+		long sequential = timed(() -> sendPerMessage(audience, 1));
+		long parallel = timed(() -> sendPerMessage(audience, CONNECTIONS));
+		long batched = timed(() -> sendBatched(audience));
+
+		System.out.println("LOG: " + MESSAGES + " messages | per-message, 1 thread: " + sequential
+				+ " ms | per-message, " + CONNECTIONS + " threads: " + parallel + " ms | batches of "
+				+ BATCH_SIZE + " over " + CONNECTIONS + " connections: " + batched + " ms");
+
+		assertThat(batched).isLessThan(sequential);
+		assertThat(batched).isLessThan(parallel);
+	}
+
+	/** Runs one send strategy and checks the server received the whole audience. */
+	private long timed(ThrowingRunnable send) throws Exception {
+		long started = System.nanoTime();
+		send.run();
+		awaitDelivery(MESSAGES);
+		return (System.nanoTime() - started) / 1_000_000;
+	}
+
+	private void awaitDelivery(int expected) throws Exception {
+		assertThat(smtp.waitForIncomingEmail(30_000, expected)).isTrue();
+		assertThat(smtp.getReceivedMessages()).hasSize(expected);
+		smtp.purgeEmailFromAllMailboxes();
+	}
+
+	/** Opens a new SMTP connection for every message, like JavaMailSender.send(SimpleMailMessage). */
+	private void sendPerMessage(List<EmailOutbox> emails, int threads) throws Exception {
+		try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+			List<Future<?>> sends = new ArrayList<>(emails.size());
+			for (EmailOutbox email : emails) {
+				sends.add(executor.submit(() -> {
+					SimpleMailMessage message = new SimpleMailMessage();
+					message.setFrom(email.getSender());
+					message.setTo(email.getRecipient());
+					message.setSubject(email.getSubject());
+					message.setText(email.getBody());
+					mailSender.send(message);
+				}));
+			}
+			for (Future<?> send : sends) {
+				send.get();
+			}
+		}
+	}
+
+	/** Splits the audience into batches and sends them through BulkMailer, one connection per worker. */
+	private void sendBatched(List<EmailOutbox> emails) throws Exception {
+		BulkMailer bulkMailer = new BulkMailer(mailSender, 0);
+		LongAdder failures = new LongAdder();
+		try (ExecutorService executor = Executors.newFixedThreadPool(CONNECTIONS)) {
+			List<Future<?>> sends = new ArrayList<>();
+			for (int from = 0; from < emails.size(); from += BATCH_SIZE) {
+				List<EmailOutbox> batch = emails.subList(from, Math.min(from + BATCH_SIZE, emails.size()));
+				sends.add(executor.submit(() -> {
+					Map<Long, Exception> failed = bulkMailer.send(batch);
+					failures.add(failed.size());
+					return null;
+				}));
+			}
+			for (Future<?> send : sends) {
+				send.get();
+			}
+		}
+		assertThat(failures.sum()).isZero();
+	}
+
+	private static List<EmailOutbox> audience() {
+		List<EmailOutbox> audience = new ArrayList<>(MESSAGES);
+		for (int i = 0; i < MESSAGES; i++) {
+			EmailOutbox email = new EmailOutbox();
+			email.setId((long) i);
+			email.setSender("shop@boutique.test");
+			// A bounded set of mailboxes keeps the server's bookkeeping out of the measurement
+			email.setRecipient("subscriber" + (i % 100) + "@boutique.test");
+			email.setSubject("Sale on now");
+			email.setBody("Everything in the spring collection is 20% off this week.");
+			audience.add(email);
+		}
+		return audience;
+	}
+
+	@FunctionalInterface
+	private interface ThrowingRunnable {
+		void run() throws Exception;
+	}
+}
@@ -0,0 +1,178 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.CartItem;
+import com.anvistudio.boutique.model.Product;
+import com.anvistudio.boutique.model.User;
+import com.anvistudio.boutique.repository.CartItemRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CartCacheTest {
+
+	private static final String UPDATE_SQL = "UPDATE cart_items SET quantity = ?, last_modified = ? WHERE id = ? AND user_id = ?";
+	private static final String DELETE_SQL = "DELETE FROM cart_items WHERE id = ? AND user_id = ?";
+
+	@Mock
+	private CartItemRepository cartItemRepository;
+
+	@Mock
+	private JdbcTemplate jdbcTemplate;
+
+	@Mock
+	private PlatformTransactionManager transactionManager;
+
+	private CartCache cartCache;
+
+	@BeforeEach
+	void setUp() {
+		cartCache = new CartCache(cartItemRepository, jdbcTemplate, transactionManager);
+		ReflectionTestUtils.setField(cartCache, "maxCarts", 10);
+		ReflectionTestUtils.setField(cartCache, "idleMinutes", 30L);
+	}
+
+	@Test
+	void cartIsLoadedOnceAndServedAsCopies() {
+		when(cartItemRepository.findByUserIdWithProduct(1L)).thenReturn(List.of(line(1L, 101L, 2)));
+
+		cartCache.getItems(1L).get(0).setQuantity(99);
+
+		assertThat(cartCache.getItems(1L)).extracting(CartItem::getQuantity).containsExactly(2);
+		verify(cartItemRepository, times(1)).findByUserIdWithProduct(1L);
+	}
+
+	@Test
+	void repeatedQuantityChangesCoalesceIntoOneUpdate() {
+		when(cartItemRepository.findByUserIdWithProduct(1L)).thenReturn(List.of(line(1L, 101L, 1), line(1L, 102L, 1)));
+
+		cartCache.updateQuantity(1L, 101L, 2);
+		cartCache.updateQuantity(1L, 101L, 3);
+		List<CartItem> items = cartCache.updateQuantity(1L, 101L, 5);
+
+		assertThat(items).extracting(CartItem::getQuantity).containsExactly(5, 1);
+		verifyNoInteractions(jdbcTemplate);
+
+		cartCache.flush(1L);
+		cartCache.flush(1L);
+
+		List<Object[]> updates = capturedBatch(UPDATE_SQL);
+		assertThat(updates).hasSize(1);
+		assertThat(updates.get(0)[0]).isEqualTo(5);
+		assertThat(updates.get(0)[2]).isEqualTo(101L);
+		assertThat(updates.get(0)[3]).isEqualTo(1L);
+		verifyNoMoreInteractions(jdbcTemplate);
+	}
+
+	@Test
+	void zeroQuantityRemovesTheLineAndDeletesItOnFlush() {
+		when(cartItemRepository.findByUserIdWithProduct(1L)).thenReturn(List.of(line(1L, 101L, 1), line(1L, 102L, 1)));
+
+		cartCache.updateQuantity(1L, 101L, 4);
+		List<CartItem> items = cartCache.updateQuantity(1L, 101L, 0);
+		cartCache.flushDirtyCarts();
+
+		assertThat(items).extracting(CartItem::getId).containsExactly(102L);
+		List<Object[]> deletes = capturedBatch(DELETE_SQL);
+		assertThat(deletes).hasSize(1);
+		assertThat(deletes.get(0)).containsExactly(101L, 1L);
+		verifyNoMoreInteractions(jdbcTemplate);
+	}
+
+	@Test
+	void unknownLineIsRejected() {
+		when(cartItemRepository.findByUserIdWithProduct(1L)).thenReturn(List.of(line(1L, 101L, 1)));
+
+		assertThatThrownBy(() -> cartCache.updateQuantity(1L, 999L, 2))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void uncachedCartIsWrittenImmediately() {
+		ReflectionTestUtils.setField(cartCache, "maxCarts", 1);
+		when(cartItemRepository.findByUserIdWithProduct(1L)).thenReturn(List.of(line(1L, 101L, 1)));
+		when(cartItemRepository.findByUserIdWithProduct(2L)).thenReturn(List.of(line(2L, 201L, 1)));
+		cartCache.getItems(1L);
+
+		// The cache is full, so user 2's change cannot wait for a later flush
+		cartCache.updateQuantity(2L, 201L, 3);
+
+		assertThat(capturedBatch(UPDATE_SQL).get(0)[0]).isEqualTo(3);
+	}
+
+	@Test
+	void writeThroughFlushesPendingChangesAndReloadsAfterwards() {
+		when(cartItemRepository.findByUserIdWithProduct(1L)).thenReturn(List.of(line(1L, 101L, 1)));
+		cartCache.updateQuantity(1L, 101L, 2);
+
+		List<String> seenByWrite = new ArrayList<>();
+		cartCache.writeThrough(1L, () -> {
+			// The pending change reached the database before the bypassing write ran
+			verify(jdbcTemplate).batchUpdate(eq(UPDATE_SQL), anyList());
+			seenByWrite.add("write");
+			return null;
+		});
+		cartCache.getItems(1L);
+
+		assertThat(seenByWrite).containsExactly("write");
+		verify(cartItemRepository, times(2)).findByUserIdWithProduct(1L);
+	}
+
+	@Test
+	void evictingAProductFlushesAndDropsTheCartsHoldingIt() {
+		when(cartItemRepository.findByUserIdWithProduct(1L)).thenReturn(List.of(line(1L, 101L, 1)));
+		cartCache.updateQuantity(1L, 101L, 2);
+
+		cartCache.evictProduct(500L + 101L);
+		cartCache.getItems(1L);
+
+		verify(jdbcTemplate).batchUpdate(startsWith("UPDATE cart_items"), anyList());
+		verify(cartItemRepository, times(2)).findByUserIdWithProduct(1L);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Object[]> capturedBatch(String sql) {
+		ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+		verify(jdbcTemplate).batchUpdate(eq(sql), batch.capture());
+		return batch.getValue();
+	}
+
+	/**
+	 * A cart line whose product id is the item id plus 500.
+	 */
+	private static CartItem line(Long userId, Long itemId, int quantity) {
+		User user = new User();
+		user.setId(userId);
+		Product product = new Product();
+		product.setId(itemId + 500);
+		product.setName("Product " + itemId);
+		product.setPrice(new BigDecimal("1499.00"));
+		CartItem item = new CartItem();
+		item.setId(itemId);
+		item.setUser(user);
+		item.setProduct(product);
+		item.setQuantity(quantity);
+		return item;
+	}
+}
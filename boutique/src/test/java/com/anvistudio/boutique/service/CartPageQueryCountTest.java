@@ -0,0 +1,88 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.CartFixtures;
+import com.anvistudio.boutique.JpaTestConfig;
+import com.anvistudio.boutique.dto.CartSummary;
+import com.anvistudio.boutique.model.CartItem;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The cart page (CartController -> CartService.getCartSummary) must cost one fetch-joined select
+ * on the first view, whatever the number of lines, and none while the cart is cached.
+ */
+@SpringJUnitConfig({JpaTestConfig.class, CartService.class, CartCache.class})
+class CartPageQueryCountTest {
+
+	@Autowired
+	private CartService cartService;
+
+	@Autowired
+	private CartFixtures cartFixtures;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	private Statistics statistics;
+
+	@BeforeEach
+	void setUp() {
+		statistics = JpaTestConfig.statistics(entityManagerFactory);
+	}
+
+	@Test
+	void firstViewIssuesOneSelectRegardlessOfLineCount() {
+		assertThat(statementsToRender(cartFixtures.customerWithCart(1))).isEqualTo(1);
+		assertThat(statementsToRender(cartFixtures.customerWithCart(5))).isEqualTo(1);
+	}
+
+	@Test
+	void cachedCartIsServedWithoutStatements() {
+		Long userId = cartFixtures.customerWithCart(3);
+		statementsToRender(userId);
+
+		assertThat(statementsToRender(userId)).isZero();
+	}
+
+	@Test
+	void quantityChangesAreServedFromTheCachedCart() {
+		Long userId = cartFixtures.customerWithCart(2);
+		statementsToRender(userId);
+		Long itemId = cartService.getCartSummary(userId).items().get(0).getId();
+
+		statistics.clear();
+		cartService.updateItemQuantity(userId, itemId, 3);
+		CartSummary afterChange = cartService.updateItemQuantity(userId, itemId, 4);
+
+		// Written later by the coalesced flush, not by Hibernate on the page's request
+		assertThat(statistics.getPrepareStatementCount()).isZero();
+		assertThat(afterChange.totalQuantity()).isEqualTo(5);
+	}
+
+	/**
+	 * Loads the cart as the cart page does and reads everything the template shows. Runs in one
+	 * session like a request under open-in-view, so a lazy product load shows up as extra statements.
+	 */
+	private long statementsToRender(Long userId) {
+		statistics.clear();
+		transactionTemplate.executeWithoutResult(status -> {
+			CartSummary cart = cartService.getCartSummary(userId);
+			for (CartItem item : cart.items()) {
+				assertThat(item.getProduct().getName()).isNotBlank();
+				assertThat(item.getTotalPrice()).isPositive();
+			}
+			assertThat(cart.total()).isPositive();
+		});
+		return statistics.getPrepareStatementCount();
+	}
+}
@@ -0,0 +1,89 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.CartFixtures;
+import com.anvistudio.boutique.JpaTestConfig;
+import com.anvistudio.boutique.model.Order;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Counts the JDBC statements of the confirm path (/payment/confirm -> finalizeCheckout) with
+ * Hibernate statistics, so a lazy load or per-line lookup sneaking back in fails the build.
+ */
+@SpringJUnitConfig({JpaTestConfig.class, OrderService.class, CartService.class, CartCache.class,
+		InventoryReservationService.class, HotInventoryService.class, RefundService.class})
+class CheckoutQueryCountTest {
+
+	@Autowired
+	private OrderService orderService;
+
+	@Autowired
+	private CartService cartService;
+
+	@Autowired
+	private CartFixtures cartFixtures;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	void finalizeCheckoutIssuesFixedStatementsPlusOneStockUpdatePerLine() {
+		// Idempotency lookup, cart read (products fetch-joined), order insert, hold cleanup, cart delete
+		assertThat(confirm(cartFixtures.customerWithCart(1), newKey())).isEqualTo(5 + 1);
+		// ... plus one conditional stock UPDATE per line, and nothing else that grows with the cart
+		assertThat(confirm(cartFixtures.customerWithCart(3), newKey())).isEqualTo(5 + 3);
+	}
+
+	@Test
+	void repeatedConfirmOnlyLooksUpTheExistingOrder() {
+		Long userId = cartFixtures.customerWithCart(2);
+		String key = newKey();
+		confirm(userId, key);
+
+		assertThat(confirm(userId, key)).isEqualTo(1);
+		assertThat(orderService.findByIdempotencyKey(key, userId)).isPresent();
+	}
+
+	@Test
+	void idempotencyKeyIsScopedToItsUser() {
+		Long owner = cartFixtures.customerWithCart(1);
+		Long otherUser = cartFixtures.customerWithCart(1);
+		String key = newKey();
+		Order order = orderService.finalizeCheckout(owner, key, "COD", null);
+
+		// The other user's lookup misses, so the unique key rejects the second order instead of returning the first
+		assertThat(orderService.findByIdempotencyKey(key, otherUser)).isEmpty();
+		assertThatThrownBy(() -> orderService.finalizeCheckout(otherUser, key, "COD", null))
+				.isInstanceOf(DataIntegrityViolationException.class);
+		assertThat(orderService.findByIdempotencyKey(key, owner)).get()
+				.extracting(Order::getId).isEqualTo(order.getId());
+	}
+
+	/**
+	 * Runs the confirm path as PaymentController does and returns the number of statements prepared.
+	 */
+	private long confirm(Long userId, String idempotencyKey) {
+		cartService.flushCart(userId);
+
+		Statistics statistics = JpaTestConfig.statistics(entityManagerFactory);
+		statistics.clear();
+		Order order = orderService.finalizeCheckout(userId, idempotencyKey, "COD", null);
+		long statements = statistics.getPrepareStatementCount();
+
+		assertThat(order.getId()).isNotNull();
+		return statements;
+	}
+
+	private static String newKey() {
+		return "checkout-" + UUID.randomUUID();
+	}
+}
@@ -0,0 +1,194 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.InventoryReservation;
+import com.anvistudio.boutique.model.InventoryReservation.ReservationStatus;
+import com.anvistudio.boutique.model.User;
+import com.anvistudio.boutique.repository.InventoryReservationRepository;
+import com.anvistudio.boutique.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class HotInventoryServiceTest {
+
+	private static final Long PRODUCT_ID = 1L;
+
+	@Mock
+	private ProductRepository productRepository;
+
+	@Mock
+	private InventoryReservationRepository reservationRepository;
+
+	private HotInventoryService hotInventoryService;
+
+	@BeforeEach
+	void setUp() {
+		hotInventoryService = new HotInventoryService(productRepository, reservationRepository,
+				new TransactionTemplate(mock(PlatformTransactionManager.class)));
+		ReflectionTestUtils.setField(hotInventoryService, "configuredStripes", 4);
+	}
+
+	@Test
+	void holdsAreAdmittedUntilTheStockIsGone() {
+		activate(10);
+
+		assertThat(hotInventoryService.hold(11L, PRODUCT_ID, 6, inMinutes(10))).isTrue();
+		assertThat(hotInventoryService.hold(12L, PRODUCT_ID, 5, inMinutes(10))).isFalse();
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(4);
+	}
+
+	@Test
+	void aNewHoldReplacesTheUsersPreviousOne() {
+		activate(10);
+
+		hotInventoryService.hold(11L, PRODUCT_ID, 6, inMinutes(10));
+		hotInventoryService.hold(11L, PRODUCT_ID, 2, inMinutes(10));
+
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(8);
+	}
+
+	@Test
+	void convertingAHoldDoesNotTakeTheUnitsTwice() {
+		activate(10);
+		hotInventoryService.hold(11L, PRODUCT_ID, 3, inMinutes(10));
+
+		assertThat(hotInventoryService.convertHold(11L, PRODUCT_ID, 3)).isTrue();
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(7);
+	}
+
+	@Test
+	void convertingWithoutAHoldReacquiresFromTheCounter() {
+		activate(4);
+
+		assertThat(hotInventoryService.convertHold(11L, PRODUCT_ID, 3)).isTrue();
+		assertThat(hotInventoryService.convertHold(12L, PRODUCT_ID, 3)).isFalse();
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(1);
+	}
+
+	@Test
+	void expiredHoldsAreReleasedBySweep() {
+		activate(10);
+		hotInventoryService.hold(11L, PRODUCT_ID, 4, new Date(System.currentTimeMillis() - 1));
+		hotInventoryService.hold(12L, PRODUCT_ID, 2, inMinutes(10));
+
+		hotInventoryService.releaseExpiredHolds();
+
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(8);
+	}
+
+	@Test
+	void stockEditsAdjustTheLiveCounterByTheirDelta() {
+		activate(10);
+		hotInventoryService.hold(11L, PRODUCT_ID, 6, inMinutes(10));
+
+		hotInventoryService.resync(PRODUCT_ID, 5);
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(9);
+
+		hotInventoryService.resync(PRODUCT_ID, -7);
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(2);
+	}
+
+	@Test
+	void loweringStockBelowTheHeldUnitsIsPaidBackByReleases() {
+		activate(10);
+		hotInventoryService.hold(11L, PRODUCT_ID, 6, inMinutes(10));
+
+		// 4 units free, 7 removed: 3 of the held units must not go back on sale
+		hotInventoryService.resync(PRODUCT_ID, -7);
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isZero();
+
+		hotInventoryService.releaseHolds(11L);
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(3);
+	}
+
+	@Test
+	void activationMovesActiveDatabaseHoldsIntoMemory() {
+		activate(10, hold(21L, 2), hold(21L, 1), hold(22L, 4));
+
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(3);
+		// The restored hold covers the sale, so nothing more is taken from the counter
+		assertThat(hotInventoryService.convertHold(21L, PRODUCT_ID, 3)).isTrue();
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(3);
+	}
+
+	@Test
+	void oversubscribedDatabaseHoldsStartTheCounterInDeficit() {
+		activate(3, hold(21L, 5));
+
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isZero();
+		hotInventoryService.releaseHolds(21L);
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(3);
+	}
+
+	@Test
+	void reactivatingAHotSkuKeepsItsLiveCounter() {
+		activate(10);
+		hotInventoryService.hold(11L, PRODUCT_ID, 6, inMinutes(10));
+
+		hotInventoryService.setHotMode(PRODUCT_ID, true);
+
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(4);
+	}
+
+	@Test
+	void flushAppliesCommittedSalesToTheProductRow() {
+		InventoryReservation first = hold(31L, 2);
+		InventoryReservation second = hold(32L, 3);
+		when(reservationRepository.findProductIdsWithCommittedSales()).thenReturn(List.of(PRODUCT_ID));
+		when(reservationRepository.findByProductIdAndStatusForUpdate(PRODUCT_ID, ReservationStatus.COMMITTED))
+				.thenReturn(List.of(first, second));
+
+		hotInventoryService.flushCommittedSales();
+
+		verify(productRepository).decrementStock(PRODUCT_ID, 5);
+		verify(reservationRepository).deleteAllInBatch(List.of(first, second));
+	}
+
+	@Test
+	void coldProductsAreNotAnsweredFromMemory() {
+		assertThat(hotInventoryService.isHot(PRODUCT_ID)).isFalse();
+		assertThat(hotInventoryService.getAvailable(PRODUCT_ID)).isEqualTo(-1);
+		assertThat(hotInventoryService.hold(11L, PRODUCT_ID, 1, inMinutes(10))).isFalse();
+	}
+
+	private void activate(long stock, InventoryReservation... activeHolds) {
+		when(productRepository.updateHotInventory(PRODUCT_ID, true)).thenReturn(1);
+		when(reservationRepository.findStockNetOfCommittedSales(PRODUCT_ID)).thenReturn(stock);
+		if (activeHolds.length > 0) {
+			when(reservationRepository.findActiveHolds(eq(PRODUCT_ID), eq(ReservationStatus.HELD), any(Date.class)))
+					.thenReturn(List.of(activeHolds));
+		}
+		hotInventoryService.setHotMode(PRODUCT_ID, true);
+		assertThat(hotInventoryService.isHot(PRODUCT_ID)).isTrue();
+	}
+
+	private static InventoryReservation hold(Long userId, int quantity) {
+		User user = new User();
+		user.setId(userId);
+		InventoryReservation reservation = new InventoryReservation();
+		reservation.setUser(user);
+		reservation.setQuantity(quantity);
+		reservation.setExpiresAt(inMinutes(10));
+		return reservation;
+	}
+
+	private static Date inMinutes(int minutes) {
+		return new Date(System.currentTimeMillis() + minutes * 60_000L);
+	}
+}
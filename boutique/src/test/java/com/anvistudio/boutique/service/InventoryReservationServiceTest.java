@@ -0,0 +1,166 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.model.CartItem;
+import com.anvistudio.boutique.model.Product;
+import com.anvistudio.boutique.repository.InventoryReservationRepository;
+import com.anvistudio.boutique.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class InventoryReservationServiceTest {
+
+	private static final Long USER_ID = 7L;
+
+	@Mock
+	private InventoryReservationRepository reservationRepository;
+
+	@Mock
+	private ProductRepository productRepository;
+
+	@Mock
+	private HotInventoryService hotInventoryService;
+
+	private InventoryReservationService reservationService;
+
+	@BeforeEach
+	void setUp() {
+		reservationService = new InventoryReservationService(reservationRepository, productRepository, hotInventoryService);
+		ReflectionTestUtils.setField(reservationService, "reservationTtlMinutes", 10L);
+		ReflectionTestUtils.setField(reservationService, "sweepBatchSize", 500);
+	}
+
+	@Test
+	void reserveCartReplacesPreviousHoldsAndHoldsEachLineForTheTtl() {
+		when(reservationRepository.reserveIfAvailable(eq(USER_ID), anyLong(), anyInt(), any(Date.class), any(Date.class)))
+				.thenReturn(1);
+
+		reservationService.reserveCart(USER_ID, List.of(line(1L, 2), line(2L, 1)));
+
+		InOrder order = inOrder(reservationRepository, hotInventoryService);
+		order.verify(reservationRepository).deleteByUserId(USER_ID);
+		order.verify(hotInventoryService).releaseHolds(USER_ID);
+
+		ArgumentCaptor<Date> now = ArgumentCaptor.forClass(Date.class);
+		ArgumentCaptor<Date> expiresAt = ArgumentCaptor.forClass(Date.class);
+		verify(reservationRepository).reserveIfAvailable(eq(USER_ID), eq(1L), eq(2), now.capture(), expiresAt.capture());
+		verify(reservationRepository).reserveIfAvailable(eq(USER_ID), eq(2L), eq(1), any(Date.class), any(Date.class));
+		assertThat(expiresAt.getValue().getTime() - now.getValue().getTime())
+				.isEqualTo(TimeUnit.MINUTES.toMillis(10));
+	}
+
+	@Test
+	void hotLinesAreHeldInMemory() {
+		when(hotInventoryService.isHot(1L)).thenReturn(true);
+		when(hotInventoryService.hold(eq(USER_ID), eq(1L), eq(3), any(Date.class))).thenReturn(true);
+
+		reservationService.reserveCart(USER_ID, List.of(line(1L, 3)));
+
+		verify(reservationRepository, never()).reserveIfAvailable(any(), any(), anyInt(), any(), any());
+	}
+
+	@Test
+	void aLineThatCannotBeHeldFailsWithTheUnitsLeft() {
+		when(reservationRepository.reserveIfAvailable(eq(USER_ID), eq(1L), eq(4), any(Date.class), any(Date.class)))
+				.thenReturn(0);
+		when(hotInventoryService.getAvailable(1L)).thenReturn(-1L);
+		when(reservationRepository.findAvailableToSell(eq(1L), any(Date.class))).thenReturn(2L);
+
+		assertThatThrownBy(() -> reservationService.reserveCart(USER_ID, List.of(line(1L, 4))))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("only 2 unit(s) of 'Product 1'");
+		// Once before placing, once to give back in-memory holds of earlier lines
+		verify(hotInventoryService, times(2)).releaseHolds(USER_ID);
+	}
+
+	@Test
+	void commitDeductsReservedStockAndClearsTheHolds() {
+		when(productRepository.deductReservedStock(eq(1L), eq(USER_ID), eq(2), any(Date.class))).thenReturn(1);
+
+		reservationService.commitReservations(USER_ID, List.of(line(1L, 2)));
+
+		verify(reservationRepository).deleteByUserId(USER_ID);
+	}
+
+	@Test
+	void commitFailsWhenTheLineSoldOut() {
+		when(productRepository.deductReservedStock(eq(1L), eq(USER_ID), eq(2), any(Date.class))).thenReturn(0);
+
+		assertThatThrownBy(() -> reservationService.commitReservations(USER_ID, List.of(line(1L, 2))))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("'Product 1' sold out");
+		verify(reservationRepository, never()).deleteByUserId(USER_ID);
+	}
+
+	@Test
+	void hotCommitRecordsTheSaleWithoutTouchingTheProductRow() {
+		when(hotInventoryService.isHot(1L)).thenReturn(true);
+		when(hotInventoryService.convertHold(USER_ID, 1L, 2)).thenReturn(true);
+		when(reservationRepository.insertCommitted(eq(USER_ID), eq(1L), eq(2), any(Date.class))).thenReturn(1);
+
+		reservationService.commitReservations(USER_ID, List.of(line(1L, 2)));
+
+		verify(productRepository, never()).deductReservedStock(any(), any(), anyInt(), any());
+	}
+
+	@Test
+	void hotCommitFailsWhenTheCounterRejectsTheSale() {
+		when(hotInventoryService.isHot(1L)).thenReturn(true);
+		when(hotInventoryService.convertHold(USER_ID, 1L, 2)).thenReturn(false);
+
+		assertThatThrownBy(() -> reservationService.commitReservations(USER_ID, List.of(line(1L, 2))))
+				.isInstanceOf(IllegalStateException.class);
+		verify(reservationRepository, never()).insertCommitted(any(), any(), anyInt(), any());
+	}
+
+	@Test
+	void availableToSellPrefersTheHotCounter() {
+		when(hotInventoryService.getAvailable(1L)).thenReturn(5L);
+		when(hotInventoryService.getAvailable(2L)).thenReturn(-1L);
+		when(reservationRepository.findAvailableToSell(eq(2L), any(Date.class))).thenReturn(null);
+
+		assertThat(reservationService.getAvailableToSell(1L)).isEqualTo(5);
+		assertThat(reservationService.getAvailableToSell(2L)).isZero();
+	}
+
+	@Test
+	void expirySweepRunsUntilABatchComesBackShort() {
+		when(reservationRepository.deleteExpired(any(Date.class), eq(500))).thenReturn(500, 500, 3);
+
+		reservationService.releaseExpiredReservations();
+
+		verify(reservationRepository, times(3)).deleteExpired(any(Date.class), eq(500));
+	}
+
+	private static CartItem line(Long productId, int quantity) {
+		Product product = new Product();
+		product.setId(productId);
+		product.setName("Product " + productId);
+		CartItem item = new CartItem();
+		item.setProduct(product);
+		item.setQuantity(quantity);
+		return item;
+	}
+}
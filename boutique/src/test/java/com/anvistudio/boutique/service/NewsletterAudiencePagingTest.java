@@ -0,0 +1,109 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.JpaTestConfig;
+import com.anvistudio.boutique.model.NewsletterCampaign;
+import com.anvistudio.boutique.model.NewsletterCampaign.CampaignStatus;
+import com.anvistudio.boutique.repository.NewsletterCampaignRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The sale audience (opted-in customers UNION active subscribers) is read one keyset page per tick,
+ * so what a campaign holds in memory is bounded by the page size, not by the number of subscribers.
+ */
+@SpringJUnitConfig({JpaTestConfig.class, NewsletterCampaignService.class})
+class NewsletterAudiencePagingTest {
+
+	// newsletter.campaign.rate-per-minute (600) * tick-ms (10000) / 60000
+	private static final int PAGE_SIZE = 100;
+
+	@Autowired
+	private NewsletterCampaignService campaignService;
+
+	@Autowired
+	private NewsletterCampaignRepository campaignRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@MockitoBean
+	private EmailOutboxService emailOutboxService;
+
+	@Test
+	void eachTickQueuesAtMostOnePageWhateverTheAudienceSize() {
+		// 600 opted-in customers, 600 subscribers of whom 200 are also customers
+		seedAudience(0, 600, 400, 1_000);
+		List<Long> small = runCampaign(1_000);
+
+		// Ten times the audience: 9,000 more recipients, 2,000 of them in both sources
+		seedAudience(1_000, 6_000, 4_000, 10_000);
+		List<Long> large = runCampaign(10_000);
+
+		assertThat(small).hasSize(10).allMatch(queued -> queued == PAGE_SIZE);
+		assertThat(large).hasSize(100).allMatch(queued -> queued == PAGE_SIZE);
+	}
+
+	/**
+	 * Runs a campaign to completion and checks every recipient was queued exactly once.
+	 * @return The number of recipients queued on each tick.
+	 */
+	private List<Long> runCampaign(int expectedAudience) {
+		Long campaignId = campaignService.startCampaign("SALE", null, "shop@example.com", "Sale", "Sale now on").getId();
+
+		List<Long> queuedPerTick = new ArrayList<>();
+		long queuedBefore = 0;
+		NewsletterCampaign campaign;
+		do {
+			campaignService.advanceCampaigns();
+			campaign = campaignRepository.findById(campaignId).orElseThrow();
+			if (campaign.getQueuedCount() > queuedBefore) {
+				queuedPerTick.add(campaign.getQueuedCount() - queuedBefore);
+			}
+			queuedBefore = campaign.getQueuedCount();
+		} while (campaign.getStatus() == CampaignStatus.RUNNING);
+
+		assertThat(campaign.getQueuedCount()).isEqualTo(expectedAudience);
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT recipient) FROM email_outbox WHERE campaign_id = ?",
+				Long.class, campaignId)).isEqualTo(expectedAudience);
+		return queuedPerTick;
+	}
+
+	/**
+	 * Customers from..customersTo (opted in, plus as many opted out), subscribers from subscribersFrom..subscribersTo
+	 * (plus as many inactive), all as audience-NNNNN@example.com so the two ranges can overlap.
+	 */
+	private void seedAudience(int customersFrom, int customersTo, int subscribersFrom, int subscribersTo) {
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		List<Object[]> users = new ArrayList<>();
+		List<Object[]> subscriptions = new ArrayList<>();
+		for (int i = customersFrom; i < customersTo; i++) {
+			users.add(new Object[]{email(i)});
+			users.add(new Object[]{"opted-out-" + email(i)});
+		}
+		for (int i = subscribersFrom; i < subscribersTo; i++) {
+			subscriptions.add(new Object[]{email(i), now, true});
+			subscriptions.add(new Object[]{"inactive-" + email(i), now, false});
+		}
+
+		jdbcTemplate.batchUpdate("INSERT INTO users (username, password, role, email_verified, credentials_updated) " +
+				"VALUES (?, 'x', 'CUSTOMER', TRUE, FALSE)", users);
+		jdbcTemplate.update("INSERT INTO customer_details (first_name, last_name, phone_number, terms_accepted, newsletter_opt_in, user_id) " +
+				"SELECT 'Test', 'Customer', CONCAT('+91', u.id), TRUE, u.username NOT LIKE 'opted-out-%', u.id FROM users u " +
+				"WHERE NOT EXISTS (SELECT 1 FROM customer_details c WHERE c.user_id = u.id)");
+		jdbcTemplate.batchUpdate("INSERT INTO newsletter_subscriptions (email, date_subscribed, is_active) VALUES (?, ?, ?)",
+				subscriptions);
+	}
+
+	private static String email(int i) {
+		return String.format("audience-%05d@example.com", i);
+	}
+}
@@ -0,0 +1,154 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.dto.PaymentIntentResult;
+import com.anvistudio.boutique.model.Order;
+import com.anvistudio.boutique.model.RefundJob;
+import com.anvistudio.boutique.model.RefundJob.RefundStatus;
+import com.anvistudio.boutique.repository.OrderRepository;
+import com.anvistudio.boutique.repository.RefundJobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RefundServiceTest {
+
+	private static final String PAYMENT_INTENT_ID = "pi_123";
+
+	@Mock
+	private RefundJobRepository refundJobRepository;
+
+	@Mock
+	private OrderRepository orderRepository;
+
+	@Mock
+	private PaymentGateway paymentGateway;
+
+	private RefundService refundService;
+
+	@BeforeEach
+	void setUp() {
+		refundService = new RefundService(refundJobRepository, orderRepository, paymentGateway,
+				new TransactionTemplate(mock(PlatformTransactionManager.class)), 1, false);
+		ReflectionTestUtils.setField(refundService, "maxAttempts", 3);
+		ReflectionTestUtils.setField(refundService, "leaseSeconds", 120L);
+		ReflectionTestUtils.setField(refundService, "backoffBaseMillis", 5000L);
+		ReflectionTestUtils.setField(refundService, "backoffMaxMillis", 600000L);
+	}
+
+	@AfterEach
+	void tearDown() {
+		refundService.shutdown();
+	}
+
+	@Test
+	void settledPaymentIsQueuedForRefund() {
+		Order order = cancelledOrder(Order.PaymentStatus.SUCCEEDED);
+
+		assertThat(refundService.enqueueRefund(order, "Cancelled")).isTrue();
+
+		assertThat(order.getPaymentStatus()).isEqualTo(Order.PaymentStatus.REFUND_PENDING);
+		verify(paymentGateway, never()).cancelPaymentIntent(anyString());
+	}
+
+	@Test
+	void unsettledPaymentIsCanceledInsteadOfRefunded() {
+		Order order = cancelledOrder(Order.PaymentStatus.PENDING);
+		when(paymentGateway.cancelPaymentIntent(PAYMENT_INTENT_ID)).thenReturn(intent("canceled"));
+
+		assertThat(refundService.enqueueRefund(order, "Cancelled")).isFalse();
+
+		verify(paymentGateway, after(200).never()).retrievePaymentIntent(anyString());
+		verify(refundJobRepository, never()).save(any());
+	}
+
+	@Test
+	void paymentCapturedBeforeTheWebhookIsRefundedWhenTheCancelIsRejected() {
+		// The browser confirmed the payment, but no webhook moved the order past PENDING
+		Order order = cancelledOrder(Order.PaymentStatus.PENDING);
+		when(paymentGateway.cancelPaymentIntent(PAYMENT_INTENT_ID)).thenReturn(CompletableFuture.failedFuture(
+				new PaymentGatewayException("This PaymentIntent's status is succeeded.", false)));
+		when(paymentGateway.retrievePaymentIntent(PAYMENT_INTENT_ID)).thenReturn(intent("succeeded"));
+		when(orderRepository.findById(order.getId())).thenReturn(Optional.of(order));
+
+		refundService.enqueueRefund(order, "Cancelled");
+
+		ArgumentCaptor<RefundJob> job = ArgumentCaptor.forClass(RefundJob.class);
+		verify(refundJobRepository, timeout(5000)).save(job.capture());
+		assertThat(job.getValue().getAmountInCents()).isEqualTo(249900L);
+		assertThat(job.getValue().getIdempotencyKey()).isEqualTo("refund-order-42");
+		verify(orderRepository, timeout(5000)).save(order);
+		assertThat(order.getPaymentStatus()).isEqualTo(Order.PaymentStatus.REFUND_PENDING);
+	}
+
+	@Test
+	void jobThatKeepsFailingUnexpectedlyEndsFailedAfterMaxAttempts() throws InterruptedException {
+		Order order = cancelledOrder(Order.PaymentStatus.REFUND_PENDING);
+		RefundJob job = new RefundJob();
+		job.setId(7L);
+		job.setOrder(order);
+		job.setPaymentIntentId(PAYMENT_INTENT_ID);
+		job.setAmountInCents(249900L);
+		job.setIdempotencyKey("refund-order-42");
+		job.setStatus(RefundStatus.IN_PROGRESS);
+		job.setAttempts(2);
+		when(refundJobRepository.claimDueJobs(anyString(), any(), any(), anyInt())).thenReturn(1);
+		when(refundJobRepository.findByClaimToken(anyString())).thenReturn(List.of(job));
+		when(refundJobRepository.findById(7L)).thenReturn(Optional.of(job));
+		when(paymentGateway.createRefund(anyString(), anyLong(), anyString()))
+				.thenThrow(new IllegalStateException("amount could not be mapped"));
+
+		refundService.dispatchDueRefunds();
+
+		// Let the worker finish the job
+		ThreadPoolExecutor workers = (ThreadPoolExecutor) ReflectionTestUtils.getField(refundService, "workers");
+		workers.shutdown();
+		assertThat(workers.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+		verify(paymentGateway).createRefund(PAYMENT_INTENT_ID, 249900L, "refund-order-42");
+		assertThat(job.getStatus()).isEqualTo(RefundStatus.FAILED);
+		assertThat(job.getAttempts()).isEqualTo(3);
+		assertThat(order.getPaymentStatus()).isEqualTo(Order.PaymentStatus.REFUND_FAILED);
+	}
+
+	private static Order cancelledOrder(Order.PaymentStatus paymentStatus) {
+		Order order = new Order();
+		order.setId(42L);
+		order.setStatus(Order.OrderStatus.CANCELLED);
+		order.setTotalAmount(new BigDecimal("2499.00"));
+		order.setPaymentMethod("CARD");
+		order.setPaymentIntentId(PAYMENT_INTENT_ID);
+		order.setPaymentStatus(paymentStatus);
+		return order;
+	}
+
+	private static CompletableFuture<PaymentIntentResult> intent(String status) {
+		return CompletableFuture.completedFuture(new PaymentIntentResult(PAYMENT_INTENT_ID, null, status));
+	}
+}
@@ -0,0 +1,94 @@
+package com.anvistudio.boutique.service;
+
+import com.anvistudio.boutique.service.HotInventoryService.StripedStockCounter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StripedStockCounterTest {
+
+	@Test
+	void spreadsInitialStockOverTheStripes() {
+		assertThat(new StripedStockCounter(10, 4).available()).isEqualTo(10);
+		assertThat(new StripedStockCounter(3, 8).available()).isEqualTo(3);
+	}
+
+	@Test
+	void acquireSpillsOverToOtherStripesAndStopsAtZero() {
+		StripedStockCounter counter = new StripedStockCounter(10, 4);
+
+		assertThat(counter.tryAcquire(10)).isTrue();
+		assertThat(counter.available()).isZero();
+		assertThat(counter.tryAcquire(1)).isFalse();
+	}
+
+	@Test
+	void rejectedAcquireGivesItsPartialTakeBack() {
+		StripedStockCounter counter = new StripedStockCounter(5, 4);
+
+		assertThat(counter.tryAcquire(6)).isFalse();
+		assertThat(counter.available()).isEqualTo(5);
+		assertThat(counter.tryAcquire(5)).isTrue();
+	}
+
+	@Test
+	void drainBeyondStockLeavesADeficitThatReleasesPayBackFirst() {
+		StripedStockCounter counter = new StripedStockCounter(4, 2);
+
+		assertThat(counter.drain(7)).isEqualTo(4);
+		assertThat(counter.available()).isEqualTo(-3);
+
+		counter.release(2);
+		assertThat(counter.tryAcquire(1)).isFalse();
+		counter.release(2);
+		assertThat(counter.available()).isEqualTo(1);
+		assertThat(counter.tryAcquire(1)).isTrue();
+	}
+
+	@Test
+	void concurrentShoppersNeverOversell() throws Exception {
+		int stock = 1_000;
+		StripedStockCounter counter = new StripedStockCounter(stock, 8);
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<Integer>> shoppers = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				int quantity = 1 + i % 3;
+				shoppers.add(pool.submit(() -> {
+					start.await();
+					int sold = 0;
+					int misses = 0;
+					// Keep trying while other threads still give units back
+					while (misses < 100) {
+						if (counter.tryAcquire(quantity)) {
+							sold += quantity;
+							misses = 0;
+						} else {
+							misses++;
+						}
+					}
+					return sold;
+				}));
+			}
+			start.countDown();
+
+			int sold = 0;
+			for (Future<Integer> shopper : shoppers) {
+				sold += shopper.get(30, TimeUnit.SECONDS);
+			}
+			assertThat(sold + counter.available()).isEqualTo(stock);
+			assertThat(counter.available()).isNotNegative();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}